@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.benchmark;
+
+import org.openjdk.jmh.Main;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Run the benchmarks with the JMH command line, writing JSON results to {@code target/jmh-result.json} unless a
+ * result format or file is given. Arguments containing spaces are split, so that they can be passed as a single
+ * Maven property.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        final List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            for (String part : arg.trim().split("\\s+")) {
+                if (!part.isEmpty()) {
+                    arguments.add(part);
+                }
+            }
+        }
+        if (!arguments.contains("-rf")) {
+            arguments.addAll(Arrays.asList("-rf", "json"));
+        }
+        if (!arguments.contains("-rff")) {
+            arguments.addAll(Arrays.asList("-rff", "target/jmh-result.json"));
+        }
+        Main.main(arguments.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.benchmark;
+
+import org.jahia.modules.saml2.SAMLConfigException;
+import org.jahia.modules.saml2.internal.SAML2Filter;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.jahia.modules.saml2.test.TestIdentityProvider;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SAMLResponse validation and login through {@code callback.saml}. Each invocation posts a freshly signed response,
+ * as the replay cache rejects an assertion seen before; signing happens in the per-invocation setup and is not
+ * measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CallbackBenchmark {
+
+    private SAML2Fixture fixture;
+    private SAML2Filter filter;
+    private TestIdentityProvider identityProvider;
+    private String siteKey;
+    private String acsUrl;
+    private String audience;
+    private Map<String, String> attributes;
+    private StubHttpServletRequest request;
+
+    @Setup
+    public void setUp() throws SAMLConfigException, IOException, ServletException {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        filter = fixture.getFilter();
+        identityProvider = fixture.getIdentityProvider();
+        siteKey = fixture.getSiteKeys().get(0);
+        acsUrl = fixture.getAssertionConsumerServiceUrl(siteKey);
+        audience = fixture.getServiceProviderEntityId(siteKey);
+        attributes = new LinkedHashMap<>();
+        attributes.put("email", "jdoe@example.com");
+        attributes.put("givenName", "John");
+        attributes.put("sn", "Doe");
+        nextResponse();
+        final StubHttpServletResponse response = callback();
+        if (response.getRedirectedUrl() == null) {
+            throw new IllegalStateException("SAMLResponse rejected, status " + response.getStatus());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void nextResponse() {
+        request = fixture.callbackRequest(siteKey, new StubHttpSession(),
+                identityProvider.createResponse(acsUrl, audience, null, "jdoe", attributes));
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public StubHttpServletResponse callback() throws IOException, ServletException {
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        filter.doFilter(request, response, SAML2Fixture.NO_CHAIN);
+        return response;
+    }
+}
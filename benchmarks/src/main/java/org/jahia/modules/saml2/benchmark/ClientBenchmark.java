@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.benchmark;
+
+import org.jahia.modules.saml2.SAMLConfigException;
+import org.jahia.modules.saml2.internal.SAML2Util;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.pac4j.saml.client.SAML2Client;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SAML2Util#getSAML2Client} when the client of the site is pooled (warm) and when it has to be built (cold).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientBenchmark {
+
+    @Param({"1", "100"})
+    public int sites;
+
+    private SAML2Fixture fixture;
+    private SAML2Util util;
+    private List<String> siteKeys;
+    private int next;
+
+    @Setup
+    public void setUp() throws SAMLConfigException {
+        fixture = new SAML2Fixture(sites, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        util = fixture.getUtil();
+        siteKeys = fixture.getSiteKeys();
+        for (String siteKey : siteKeys) {
+            util.getSAML2Client(null, siteKey);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public SAML2Client warm() throws SAMLConfigException {
+        return util.getSAML2Client(null, nextSiteKey());
+    }
+
+    @Benchmark
+    public SAML2Client cold() throws SAMLConfigException {
+        final String siteKey = nextSiteKey();
+        util.resetClient(siteKey);
+        return util.getSAML2Client(null, siteKey);
+    }
+
+    private String nextSiteKey() {
+        next = (next + 1) % siteKeys.size();
+        return siteKeys.get(next);
+    }
+}
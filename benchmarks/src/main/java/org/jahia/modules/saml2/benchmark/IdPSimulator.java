@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.benchmark;
+
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.TestIdentityProvider;
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.pac4j.saml.util.Configuration;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Browser and IdP side of a login: reads the AuthnRequest sent by {@code connect.saml}, with the HTTP-POST or the
+ * HTTP-Redirect binding, and answers it with a response of the {@link TestIdentityProvider} for the requesting
+ * service provider, in response to the request and with its relay state.
+ */
+public final class IdPSimulator {
+    private static final Pattern FORM_FIELD = Pattern.compile("name=\"(SAMLRequest|RelayState)\"\\s+value=\"([^\"]*)\"");
+
+    private final TestIdentityProvider identityProvider;
+
+    public IdPSimulator(TestIdentityProvider identityProvider) {
+        this.identityProvider = identityProvider;
+    }
+
+    /**
+     * Answer the AuthnRequest of a {@code connect.saml} response.
+     *
+     * @throws IllegalStateException if the response holds no readable AuthnRequest
+     */
+    public Answer answer(StubHttpServletResponse connectResponse, String nameId, Map<String, String> attributes) {
+        String samlRequest = null;
+        String relayState = null;
+        final boolean redirect = connectResponse.getRedirectedUrl() != null;
+        if (redirect) {
+            final String url = connectResponse.getRedirectedUrl();
+            for (String parameter : url.substring(url.indexOf('?') + 1).split("&")) {
+                final int separator = parameter.indexOf('=');
+                final String name = parameter.substring(0, separator);
+                if ("SAMLRequest".equals(name)) {
+                    samlRequest = URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+                } else if ("RelayState".equals(name)) {
+                    relayState = URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8);
+                }
+            }
+        } else {
+            final Matcher matcher = FORM_FIELD.matcher(connectResponse.getContentAsString());
+            while (matcher.find()) {
+                if ("SAMLRequest".equals(matcher.group(1))) {
+                    samlRequest = matcher.group(2);
+                } else {
+                    relayState = matcher.group(2);
+                }
+            }
+        }
+        if (samlRequest == null) {
+            throw new IllegalStateException("No AuthnRequest in connect response, status " + connectResponse.getStatus());
+        }
+        final AuthnRequest authnRequest = parse(Base64Support.decode(samlRequest), redirect);
+        final String samlResponse = identityProvider.createResponse(authnRequest.getAssertionConsumerServiceURL(),
+                authnRequest.getIssuer().getValue(), authnRequest.getID(), nameId, attributes);
+        return new Answer(samlResponse, relayState);
+    }
+
+    private static AuthnRequest parse(byte[] decoded, boolean deflated) {
+        InputStream in = new ByteArrayInputStream(decoded);
+        if (deflated) {
+            in = new InflaterInputStream(in, new Inflater(true));
+        }
+        try {
+            return (AuthnRequest) XMLObjectSupport.unmarshallFromInputStream(Configuration.getParserPool(), in);
+        } catch (XMLParserException | UnmarshallingException | ClassCastException e) {
+            throw new IllegalStateException("Cannot read AuthnRequest", e);
+        }
+    }
+
+    /**
+     * SAMLResponse and RelayState to post to the assertion consumer service.
+     */
+    public static final class Answer {
+        private final String samlResponse;
+        private final String relayState;
+
+        private Answer(String samlResponse, String relayState) {
+            this.samlResponse = samlResponse;
+            this.relayState = relayState;
+        }
+
+        public String getSamlResponse() {
+            return samlResponse;
+        }
+
+        public String getRelayState() {
+            return relayState;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.benchmark;
+
+import org.jahia.modules.saml2.internal.SAML2Filter;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login load test: worker threads run complete {@code connect.saml}, IdP, {@code callback.saml} flows against the
+ * SAML filter, each login on a random site of the fixture, and the throughput, latencies and allocations of the
+ * service provider side are reported for each site count and concurrency.
+ * <p>
+ * Options, all optional:
+ * <ul>
+ *     <li>{@code --sites 1,100,1000}: site counts</li>
+ *     <li>{@code --threads 1,8}: numbers of concurrent logins</li>
+ *     <li>{@code --warmup 10} and {@code --duration 20}: warm-up and measurement time in seconds</li>
+ *     <li>{@code --binding POST}: AuthnRequest binding, {@code POST} or {@code Redirect}</li>
+ *     <li>{@code --out file.csv}: also write the results as CSV</li>
+ *     <li>{@code -Dkey=value}: module setting, as in {@code org.jahia.modules.saml2.cfg}</li>
+ * </ul>
+ * Latencies and allocations only cover the filter calls; signing responses on the simulated IdP uses the same threads
+ * and is reported separately, so the throughput is a lower bound of what the filter alone sustains. With
+ * {@code -Dcallback.async.enabled=true}, the latencies cover the callback until its response is complete, and the
+ * allocations of the callback executors are not reported.
+ */
+public final class LoginLoadTest {
+    private static final String[] COLUMNS = {"sites", "threads", "logins", "failures", "logins/s", "p50 ms", "p90 ms", "p99 ms",
+            "p99.9 ms", "max ms", "callback p50 ms", "callback p99 ms", "idp mean ms", "alloc/login KB", "alloc MB/s"};
+
+    private final Map<String, String> settings;
+    private final String binding;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private LoginLoadTest(Map<String, String> settings, String binding, long warmupSeconds, long durationSeconds) {
+        this.settings = settings;
+        this.binding = binding;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos(warmupSeconds);
+        this.durationNanos = TimeUnit.SECONDS.toNanos(durationSeconds);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int[] siteCounts = {1, 100, 1000};
+        int[] threadCounts = {1, Runtime.getRuntime().availableProcessors()};
+        long warmup = 10;
+        long duration = 20;
+        String binding = SAMLConstants.SAML2_POST_BINDING_URI;
+        Path out = null;
+        final Map<String, String> settings = new LinkedHashMap<>();
+        final List<String> arguments = new ArrayList<>();
+        for (String arg : args) {
+            arguments.addAll(Arrays.asList(arg.trim().split("\\s+")));
+        }
+        arguments.removeIf(String::isEmpty);
+        for (int i = 0; i < arguments.size(); i++) {
+            final String arg = arguments.get(i);
+            if (arg.startsWith("-D") && arg.contains("=")) {
+                settings.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+                continue;
+            }
+            if (i + 1 >= arguments.size()) {
+                throw new IllegalArgumentException("Missing value of " + arg);
+            }
+            final String value = arguments.get(++i);
+            switch (arg) {
+                case "--sites":
+                    siteCounts = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--threads":
+                    threadCounts = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+                    break;
+                case "--warmup":
+                    warmup = Long.parseLong(value);
+                    break;
+                case "--duration":
+                    duration = Long.parseLong(value);
+                    break;
+                case "--binding":
+                    binding = "Redirect".equalsIgnoreCase(value) ? SAMLConstants.SAML2_REDIRECT_BINDING_URI : SAMLConstants.SAML2_POST_BINDING_URI;
+                    break;
+                case "--out":
+                    out = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+
+        final LoginLoadTest loadTest = new LoginLoadTest(settings, binding, warmup, duration);
+        final List<Result> results = new ArrayList<>();
+        System.out.println(String.join(" | ", COLUMNS));
+        for (int siteCount : siteCounts) {
+            for (int threadCount : threadCounts) {
+                final Result result = loadTest.run(siteCount, threadCount);
+                results.add(result);
+                System.out.println(result.format(" | "));
+            }
+        }
+        if (out != null) {
+            write(out, results);
+        }
+    }
+
+    private static void write(Path out, List<Result> results) throws IOException {
+        if (out.getParent() != null) {
+            Files.createDirectories(out.getParent());
+        }
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(out, StandardCharsets.UTF_8))) {
+            writer.println(String.join(",", COLUMNS));
+            results.forEach(result -> writer.println(result.format(",")));
+        }
+    }
+
+    private Result run(int siteCount, int threadCount) throws InterruptedException {
+        try (SAML2Fixture fixture = new SAML2Fixture(siteCount, binding, settings)) {
+            final IdPSimulator idp = new IdPSimulator(fixture.getIdentityProvider());
+            runPhase(fixture, idp, threadCount, warmupNanos);
+            final Worker[] workers = runPhase(fixture, idp, threadCount, durationNanos);
+            return new Result(siteCount, threadCount, durationNanos, workers);
+        }
+    }
+
+    private Worker[] runPhase(SAML2Fixture fixture, IdPSimulator idp, int threadCount, long nanos) throws InterruptedException {
+        final Worker[] workers = new Worker[threadCount];
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final long end = System.nanoTime() + nanos;
+        for (int i = 0; i < threadCount; i++) {
+            workers[i] = new Worker(fixture, idp, end, done);
+            final Thread thread = new Thread(workers[i], "saml2-load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return workers;
+    }
+
+    private final class Worker implements Runnable {
+        private final SAML2Fixture fixture;
+        private final SAML2Filter filter;
+        private final IdPSimulator idp;
+        private final List<String> siteKeys;
+        private final long end;
+        private final CountDownLatch done;
+        private final Map<String, String> attributes = new LinkedHashMap<>();
+        private long[] loginNanos = new long[1024];
+        private long[] callbackNanos = new long[1024];
+        private int logins;
+        private int failures;
+        private long idpNanos;
+        private long allocatedBytes;
+
+        private Worker(SAML2Fixture fixture, IdPSimulator idp, long end, CountDownLatch done) {
+            this.fixture = fixture;
+            this.filter = fixture.getFilter();
+            this.idp = idp;
+            this.siteKeys = fixture.getSiteKeys();
+            this.end = end;
+            this.done = done;
+            attributes.put("email", "jdoe@example.com");
+            attributes.put("givenName", "John");
+            attributes.put("sn", "Doe");
+        }
+
+        @Override
+        public void run() {
+            final long threadId = Thread.currentThread().getId();
+            try {
+                while (System.nanoTime() < end) {
+                    final String siteKey = siteKeys.get(ThreadLocalRandom.current().nextInt(siteKeys.size()));
+                    final StubHttpSession session = new StubHttpSession();
+                    try {
+                        long allocated = threads.getThreadAllocatedBytes(threadId);
+                        final long start = System.nanoTime();
+                        final StubHttpServletResponse connectResponse = new StubHttpServletResponse();
+                        filter.doFilter(fixture.connectRequest(siteKey, session), connectResponse, SAML2Fixture.NO_CHAIN);
+                        final long connected = System.nanoTime();
+                        allocatedBytes += threads.getThreadAllocatedBytes(threadId) - allocated;
+
+                        final IdPSimulator.Answer answer = idp.answer(connectResponse, "jdoe", attributes);
+                        final StubHttpServletRequest callbackRequest = fixture.callbackRequest(siteKey, session, answer.getSamlResponse());
+                        if (answer.getRelayState() != null) {
+                            callbackRequest.parameter("RelayState", answer.getRelayState());
+                        }
+
+                        allocated = threads.getThreadAllocatedBytes(threadId);
+                        final long callbackStart = System.nanoTime();
+                        idpNanos += callbackStart - connected;
+                        final StubHttpServletResponse callbackResponse = new StubHttpServletResponse();
+                        filter.doFilter(callbackRequest, callbackResponse, SAML2Fixture.NO_CHAIN);
+                        callbackRequest.awaitAsync();
+                        final long callbackEnd = System.nanoTime();
+                        allocatedBytes += threads.getThreadAllocatedBytes(threadId) - allocated;
+                        if (callbackResponse.getRedirectedUrl() == null) {
+                            failures++;
+                            continue;
+                        }
+                        record(connected - start + callbackEnd - callbackStart, callbackEnd - callbackStart);
+                    } catch (Exception e) {
+                        failures++;
+                    }
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void record(long login, long callback) {
+            if (logins == loginNanos.length) {
+                loginNanos = Arrays.copyOf(loginNanos, logins * 2);
+                callbackNanos = Arrays.copyOf(callbackNanos, logins * 2);
+            }
+            loginNanos[logins] = login;
+            callbackNanos[logins] = callback;
+            logins++;
+        }
+    }
+
+    private static final class Result {
+        private final int sites;
+        private final int threads;
+        private final int logins;
+        private final int failures;
+        private final double loginsPerSecond;
+        private final long[] loginNanos;
+        private final long[] callbackNanos;
+        private final double idpMeanMillis;
+        private final double allocatedPerLogin;
+        private final double allocationRate;
+
+        private Result(int sites, int threads, long durationNanos, Worker[] workers) {
+            this.sites = sites;
+            this.threads = threads;
+            int loginCount = 0;
+            int failureCount = 0;
+            long idpNanos = 0;
+            long allocated = 0;
+            for (Worker worker : workers) {
+                loginCount += worker.logins;
+                failureCount += worker.failures;
+                idpNanos += worker.idpNanos;
+                allocated += worker.allocatedBytes;
+            }
+            this.logins = loginCount;
+            this.failures = failureCount;
+            this.loginNanos = new long[loginCount];
+            this.callbackNanos = new long[loginCount];
+            int offset = 0;
+            for (Worker worker : workers) {
+                System.arraycopy(worker.loginNanos, 0, loginNanos, offset, worker.logins);
+                System.arraycopy(worker.callbackNanos, 0, callbackNanos, offset, worker.logins);
+                offset += worker.logins;
+            }
+            Arrays.sort(loginNanos);
+            Arrays.sort(callbackNanos);
+            final double seconds = durationNanos / 1e9;
+            this.loginsPerSecond = loginCount / seconds;
+            final int attempts = Math.max(1, loginCount + failureCount);
+            this.idpMeanMillis = idpNanos / 1e6 / attempts;
+            this.allocatedPerLogin = allocated / 1024d / attempts;
+            this.allocationRate = allocated / 1048576d / seconds;
+        }
+
+        private static double percentile(long[] sorted, double quantile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(sorted.length * quantile) - 1)] / 1e6;
+        }
+
+        private String format(String separator) {
+            return String.join(separator, Integer.toString(sites), Integer.toString(threads), Integer.toString(logins),
+                    Integer.toString(failures), decimal(loginsPerSecond), decimal(percentile(loginNanos, 0.5)),
+                    decimal(percentile(loginNanos, 0.9)), decimal(percentile(loginNanos, 0.99)), decimal(percentile(loginNanos, 0.999)),
+                    decimal(percentile(loginNanos, 1)), decimal(percentile(callbackNanos, 0.5)), decimal(percentile(callbackNanos, 0.99)),
+                    decimal(idpMeanMillis), decimal(allocatedPerLogin), decimal(allocationRate));
+        }
+
+        private static String decimal(double value) {
+            return String.format(Locale.ROOT, "%.2f", value);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.benchmark;
+
+import org.jahia.modules.saml2.internal.SAML2Filter;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Service provider metadata served by {@code metadata.saml}: plain, gzip encoded and revalidated with an ETag.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataBenchmark {
+
+    private SAML2Fixture fixture;
+    private SAML2Filter filter;
+    private String siteKey;
+    private String etag;
+
+    @Setup
+    public void setUp() throws IOException, ServletException {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        filter = fixture.getFilter();
+        siteKey = fixture.getSiteKeys().get(0);
+        final StubHttpServletResponse response = plain();
+        if (response.getStatus() != HttpServletResponse.SC_OK || response.getContentAsByteArray().length == 0) {
+            throw new IllegalStateException("No metadata served, status " + response.getStatus());
+        }
+        etag = response.getHeader("ETag");
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public StubHttpServletResponse plain() throws IOException, ServletException {
+        return metadata(fixture.metadataRequest(siteKey));
+    }
+
+    @Benchmark
+    public StubHttpServletResponse gzip() throws IOException, ServletException {
+        return metadata(fixture.metadataRequest(siteKey).header("Accept-Encoding", "gzip, deflate"));
+    }
+
+    @Benchmark
+    public StubHttpServletResponse notModified() throws IOException, ServletException {
+        return metadata(fixture.metadataRequest(siteKey).header("If-None-Match", etag));
+    }
+
+    private StubHttpServletResponse metadata(StubHttpServletRequest request) throws IOException, ServletException {
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        filter.doFilter(request, response, SAML2Fixture.NO_CHAIN);
+        return response;
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.benchmark;
+
+import org.jahia.modules.saml2.internal.SAML2Util;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SAML2Util#isAuthorizedRedirect} for relative, same host, authorized host and rejected redirections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RedirectBenchmark {
+
+    @Param({"/sites/site0/home.html", SAML2Fixture.SERVER_LOCATION + "/sites/site0/home.html",
+            "https://" + SAML2Fixture.AUTHORIZED_REDIRECT_HOST + "/landing", "https://evil.example.org/landing"})
+    public String redirect;
+
+    private SAML2Fixture fixture;
+    private SAML2Util util;
+    private StubHttpServletRequest request;
+
+    @Setup
+    public void setUp() {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        util = fixture.getUtil();
+        request = fixture.connectRequest(fixture.getSiteKeys().get(0), null);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public boolean isAuthorizedRedirect() {
+        return util.isAuthorizedRedirect(request, redirect, false);
+    }
+}
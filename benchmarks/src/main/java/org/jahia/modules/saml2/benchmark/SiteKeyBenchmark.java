@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.benchmark;
+
+import org.jahia.modules.saml2.internal.SAML2Util;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.services.content.JCRTemplate;
+import org.mockito.MockedStatic;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link SAML2Util#findSiteKeyForRequest} from the siteKey parameter and from the server name, with the server name
+ * already resolved or looked up in the (stubbed) JCR. Thread scoped, as the static {@link JCRTemplate} mock only
+ * applies to the thread that created it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SiteKeyBenchmark {
+
+    private SAML2Fixture fixture;
+    private MockedStatic<JCRTemplate> jcrTemplate;
+    private SAML2Util util;
+    private StubHttpServletRequest parameterRequest;
+    private StubHttpServletRequest serverNameRequest;
+
+    @Setup
+    public void setUp() {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        jcrTemplate = fixture.mockJCRTemplate();
+        util = fixture.getUtil();
+        final String siteKey = fixture.getSiteKeys().get(0);
+        parameterRequest = fixture.connectRequest(siteKey, null);
+        serverNameRequest = new StubHttpServletRequest("GET", SAML2Fixture.SCHEME, SAML2Fixture.getServerName(siteKey),
+                SAML2Fixture.SERVER_PORT, "", "/cms/connect.saml");
+        if (!siteKey.equals(util.findSiteKeyForRequest(serverNameRequest))) {
+            throw new IllegalStateException("Server name of " + siteKey + " not resolved");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        jcrTemplate.close();
+        fixture.close();
+    }
+
+    @Benchmark
+    public String parameter() {
+        return util.findSiteKeyForRequest(parameterRequest);
+    }
+
+    @Benchmark
+    public String serverNameCached() {
+        return util.findSiteKeyForRequest(serverNameRequest);
+    }
+
+    @Benchmark
+    public String serverNameLookup() {
+        util.invalidateSiteKeyCache();
+        return util.findSiteKeyForRequest(serverNameRequest);
+    }
+}
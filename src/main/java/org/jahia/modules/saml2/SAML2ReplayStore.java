@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2;
+
+import java.io.IOException;
+
+/**
+ * Shared store of already consumed SAML message IDs. Register an implementation as an OSGi service to detect replays
+ * across cluster nodes, in addition to the local in-memory replay cache of each node.
+ */
+public interface SAML2ReplayStore {
+
+    /**
+     * Record a message ID.
+     *
+     * @param key        the message key
+     * @param expiration time in milliseconds after which the key can be forgotten
+     * @return true if the key was not already recorded, false if the message is a replay
+     * @throws IOException if the store cannot be reached, the local replay cache result is then used
+     */
+    boolean add(String key, long expiration) throws IOException;
+}
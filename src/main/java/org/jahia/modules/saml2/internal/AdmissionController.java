@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.lang.StringUtils;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admission control of the SAML filter: token buckets per source address and per site, and a cap on the number of
+ * callbacks parsing and verifying responses at the same time.
+ * <p>
+ * Buckets are kept in fixed size tables indexed by the hash of their key, so that memory stays bounded whatever the
+ * number of sources. Keys sharing a slot share its bucket, which can only make admission stricter for them.
+ * <p>
+ * The source of a request is its remote address, or the last address of a header set by a trusted reverse proxy.
+ */
+public final class AdmissionController {
+    private final String sourceHeader;
+    private final TokenBuckets sourceBuckets;
+    private final TokenBuckets siteBuckets;
+    private final Semaphore callbackPermits;
+    private final long maxWait;
+
+    /**
+     * @param sourceHeader           header holding the client address, like X-Forwarded-For, blank for the remote address
+     * @param maxConcurrentCallbacks number of callbacks processed at the same time
+     * @param maxWait                time in milliseconds a callback waits for a permit before being rejected
+     */
+    public AdmissionController(String sourceHeader, TokenBuckets sourceBuckets, TokenBuckets siteBuckets, int maxConcurrentCallbacks, long maxWait) {
+        this.sourceHeader = StringUtils.trimToNull(sourceHeader);
+        this.sourceBuckets = sourceBuckets;
+        this.siteBuckets = siteBuckets;
+        this.callbackPermits = new Semaphore(maxConcurrentCallbacks);
+        this.maxWait = maxWait;
+    }
+
+    /**
+     * The address of the client of a request. Only the last address of the header is used, the one appended by the
+     * proxy in front of the server, as the previous ones are under the control of the client.
+     */
+    public String getSource(HttpServletRequest request) {
+        if (sourceHeader != null) {
+            final String forwarded = request.getHeader(sourceHeader);
+            if (StringUtils.isNotBlank(forwarded)) {
+                return StringUtils.trim(StringUtils.substringAfterLast("," + forwarded, ","));
+            }
+        }
+        return request.getRemoteAddr();
+    }
+
+    public boolean admitSource(String address) {
+        return address == null || sourceBuckets.tryConsume(address);
+    }
+
+    public boolean admitSite(String siteKey) {
+        return siteKey == null || siteBuckets.tryConsume(siteKey);
+    }
+
+    /**
+     * Take a callback permit, to be released with {@link #exitCallback()} when the permit is granted.
+     */
+    public boolean enterCallback() {
+        try {
+            return callbackPermits.tryAcquire(maxWait, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    public void exitCallback() {
+        callbackPermits.release();
+    }
+
+    /**
+     * Fixed size table of token buckets, refilled at a constant rate up to their capacity, with one lock per stripe of
+     * slots.
+     */
+    public static final class TokenBuckets {
+        private static final int STRIPES = 64;
+
+        private final double[] tokens;
+        private final long[] updates;
+        private final Object[] locks = new Object[STRIPES];
+        private final int mask;
+        private final double ratePerNano;
+        private final double capacity;
+
+        /**
+         * @param slots         number of buckets, rounded up to a power of two
+         * @param ratePerSecond tokens added per second
+         * @param capacity      maximum number of tokens, the allowed burst
+         */
+        public TokenBuckets(int slots, double ratePerSecond, double capacity) {
+            final int size = Integer.highestOneBit(Math.max(STRIPES, slots - 1) << 1);
+            this.tokens = new double[size];
+            this.updates = new long[size];
+            this.mask = size - 1;
+            this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.capacity = capacity;
+            for (int i = 0; i < STRIPES; i++) {
+                locks[i] = new Object();
+            }
+            // buckets start full
+            Arrays.fill(tokens, capacity);
+            Arrays.fill(updates, System.nanoTime());
+        }
+
+        public boolean tryConsume(String key) {
+            final int h = key.hashCode() * 0x9E3779B9;
+            final int slot = (h ^ (h >>> 16)) & mask;
+            final long now = System.nanoTime();
+            synchronized (locks[slot & (STRIPES - 1)]) {
+                final double available = Math.min(capacity, tokens[slot] + (now - updates[slot]) * ratePerNano);
+                updates[slot] = now;
+                if (available < 1) {
+                    tokens[slot] = available;
+                    return false;
+                }
+                tokens[slot] = available - 1;
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.LogoutRequest;
+import org.opensaml.saml.saml2.core.SessionIndex;
+import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
+import org.pac4j.core.logout.handler.LogoutHandler;
+import org.pac4j.saml.context.SAML2MessageContext;
+import org.pac4j.saml.crypto.SAML2SignatureTrustEngineProvider;
+import org.pac4j.saml.logout.impl.SAML2LogoutValidator;
+import org.pac4j.saml.replay.ReplayCacheProvider;
+
+import java.util.List;
+
+/**
+ * Logout validator ending the sessions of all the SessionIndex elements of a logout request, pac4j only handling the
+ * first one.
+ */
+public class BatchLogoutValidator extends SAML2LogoutValidator {
+
+    public BatchLogoutValidator(SAML2SignatureTrustEngineProvider engine, Decrypter decrypter, LogoutHandler<?> logoutHandler,
+                                String postLogoutURL, ReplayCacheProvider replayCache) {
+        super(engine, decrypter, logoutHandler, postLogoutURL, replayCache);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    protected void validateLogoutRequest(LogoutRequest logoutRequest, SAML2MessageContext context, SignatureTrustEngine engine) {
+        super.validateLogoutRequest(logoutRequest, context, engine);
+        final List<SessionIndex> sessionIndexes = logoutRequest.getSessionIndexes();
+        final boolean back = SAMLConstants.SAML2_SOAP11_BINDING_URI.equals(context.getSAMLBindingContext().getBindingUri());
+        for (int i = 1; i < sessionIndexes.size(); i++) {
+            final String sessionIndex = sessionIndexes.get(i).getSessionIndex();
+            if (back) {
+                logoutHandler.destroySessionBack(context.getWebContext(), sessionIndex);
+            } else {
+                logoutHandler.destroySessionFront(context.getWebContext(), sessionIndex);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed size executors with a bounded queue, rejecting tasks when the queue is full so that callers can answer a
+ * retryable error instead of piling up work.
+ */
+public final class BoundedExecutors {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedExecutors.class);
+
+    private BoundedExecutors() {
+    }
+
+    /**
+     * @param name           prefix of the thread names
+     * @param threads        number of threads
+     * @param queueSize      maximum number of waiting tasks, beyond which tasks are rejected
+     * @param virtualThreads use virtual threads when the JVM supports them, platform daemon threads otherwise
+     */
+    public static ExecutorService create(String name, int threads, int queueSize, boolean virtualThreads) {
+        final ThreadFactory threadFactory = virtualThreads ? virtualThreadFactory(name) : null;
+        final AtomicInteger threadCount = new AtomicInteger();
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize),
+                threadFactory != null ? threadFactory : r -> {
+                    final Thread thread = new Thread(r, name + "-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Virtual thread factory of Java 21 and later, looked up reflectively as the module is built for Java 11.
+     */
+    private static ThreadFactory virtualThreadFactory(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            builder = Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name", String.class, long.class)
+                    .invoke(builder, name + "-", 1L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            LOGGER.info("Virtual threads not supported by this JVM, using platform threads for {}", name);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.SAML2ReplayStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Node wide cache of consumed SAML message IDs, shared by all clients. Entries are spread over independently locked
+ * segments, each holding at most its share of the configured maximum. Only messages with verified signatures are
+ * recorded, see {@link JahiaAuthnResponseValidator}. When a segment is full, its expired entries are dropped first,
+ * then its oldest one. An optional {@link SAML2ReplayStore} is consulted for messages that are not known locally.
+ */
+public final class BoundedReplayCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(BoundedReplayCache.class);
+    private static final int SEGMENTS = 16;
+    private static final long WARNING_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final Supplier<SAML2ReplayStore> sharedStore;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final AtomicLong lastWarning = new AtomicLong();
+
+    public BoundedReplayCache(int maxEntries, Supplier<SAML2ReplayStore> sharedStore) {
+        final int segmentCapacity = Math.max(1, maxEntries / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.sharedStore = sharedStore;
+    }
+
+    /**
+     * Record a message key.
+     *
+     * @return true if the key was not seen before, false if the message is a replay
+     */
+    public boolean check(String key, long expiration) {
+        final long now = System.currentTimeMillis();
+        final Segment segment = segments[(key.hashCode() & Integer.MAX_VALUE) % SEGMENTS];
+        synchronized (segment) {
+            final Long existing = segment.get(key);
+            if (existing != null && existing > now) {
+                hits.increment();
+                return false;
+            }
+            segment.purgeExpired(now);
+            if (existing == null && !segment.hasRoom(now)) {
+                segment.evictEldest();
+                evictions.increment();
+                warnFull(now);
+            }
+            segment.put(key, expiration);
+        }
+        final SAML2ReplayStore store = sharedStore.get();
+        if (store != null) {
+            try {
+                if (!store.add(key, expiration)) {
+                    hits.increment();
+                    return false;
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Shared replay store unavailable, using local replay cache only: {}", e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    private void warnFull(long now) {
+        final long last = lastWarning.get();
+        if (now - last >= WARNING_INTERVAL && lastWarning.compareAndSet(last, now)) {
+            LOGGER.warn("Replay cache full, evicting unexpired message IDs; {} evicted so far, consider raising replayCache.maxEntries",
+                    evictions.sum());
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return the number of unexpired entries evicted to make room for new ones
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Message keys in insertion order with their expiration, guarded by the segment monitor.
+     */
+    private static final class Segment extends LinkedHashMap<String, Long> {
+        private static final long serialVersionUID = 1L;
+        private final int capacity;
+        /**
+         * Earliest expiration found by the last full scan, no entry can be purged before.
+         */
+        private long nextExpiration;
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Expirations are close to insertion order, so expired entries are removed from the head only.
+         */
+        private void purgeExpired(long now) {
+            final Iterator<Long> it = values().iterator();
+            while (it.hasNext() && it.next() <= now) {
+                it.remove();
+            }
+        }
+
+        /**
+         * Whether a new entry fits, scanning the whole segment for expired entries when it looks full. Sites have
+         * different lifetimes, so expired entries may sit behind live ones.
+         */
+        private boolean hasRoom(long now) {
+            if (size() < capacity) {
+                return true;
+            }
+            if (now < nextExpiration) {
+                return false;
+            }
+            long earliest = Long.MAX_VALUE;
+            for (Iterator<Long> it = values().iterator(); it.hasNext(); ) {
+                final long expiration = it.next();
+                if (expiration <= now) {
+                    it.remove();
+                } else {
+                    earliest = Math.min(earliest, expiration);
+                }
+            }
+            nextExpiration = earliest;
+            return size() < capacity;
+        }
+
+        private void evictEldest() {
+            final Iterator<String> it = keySet().iterator();
+            it.next();
+            it.remove();
+        }
+
+        @Override
+        public void clear() {
+            super.clear();
+            nextExpiration = 0;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.decoder.MessageDecodingException;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.binding.SAMLBindingSupport;
+import org.opensaml.saml.common.binding.impl.SAMLSOAPDecoderBodyHandler;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.soap.soap11.Envelope;
+import org.pac4j.core.context.ContextHelper;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.saml.context.SAML2MessageContext;
+import org.pac4j.saml.exceptions.SAMLException;
+import org.pac4j.saml.profile.api.SAML2ResponseValidator;
+import org.pac4j.saml.sso.impl.SAML2WebSSOMessageReceiver;
+import org.pac4j.saml.transport.AbstractPac4jDecoder;
+
+/**
+ * Web SSO receiver decoding the POSTed SAML response with the module {@link SAMLMessageDecoder} instead of copying
+ * it to a byte array first.
+ */
+public class BoundedWebSSOMessageReceiver extends SAML2WebSSOMessageReceiver {
+    private static final String SAML_RESPONSE = "SAMLResponse";
+    private static final String RELAY_STATE = "RelayState";
+
+    private final SAMLMessageDecoder messageDecoder;
+
+    public BoundedWebSSOMessageReceiver(SAML2ResponseValidator validator, SAMLMessageDecoder messageDecoder) {
+        super(validator);
+        this.messageDecoder = messageDecoder;
+    }
+
+    @Override
+    protected AbstractPac4jDecoder getDecoder(WebContext webContext) {
+        final PostDecoder decoder = new PostDecoder(webContext, messageDecoder);
+        try {
+            decoder.setParserPool(messageDecoder.getParserPool());
+            decoder.initialize();
+            decoder.decode();
+        } catch (Exception e) {
+            throw new SAMLException("Error decoding SAML message", e);
+        }
+        return decoder;
+    }
+
+    /**
+     * Equivalent of the pac4j HTTP-POST decoder, reading the SAMLResponse parameter only.
+     */
+    private static final class PostDecoder extends AbstractPac4jDecoder {
+        private final SAMLMessageDecoder messageDecoder;
+
+        private PostDecoder(WebContext context, SAMLMessageDecoder messageDecoder) {
+            super(context);
+            this.messageDecoder = messageDecoder;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void doDecode() throws MessageDecodingException {
+            if (!ContextHelper.isPost(context)) {
+                throw new MessageDecodingException("This message decoder only supports the HTTP POST method");
+            }
+            final String encoded = context.getRequestParameter(SAML_RESPONSE)
+                    .orElseThrow(() -> new MessageDecodingException("Request did not contain a SAMLResponse parameter"));
+            final SAML2MessageContext messageContext = new SAML2MessageContext();
+            SAMLBindingSupport.setRelayState(messageContext, context.getRequestParameter(RELAY_STATE).orElse(null));
+            final XMLObject xmlObject = messageDecoder.decode(encoded, context);
+            if (xmlObject instanceof Envelope) {
+                messageContext.getSOAP11Context().setEnvelope((Envelope) xmlObject);
+                try {
+                    new SAMLSOAPDecoderBodyHandler().invoke(messageContext);
+                } catch (MessageHandlerException e) {
+                    throw new MessageDecodingException("Cannot decode SOAP envelope", e);
+                }
+            } else {
+                messageContext.setMessage((SAMLObject) xmlObject);
+            }
+            populateBindingContext(messageContext);
+            setMessageContext(messageContext);
+        }
+
+        @Override
+        public String getBindingURI(SAML2MessageContext messageContext) {
+            return messageContext.getSOAP11Context().getEnvelope() != null ? SAMLConstants.SAML2_SOAP11_BINDING_URI : SAMLConstants.SAML2_POST_BINDING_URI;
+        }
+    }
+}
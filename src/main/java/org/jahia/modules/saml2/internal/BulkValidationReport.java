@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of the validation and rebuild of the SAML configuration of a set of sites.
+ */
+public final class BulkValidationReport {
+    private final List<SiteResult> results;
+    private final long durationMillis;
+
+    BulkValidationReport(List<SiteResult> results, long durationMillis) {
+        this.results = Collections.unmodifiableList(new ArrayList<>(results));
+        this.durationMillis = durationMillis;
+    }
+
+    public List<SiteResult> getResults() {
+        return results;
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public int getFailures() {
+        return (int) results.stream().filter(result -> result.getStatus() == Status.FAILED).count();
+    }
+
+    @Override
+    public String toString() {
+        return results.size() + " site(s) in " + durationMillis + " ms, " + getFailures() + " failure(s)";
+    }
+
+    public enum Status {
+        /** Clients rebuilt and replaced. */
+        APPLIED,
+        /** Configuration valid, no client to replace as the site has no server location and no client yet. */
+        CHECKED,
+        /** No SAML configuration. */
+        SKIPPED,
+        /** Invalid configuration, the previous clients are kept. */
+        FAILED,
+        /** Configuration changed during the validation, the previous clients are kept. */
+        STALE
+    }
+
+    /**
+     * Validation result of a site.
+     */
+    public static final class SiteResult {
+        private final String siteKey;
+        private final Status status;
+        private final int clients;
+        private final long durationMillis;
+        private final String error;
+
+        SiteResult(String siteKey, Status status, int clients, long durationMillis, String error) {
+            this.siteKey = siteKey;
+            this.status = status;
+            this.clients = clients;
+            this.durationMillis = durationMillis;
+            this.error = error;
+        }
+
+        public String getSiteKey() {
+            return siteKey;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the number of clients rebuilt, one per callback URL
+         */
+        public int getClients() {
+            return clients;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public String getError() {
+            return error;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jahia.modules.jahiaauth.service.ConnectorConfig;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * Fingerprint of the connector properties a client is built from: a SHA-256 digest of the length-prefixed values. It
+ * decides whether a new key store or IdP metadata is applied, so it must not collide. The pool compares configurations
+ * by identity first and only fingerprints a configuration it has not seen.
+ */
+public final class ConfigFingerprint {
+    /**
+     * Properties used by {@link SAML2Util#getSAML2ClientConfiguration} and for the callback URL. Mapper and redirect
+     * settings are read by the login plan and do not require a new client.
+     */
+    private static final String[] CLIENT_PROPERTIES = {
+            SAML2Constants.IDENTITY_PROVIDER_METADATA,
+            SAML2Constants.IDENTITY_PROVIDER_METADATA_URL,
+            SAML2Constants.IDENTITY_PROVIDER_METADATA_CERTIFICATE,
+            SAML2Constants.INCOMING_TARGET_URL,
+            SAML2Constants.KEY_STORE,
+            SAML2Constants.KEY_STORE_TYPE,
+            SAML2Constants.KEY_STORE_ALIAS,
+            SAML2Constants.KEY_STORE_PASS,
+            SAML2Constants.PRIVATE_KEY_PASS,
+            SAML2Constants.RELYING_PARTY_IDENTIFIER,
+            SAML2Constants.SERVER_LOCATION,
+            SAML2Constants.MAXIMUM_AUTHENTICATION_LIFETIME,
+            SAML2Constants.FORCE_AUTH,
+            SAML2Constants.PASSIVE,
+            SAML2Constants.SIGN_AUTH_REQUEST,
+            SAML2Constants.BINDING_TYPE,
+            SAML2Constants.REQUIRES_SIGNED_ASSERTIONS
+    };
+
+    private ConfigFingerprint() {
+    }
+
+    public static String of(ConnectorConfig config) {
+        final MessageDigest digest = DigestUtils.getSha256Digest();
+        for (String property : CLIENT_PROPERTIES) {
+            final String value = config.getProperty(property);
+            if (value == null) {
+                digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(-1).array());
+            } else {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+                digest.update(bytes);
+            }
+        }
+        return Hex.encodeHexString(digest.digest());
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.osgi.service.cm.ConfigurationEvent;
+import org.osgi.service.cm.ConfigurationListener;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drops the compiled login plans when a jahia-authentication site configuration is updated or deleted, on any node
+ * receiving the configuration change.
+ */
+@Component(service = ConfigurationListener.class, immediate = true)
+public class ConnectorConfigurationListener implements ConfigurationListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectorConfigurationListener.class);
+    private static final String AUTH_FACTORY_PID = "org.jahia.modules.auth";
+
+    @Reference
+    private SAML2Util util;
+
+    @Override
+    public void configurationEvent(ConfigurationEvent event) {
+        if (AUTH_FACTORY_PID.equals(event.getFactoryPid()) || event.getPid().startsWith(AUTH_FACTORY_PID + "-")) {
+            LOGGER.debug("Authentication configuration {} changed", event.getPid());
+            util.invalidateLoginPlans();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.lang.StringUtils;
+import org.pac4j.core.context.JEEContext;
+import org.pac4j.core.context.session.SessionStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * pac4j session store keeping the short-lived SAML state in an encrypted and authenticated cookie instead of the
+ * HTTP session, so that starting a login does not create a container session.
+ * <p>
+ * Values are read from the cookie of the request and written back once by {@link #save(JEEContext)}. Only string
+ * values are kept in the cookie, other values and states too large for a cookie go to the HTTP session.
+ */
+public final class CookieSessionStore implements SessionStore<JEEContext> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CookieSessionStore.class);
+
+    public static final String COOKIE_NAME = "saml2-state";
+    private static final String STATE_ATTRIBUTE = CookieSessionStore.class.getName() + ".state";
+    private static final String SESSION_ID_KEY = "$sessionId";
+    private static final String CIPHER = "AES/GCM/NoPadding";
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_LENGTH = 128;
+    private static final int MAX_COOKIE_LENGTH = 3072;
+    private static final int MAX_ENTRIES = 32;
+
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKey key;
+    private final long maxAge;
+
+    /**
+     * @param secret secret shared by the cluster nodes
+     * @param maxAge lifetime of the state in milliseconds
+     * @throws IllegalArgumentException if the secret is blank
+     */
+    public CookieSessionStore(String secret, long maxAge) {
+        if (StringUtils.isBlank(secret)) {
+            throw new IllegalArgumentException("A secret is required to encrypt the SAML state cookie");
+        }
+        try {
+            this.key = new SecretKeySpec(MessageDigest.getInstance("SHA-256").digest(secret.trim().getBytes(StandardCharsets.UTF_8)), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public String getOrCreateSessionId(JEEContext context) {
+        final State state = getState(context);
+        String id = state.values.get(SESSION_ID_KEY);
+        if (id == null) {
+            id = UUID.randomUUID().toString();
+            state.put(SESSION_ID_KEY, id);
+        }
+        return id;
+    }
+
+    @Override
+    public Optional<Object> get(JEEContext context, String key) {
+        final State state = getState(context);
+        if (state.values.containsKey(key)) {
+            return Optional.ofNullable(state.values.get(key));
+        }
+        // values that could not be kept in the cookie, only looked up when a session already exists
+        final HttpSession session = context.getNativeRequest().getSession(false);
+        return session != null ? Optional.ofNullable(session.getAttribute(key)) : Optional.empty();
+    }
+
+    @Override
+    public void set(JEEContext context, String key, Object value) {
+        final State state = getState(context);
+        if (value == null) {
+            state.remove(key);
+            final HttpSession session = context.getNativeRequest().getSession(false);
+            if (session != null) {
+                session.removeAttribute(key);
+            }
+        } else if (value instanceof String && (state.values.containsKey(key) || state.values.size() < MAX_ENTRIES)) {
+            state.put(key, (String) value);
+        } else {
+            LOGGER.debug("Storing {} in the HTTP session", key);
+            state.remove(key);
+            context.getNativeRequest().getSession().setAttribute(key, value);
+        }
+    }
+
+    @Override
+    public boolean destroySession(JEEContext context) {
+        final State state = getState(context);
+        state.values.clear();
+        state.changed = true;
+        return true;
+    }
+
+    @Override
+    public Optional<Object> getTrackableSession(JEEContext context) {
+        return Optional.empty();
+    }
+
+    @Override
+    public Optional<SessionStore<JEEContext>> buildFromTrackableSession(JEEContext context, Object trackableSession) {
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean renewSession(JEEContext context) {
+        return false;
+    }
+
+    /**
+     * Write the state cookie if the state changed during the request. Must be called before the response is committed.
+     * <p>
+     * The cookie is sent with {@code SameSite=None; Secure} as the IdP posts the response back from another site, and
+     * is written as a raw header since the servlet API cannot set the SameSite attribute.
+     */
+    public void save(JEEContext context) {
+        final HttpServletRequest request = context.getNativeRequest();
+        final Object attribute = request.getAttribute(STATE_ATTRIBUTE);
+        if (!(attribute instanceof State) || !((State) attribute).changed) {
+            return;
+        }
+        final State state = (State) attribute;
+        state.changed = false;
+        String value = "";
+        if (!state.values.isEmpty()) {
+            value = encode(state.values);
+            if (value.length() > MAX_COOKIE_LENGTH) {
+                LOGGER.warn("SAML state of {} bytes does not fit in a cookie, storing it in the HTTP session", value.length());
+                state.values.forEach(request.getSession()::setAttribute);
+                value = "";
+            }
+        }
+        String contextPath = request.getContextPath();
+        if (StringUtils.isEmpty(contextPath)) {
+            contextPath = "/";
+        }
+        context.getNativeResponse().addHeader("Set-Cookie", COOKIE_NAME + '=' + value + "; Path=" + contextPath
+                + "; Max-Age=" + (value.isEmpty() ? 0 : maxAge / 1000) + "; Secure; HttpOnly; SameSite=None");
+    }
+
+    private State getState(JEEContext context) {
+        final HttpServletRequest request = context.getNativeRequest();
+        final Object attribute = request.getAttribute(STATE_ATTRIBUTE);
+        if (attribute instanceof State) {
+            return (State) attribute;
+        }
+        final State state = new State(read(request));
+        request.setAttribute(STATE_ATTRIBUTE, state);
+        return state;
+    }
+
+    private Map<String, String> read(HttpServletRequest request) {
+        final Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (COOKIE_NAME.equals(cookie.getName()) && StringUtils.isNotEmpty(cookie.getValue())) {
+                    return decode(cookie.getValue());
+                }
+            }
+        }
+        return new LinkedHashMap<>();
+    }
+
+    private String encode(Map<String, String> values) {
+        try {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeLong(System.currentTimeMillis() + maxAge);
+                out.writeShort(values.size());
+                for (Map.Entry<String, String> entry : values.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+            }
+            final byte[] iv = new byte[IV_LENGTH];
+            random.nextBytes(iv);
+            final Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, iv));
+            final byte[] encrypted = cipher.doFinal(bytes.toByteArray());
+            final byte[] cookie = new byte[IV_LENGTH + encrypted.length];
+            System.arraycopy(iv, 0, cookie, 0, IV_LENGTH);
+            System.arraycopy(encrypted, 0, cookie, IV_LENGTH, encrypted.length);
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(cookie);
+        } catch (IOException | GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to encrypt SAML state", e);
+        }
+    }
+
+    private Map<String, String> decode(String value) {
+        final Map<String, String> values = new LinkedHashMap<>();
+        if (value.length() > MAX_COOKIE_LENGTH) {
+            return values;
+        }
+        try {
+            final byte[] cookie = Base64.getUrlDecoder().decode(value);
+            final Cipher cipher = Cipher.getInstance(CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH, cookie, 0, IV_LENGTH));
+            final byte[] decrypted = cipher.doFinal(cookie, IV_LENGTH, cookie.length - IV_LENGTH);
+            try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(decrypted))) {
+                if (in.readLong() < System.currentTimeMillis()) {
+                    LOGGER.debug("Ignoring expired SAML state cookie");
+                    return values;
+                }
+                final int size = Math.min(in.readUnsignedShort(), MAX_ENTRIES);
+                for (int i = 0; i < size; i++) {
+                    values.put(in.readUTF(), in.readUTF());
+                }
+            }
+        } catch (IllegalArgumentException | IOException | GeneralSecurityException e) {
+            // tampered, truncated or encrypted by a node with another key
+            LOGGER.debug("Ignoring invalid SAML state cookie: {}", e.getMessage());
+            values.clear();
+        }
+        return values;
+    }
+
+    /**
+     * State of the current request.
+     */
+    private static final class State {
+        private final Map<String, String> values;
+        private boolean changed;
+
+        private State(Map<String, String> values) {
+            this.values = values;
+        }
+
+        private void put(String key, String value) {
+            if (!value.equals(values.put(key, value))) {
+                changed = true;
+            }
+        }
+
+        private void remove(String key) {
+            if (values.remove(key) != null) {
+                changed = true;
+            }
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Request of an asynchronous callback as seen by the worker threads. The parameters, headers, cookies, URL and
+ * attributes are copied on the container thread before the callback is dispatched; any other call, and every call to
+ * the response returned by {@link #guard(HttpServletResponse, Completion)}, goes to the container objects while
+ * holding the monitor of the callback, and fails once the callback is completed: the container may then already be
+ * reusing them for another client.
+ */
+final class DetachedRequest extends HttpServletRequestWrapper {
+
+    /**
+     * Completion state of a callback, whose monitor guards the calls to the container request and response.
+     */
+    interface Completion {
+        boolean isCompleted();
+    }
+
+    private final Completion completion;
+    private final Map<String, String[]> parameters;
+    private final Map<String, List<String>> headers;
+    private final Cookie[] cookies;
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private final String method;
+    private final String scheme;
+    private final String serverName;
+    private final int serverPort;
+    private final boolean secure;
+    private final String remoteAddr;
+    private final String contextPath;
+    private final String requestURI;
+    private final String requestURL;
+    private final String queryString;
+    private volatile HttpSession session;
+
+    DetachedRequest(HttpServletRequest request, Completion completion) {
+        super(guard(HttpServletRequest.class, request, completion));
+        this.completion = completion;
+        // parses the body on the container thread
+        final Map<String, String[]> parameterMap = new LinkedHashMap<>();
+        request.getParameterMap().forEach((name, values) -> parameterMap.put(name, values.clone()));
+        this.parameters = Collections.unmodifiableMap(parameterMap);
+        final Map<String, List<String>> headerMap = new HashMap<>();
+        for (Enumeration<String> names = request.getHeaderNames(); names != null && names.hasMoreElements(); ) {
+            final String name = names.nextElement();
+            headerMap.put(name.toLowerCase(Locale.ROOT), Collections.list(request.getHeaders(name)));
+        }
+        this.headers = headerMap;
+        final Cookie[] requestCookies = request.getCookies();
+        if (requestCookies != null) {
+            cookies = new Cookie[requestCookies.length];
+            for (int i = 0; i < requestCookies.length; i++) {
+                cookies[i] = (Cookie) requestCookies[i].clone();
+            }
+        } else {
+            cookies = null;
+        }
+        for (Enumeration<String> names = request.getAttributeNames(); names != null && names.hasMoreElements(); ) {
+            final String name = names.nextElement();
+            final Object value = request.getAttribute(name);
+            if (value != null) {
+                attributes.put(name, value);
+            }
+        }
+        this.method = request.getMethod();
+        this.scheme = request.getScheme();
+        this.serverName = request.getServerName();
+        this.serverPort = request.getServerPort();
+        this.secure = request.isSecure();
+        this.remoteAddr = request.getRemoteAddr();
+        this.contextPath = request.getContextPath();
+        this.requestURI = request.getRequestURI();
+        this.requestURL = request.getRequestURL().toString();
+        this.queryString = request.getQueryString();
+        this.session = request.getSession(false);
+    }
+
+    /**
+     * Proxy of a container object, each call holding the monitor of the callback and failing once it is completed.
+     */
+    static <T> T guard(Class<T> type, T target, Completion completion) {
+        final InvocationHandler handler = (proxy, m, args) -> {
+            synchronized (completion) {
+                if (completion.isCompleted()) {
+                    throw new IllegalStateException("SAML callback already completed, cannot call " + m.getName());
+                }
+                try {
+                    return m.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    static HttpServletResponse guard(HttpServletResponse response, Completion completion) {
+        return guard(HttpServletResponse.class, response, completion);
+    }
+
+    /**
+     * Whether the request of the given callback was completed, its remaining work is then abandoned.
+     */
+    static boolean isAbandoned(HttpServletRequest request) {
+        return request instanceof DetachedRequest && ((DetachedRequest) request).completion.isCompleted();
+    }
+
+    @Override
+    public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    @Override
+    public HttpSession getSession(boolean create) {
+        HttpSession current = session;
+        if (current == null && create) {
+            // created through the container request, the session itself outlives it
+            current = super.getSession(true);
+            session = current;
+        }
+        return current;
+    }
+
+    @Override
+    public String getParameter(String name) {
+        final String[] values = parameters.get(name);
+        return values != null && values.length > 0 ? values[0] : null;
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return parameters;
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public String[] getParameterValues(String name) {
+        final String[] values = parameters.get(name);
+        return values != null ? values.clone() : null;
+    }
+
+    @Override
+    public String getHeader(String name) {
+        final List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+        return values != null && !values.isEmpty() ? values.get(0) : null;
+    }
+
+    @Override
+    public Enumeration<String> getHeaders(String name) {
+        final List<String> values = headers.get(name.toLowerCase(Locale.ROOT));
+        return Collections.enumeration(values != null ? values : Collections.emptyList());
+    }
+
+    @Override
+    public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(new ArrayList<>(headers.keySet()));
+    }
+
+    @Override
+    public int getIntHeader(String name) {
+        final String value = getHeader(name);
+        return value != null ? Integer.parseInt(value) : -1;
+    }
+
+    @Override
+    public Cookie[] getCookies() {
+        return cookies != null ? cookies.clone() : null;
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(new ArrayList<>(attributes.keySet()));
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        if (value != null) {
+            attributes.put(name, value);
+        } else {
+            attributes.remove(name);
+        }
+    }
+
+    @Override
+    public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public String getScheme() {
+        return scheme;
+    }
+
+    @Override
+    public String getServerName() {
+        return serverName;
+    }
+
+    @Override
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override
+    public boolean isSecure() {
+        return secure;
+    }
+
+    @Override
+    public String getRemoteAddr() {
+        return remoteAddr;
+    }
+
+    @Override
+    public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return requestURI;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        return new StringBuffer(requestURL);
+    }
+
+    @Override
+    public String getQueryString() {
+        return queryString;
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.jahia.utils.ClassLoaderUtils;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+import org.apache.commons.lang.StringUtils;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SignableSAMLObject;
+import org.opensaml.saml.metadata.resolver.MetadataResolver;
+import org.opensaml.saml.saml2.common.CacheableSAMLObject;
+import org.opensaml.saml.saml2.common.TimeBoundSAMLObject;
+import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.opensaml.xmlsec.signature.support.SignatureValidator;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.saml.metadata.SAML2IdentityProviderMetadataResolver;
+import org.pac4j.saml.metadata.SAML2MetadataResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardCopyOption;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * IdP metadata published at a URL, shared by all sites using the same URL. The metadata is fetched with conditional
+ * GETs on a background thread, at an interval derived from its validUntil and cacheDuration attributes, and the last
+ * good copy is kept on disk so that clients can be built after a restart without waiting for the IdP. A refreshed
+ * metadata replaces the previous one in the clients already built.
+ * <p>
+ * The metadata sets the certificates trusted to sign assertions, so it is only accepted over https, or over any
+ * transport when it is signed with a configured certificate. Metadata past its validUntil date is never applied.
+ */
+public final class IdPMetadataRefresher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(IdPMetadataRefresher.class);
+    private static final int MAX_METADATA_SIZE = 16 * 1024 * 1024;
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private final File cacheDirectory;
+    private final long minInterval;
+    private final long maxInterval;
+    private final int timeout;
+    private final ConcurrentMap<String, RemoteMetadata> sources = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param cacheDirectory directory of the last good copies, null to keep them in memory only
+     * @param minInterval    minimum time in milliseconds between two fetches of a URL, also used to retry failures
+     * @param maxInterval    maximum time in milliseconds between two fetches of a URL
+     * @param timeout        connect and read timeout in milliseconds
+     */
+    public IdPMetadataRefresher(File cacheDirectory, long minInterval, long maxInterval, int timeout) {
+        this.cacheDirectory = cacheDirectory;
+        this.minInterval = minInterval;
+        this.maxInterval = Math.max(minInterval, maxInterval);
+        this.timeout = timeout;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "saml2-metadata-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the metadata published at a URL, loaded from the disk copy or fetched on first use.
+     *
+     * @param url         URL of the metadata, https unless a signing certificate is given
+     * @param certificate PEM or base64 encoded certificate that must have signed the metadata, null to only rely on https
+     * @throws TechnicalException if the URL is not trusted, or there is no usable copy and the metadata cannot be fetched
+     */
+    public RemoteMetadata get(String url, String certificate) {
+        final X509Certificate signingCertificate = StringUtils.isBlank(certificate) ? null : parseCertificate(certificate);
+        if (signingCertificate == null && !StringUtils.startsWithIgnoreCase(url, "https:")) {
+            throw new TechnicalException("IdP metadata URL " + url + " must use https when no metadata signing certificate is configured");
+        }
+        final String key = getKey(url, certificate);
+        final RemoteMetadata source = sources.computeIfAbsent(key, k -> new RemoteMetadata(url, k, signingCertificate));
+        source.load();
+        return source;
+    }
+
+    /**
+     * @return the key of the metadata of a URL checked with a signing certificate, see {@link #retain}
+     */
+    public static String getKey(String url, String certificate) {
+        return StringUtils.isBlank(certificate) ? url : url + '#' + DigestUtils.sha256Hex(certificate.trim());
+    }
+
+    /**
+     * Stop refreshing the metadata whose key is not in use any more, and delete its disk copy.
+     *
+     * @param keys the keys of the metadata used by the sites
+     */
+    public void retain(Set<String> keys) {
+        for (Map.Entry<String, RemoteMetadata> entry : sources.entrySet()) {
+            if (!keys.contains(entry.getKey()) && sources.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().close();
+                LOGGER.info("Stopped refreshing IdP metadata of {}, no site uses it any more", entry.getValue().getUrl());
+            }
+        }
+    }
+
+    public int getSourceCount() {
+        return sources.size();
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        sources.clear();
+    }
+
+    private File getCacheFile(String key, String extension) {
+        return new File(cacheDirectory, DigestUtils.sha256Hex(key) + extension);
+    }
+
+    private static X509Certificate parseCertificate(String certificate) {
+        String pem = certificate.trim();
+        if (!pem.startsWith("-----BEGIN")) {
+            pem = "-----BEGIN CERTIFICATE-----\n" + pem + "\n-----END CERTIFICATE-----\n";
+        }
+        try {
+            return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(pem.getBytes(StandardCharsets.US_ASCII)));
+        } catch (CertificateException e) {
+            throw new TechnicalException("Invalid IdP metadata signing certificate", e);
+        }
+    }
+
+    /**
+     * Check that the metadata has not expired and, when a certificate is given, that its root element is signed by it.
+     */
+    private static void verify(byte[] content, String url, X509Certificate certificate) {
+        ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
+            final XMLObject root;
+            try {
+                root = XMLObjectSupport.unmarshallFromInputStream(XMLObjectProviderRegistrySupport.getParserPool(), new ByteArrayInputStream(content));
+            } catch (XMLParserException | UnmarshallingException e) {
+                throw new TechnicalException("Unreadable IdP metadata from " + url, e);
+            }
+            if (root instanceof TimeBoundSAMLObject && ((TimeBoundSAMLObject) root).getValidUntil() != null
+                    && ((TimeBoundSAMLObject) root).getValidUntil().isBeforeNow()) {
+                throw new TechnicalException("IdP metadata from " + url + " expired on " + ((TimeBoundSAMLObject) root).getValidUntil());
+            }
+            if (certificate != null) {
+                if (!(root instanceof SignableSAMLObject) || ((SignableSAMLObject) root).getSignature() == null) {
+                    throw new TechnicalException("IdP metadata from " + url + " is not signed");
+                }
+                try {
+                    new SAMLSignatureProfileValidator().validate(((SignableSAMLObject) root).getSignature());
+                    SignatureValidator.validate(((SignableSAMLObject) root).getSignature(), new BasicX509Credential(certificate));
+                } catch (SignatureException e) {
+                    throw new TechnicalException("Invalid signature of IdP metadata from " + url + ": " + e.getMessage(), e);
+                }
+            }
+            return null;
+        });
+    }
+
+    private static SAML2IdentityProviderMetadataResolver parse(byte[] content, String url) {
+        return ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
+            final SAML2IdentityProviderMetadataResolver resolver = new SAML2IdentityProviderMetadataResolver(new ByteArrayResource(content, url), null);
+            resolver.init();
+            return resolver;
+        });
+    }
+
+    /**
+     * The metadata of a URL. Clients hold this resolver, which delegates to the last successfully parsed metadata.
+     */
+    public final class RemoteMetadata implements SAML2MetadataResolver {
+        private final String url;
+        private final String key;
+        private final X509Certificate certificate;
+        private volatile SAML2IdentityProviderMetadataResolver current;
+        private volatile byte[] content;
+        private volatile String etag;
+        private volatile String lastModified;
+        private long retryInterval;
+        private ScheduledFuture<?> next;
+        private boolean closed;
+
+        private RemoteMetadata(String url, String key, X509Certificate certificate) {
+            this.url = url;
+            this.key = key;
+            this.certificate = certificate;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * The raw content of the current metadata, as a resource for the client configuration.
+         */
+        public ByteArrayResource getResource() {
+            return new Resource(this);
+        }
+
+        @Override
+        public MetadataResolver resolve() {
+            return current.resolve();
+        }
+
+        @Override
+        public String getEntityId() {
+            return current.getEntityId();
+        }
+
+        @Override
+        public String getMetadata() {
+            return current.getMetadata();
+        }
+
+        @Override
+        public XMLObject getEntityDescriptorElement() {
+            return current.getEntityDescriptorElement();
+        }
+
+        /**
+         * Only the first use waits for the metadata, later refreshes happen in the background.
+         */
+        private void load() {
+            if (current != null) {
+                return;
+            }
+            synchronized (this) {
+                if (current != null) {
+                    return;
+                }
+                if (cacheDirectory != null && loadCachedCopy()) {
+                    // refresh right away, the copy may be outdated
+                    schedule(0);
+                    return;
+                }
+                fetch();
+                if (current == null) {
+                    throw new TechnicalException("Unable to fetch IdP metadata from " + url);
+                }
+            }
+        }
+
+        private boolean loadCachedCopy() {
+            final File file = getCacheFile(key, ".xml");
+            if (!file.isFile()) {
+                return false;
+            }
+            try {
+                final byte[] cached = Files.readAllBytes(file.toPath());
+                final Properties headers = new Properties();
+                final File headersFile = getCacheFile(key, ".properties");
+                if (headersFile.isFile()) {
+                    try (InputStream in = Files.newInputStream(headersFile.toPath())) {
+                        headers.load(in);
+                    }
+                }
+                apply(cached, headers.getProperty(ETAG), headers.getProperty(LAST_MODIFIED));
+                LOGGER.info("Loaded IdP metadata of {} from {}", url, file);
+                return true;
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Ignoring unusable copy of IdP metadata of {} in {}: {}", url, file, e.getMessage());
+                return false;
+            }
+        }
+
+        private void refresh() {
+            if (!scheduler.isShutdown() && !isClosed()) {
+                fetch();
+            }
+        }
+
+        /**
+         * Fetch the metadata, keeping the current one if the IdP answers with an error or an invalid document, and
+         * schedule the next fetch. The metadata is fetched and parsed without holding the monitor, so that clients
+         * being built are never blocked by a slow IdP.
+         */
+        private void fetch() {
+            try {
+                final HttpURLConnection connection = open();
+                try {
+                    final int status = connection.getResponseCode();
+                    if (status == HttpURLConnection.HTTP_NOT_MODIFIED && current != null) {
+                        LOGGER.debug("IdP metadata of {} not modified", url);
+                    } else if (status == HttpURLConnection.HTTP_OK) {
+                        final byte[] fetched = read(connection);
+                        if (content == null || !Arrays.equals(fetched, content)) {
+                            apply(fetched, connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+                            store();
+                            LOGGER.info("Updated IdP metadata of {}", url);
+                        } else {
+                            updateValidators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+                        }
+                    } else {
+                        throw new IOException("Unexpected HTTP status " + status);
+                    }
+                } finally {
+                    connection.disconnect();
+                }
+                scheduleRefresh();
+            } catch (IOException | RuntimeException e) {
+                final long delay = scheduleRetry();
+                LOGGER.warn("Unable to refresh IdP metadata of {}, next attempt in {} s: {}", url, delay / 1000, e.getMessage());
+                LOGGER.debug("IdP metadata refresh failure for {}", url, e);
+            }
+        }
+
+        private HttpURLConnection open() throws IOException {
+            final URLConnection urlConnection = new URL(url).openConnection();
+            if (!(urlConnection instanceof HttpURLConnection)) {
+                throw new IOException("Unsupported metadata URL " + url);
+            }
+            final HttpURLConnection connection = (HttpURLConnection) urlConnection;
+            connection.setConnectTimeout(timeout);
+            connection.setReadTimeout(timeout);
+            connection.setInstanceFollowRedirects(true);
+            connection.setRequestProperty("Accept", "application/samlmetadata+xml, application/xml, text/xml");
+            if (current != null) {
+                if (etag != null) {
+                    connection.setRequestProperty("If-None-Match", etag);
+                }
+                if (lastModified != null) {
+                    connection.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+            return connection;
+        }
+
+        private byte[] read(HttpURLConnection connection) throws IOException {
+            if (connection.getContentLengthLong() > MAX_METADATA_SIZE) {
+                throw new IOException("IdP metadata larger than " + MAX_METADATA_SIZE + " bytes");
+            }
+            try (InputStream in = connection.getInputStream()) {
+                final byte[] fetched = in.readNBytes(MAX_METADATA_SIZE + 1);
+                if (fetched.length > MAX_METADATA_SIZE) {
+                    throw new IOException("IdP metadata larger than " + MAX_METADATA_SIZE + " bytes");
+                }
+                return fetched;
+            }
+        }
+
+        private void apply(byte[] newContent, String newEtag, String newLastModified) {
+            verify(newContent, url, certificate);
+            final SAML2IdentityProviderMetadataResolver parsed = parse(newContent, url);
+            synchronized (this) {
+                current = parsed;
+                content = newContent;
+                etag = newEtag;
+                lastModified = newLastModified;
+            }
+        }
+
+        private synchronized void updateValidators(String newEtag, String newLastModified) {
+            etag = newEtag;
+            lastModified = newLastModified;
+        }
+
+        private void store() {
+            if (cacheDirectory == null || isClosed()) {
+                return;
+            }
+            try {
+                Files.createDirectories(cacheDirectory.toPath());
+                final Properties headers = new Properties();
+                headers.setProperty("url", url);
+                if (etag != null) {
+                    headers.setProperty(ETAG, etag);
+                }
+                if (lastModified != null) {
+                    headers.setProperty(LAST_MODIFIED, lastModified);
+                }
+                final File tmp = File.createTempFile("metadata", ".tmp", cacheDirectory);
+                try {
+                    Files.write(tmp.toPath(), content);
+                    Files.move(tmp.toPath(), getCacheFile(key, ".xml").toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp.toPath());
+                }
+                try (OutputStream out = Files.newOutputStream(getCacheFile(key, ".properties").toPath())) {
+                    headers.store(out, null);
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Unable to store a copy of the IdP metadata of {} in {}", url, cacheDirectory, e);
+            }
+        }
+
+        /**
+         * Half of the remaining validity or the cache duration of the metadata, within the configured bounds.
+         */
+        private long getRefreshDelay() {
+            long delay = maxInterval;
+            final XMLObject descriptor = current.getEntityDescriptorElement();
+            if (descriptor instanceof CacheableSAMLObject && ((CacheableSAMLObject) descriptor).getCacheDuration() != null) {
+                delay = Math.min(delay, ((CacheableSAMLObject) descriptor).getCacheDuration());
+            }
+            if (descriptor instanceof TimeBoundSAMLObject && ((TimeBoundSAMLObject) descriptor).getValidUntil() != null) {
+                delay = Math.min(delay, (((TimeBoundSAMLObject) descriptor).getValidUntil().getMillis() - System.currentTimeMillis()) / 2);
+            }
+            return Math.max(minInterval, delay);
+        }
+
+        private synchronized void scheduleRefresh() {
+            retryInterval = 0;
+            schedule(getRefreshDelay());
+        }
+
+        private synchronized long scheduleRetry() {
+            retryInterval = retryInterval == 0 ? minInterval : Math.min(maxInterval, retryInterval * 2);
+            schedule(retryInterval);
+            return retryInterval;
+        }
+
+        private synchronized void schedule(long delay) {
+            if (next != null) {
+                next.cancel(false);
+            }
+            if (!scheduler.isShutdown() && !closed) {
+                next = scheduler.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        private synchronized boolean isClosed() {
+            return closed;
+        }
+
+        private void close() {
+            synchronized (this) {
+                closed = true;
+                if (next != null) {
+                    next.cancel(false);
+                }
+            }
+            if (cacheDirectory != null) {
+                try {
+                    Files.deleteIfExists(getCacheFile(key, ".xml").toPath());
+                    Files.deleteIfExists(getCacheFile(key, ".properties").toPath());
+                } catch (IOException e) {
+                    LOGGER.warn("Unable to delete the copy of the IdP metadata of {} in {}", url, cacheDirectory, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the content of a remote metadata, recognized by {@link SharedMaterialCache} to share its resolver.
+     */
+    static final class Resource extends ByteArrayResource {
+        private final RemoteMetadata source;
+
+        private Resource(RemoteMetadata source) {
+            super(source.content, "IdP metadata from " + source.url);
+            this.source = source;
+        }
+
+        RemoteMetadata getSource() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.SubjectConfirmationData;
+import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.xmlsec.signature.support.SignatureTrustEngine;
+import org.pac4j.core.credentials.Credentials;
+import org.pac4j.core.logout.handler.LogoutHandler;
+import org.pac4j.saml.context.SAML2MessageContext;
+import org.pac4j.saml.crypto.SAML2SignatureTrustEngineProvider;
+import org.pac4j.saml.exceptions.SAMLException;
+import org.pac4j.saml.replay.ReplayCacheProvider;
+import org.pac4j.saml.sso.impl.SAML2AuthnResponseValidator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Authentication response validator recording the response and assertion IDs in the replay cache only once the
+ * response is fully validated, signatures included. The pac4j validator checks replays first, so every forged response
+ * with a fresh ID would take a replay cache entry.
+ */
+public class JahiaAuthnResponseValidator extends SAML2AuthnResponseValidator {
+    private final ThreadLocal<List<Runnable>> pendingReplayChecks = new ThreadLocal<>();
+
+    public JahiaAuthnResponseValidator(SAML2SignatureTrustEngineProvider engine, Decrypter decrypter, LogoutHandler<?> logoutHandler,
+                                       int maximumAuthenticationLifetime, boolean wantsAssertionsSigned, boolean wantsResponsesSigned,
+                                       ReplayCacheProvider replayCache, boolean allSignatureValidationDisabled) {
+        super(engine, decrypter, logoutHandler, maximumAuthenticationLifetime, wantsAssertionsSigned, wantsResponsesSigned, replayCache,
+                allSignatureValidationDisabled);
+    }
+
+    @Override
+    public Credentials validate(SAML2MessageContext context) {
+        final SAMLObject message = context.getMessage();
+        if (!(message instanceof Response)) {
+            throw new SAMLException("Must be a Response type");
+        }
+        final Response response = (Response) message;
+        final SignatureTrustEngine engine = signatureTrustEngineProvider.build();
+        final List<Runnable> replayChecks = new ArrayList<>();
+        pendingReplayChecks.set(replayChecks);
+        try {
+            validateSamlProtocolResponse(response, context, engine);
+            if (decrypter != null) {
+                decryptEncryptedAssertions(response, decrypter);
+            }
+            validateSamlSSOResponse(response, context, engine, decrypter);
+        } finally {
+            pendingReplayChecks.remove();
+        }
+        verifyMessageReplay(context);
+        replayChecks.forEach(Runnable::run);
+        return buildSAML2Credentials(context);
+    }
+
+    /**
+     * Defer the check to the end of {@link #validate}, after the assertion signature is verified.
+     */
+    @Override
+    protected void validateAssertionReplay(Assertion assertion, SubjectConfirmationData subjectConfirmationData) {
+        final List<Runnable> replayChecks = pendingReplayChecks.get();
+        if (replayChecks != null) {
+            replayChecks.add(() -> super.validateAssertionReplay(assertion, subjectConfirmationData));
+        } else {
+            super.validateAssertionReplay(assertion, subjectConfirmationData);
+        }
+    }
+}
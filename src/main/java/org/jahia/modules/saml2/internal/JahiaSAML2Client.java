@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.pac4j.saml.client.SAML2Client;
+import org.pac4j.saml.config.SAML2Configuration;
+import org.pac4j.saml.crypto.CredentialProvider;
+import org.pac4j.saml.metadata.SAML2MetadataResolver;
+import org.pac4j.saml.replay.ReplayCacheProvider;
+import org.pac4j.saml.sso.impl.SAML2WebSSOProfileHandler;
+
+/**
+ * SAML2 client using the module replay cache instead of a per client in-memory storage service, and sharing parsed
+ * IdP metadata and key material with the other clients. POSTed responses are decoded by the size-capped module
+ * decoder and only recorded in the replay cache once their signatures are verified, and logout requests end the
+ * sessions of all their SessionIndex elements.
+ */
+public class JahiaSAML2Client extends SAML2Client {
+    private final ReplayCacheProvider replayCacheProvider;
+    private final SharedMaterialCache sharedMaterial;
+    private final SAMLMessageDecoder messageDecoder;
+
+    public JahiaSAML2Client(SAML2Configuration configuration, ReplayCacheProvider replayCacheProvider, SharedMaterialCache sharedMaterial,
+                            SAMLMessageDecoder messageDecoder) {
+        super(configuration);
+        this.replayCacheProvider = replayCacheProvider;
+        this.sharedMaterial = sharedMaterial;
+        this.messageDecoder = messageDecoder;
+    }
+
+    @Override
+    protected void initCredentialProvider() {
+        final CredentialProvider shared = sharedMaterial.getCredentialProvider(configuration);
+        if (shared != null) {
+            this.credentialProvider = shared;
+        } else {
+            super.initCredentialProvider();
+        }
+    }
+
+    @Override
+    protected void initIdentityProviderMetadataResolver() {
+        final SAML2MetadataResolver shared = sharedMaterial.getIdentityProviderMetadataResolver(configuration);
+        if (shared != null) {
+            this.idpMetadataResolver = shared;
+        } else {
+            super.initIdentityProviderMetadataResolver();
+        }
+    }
+
+    @Override
+    protected void initSAMLProfileHandler() {
+        if (!SAMLConstants.SAML2_POST_BINDING_URI.equals(configuration.getResponseBindingType())) {
+            super.initSAMLProfileHandler();
+            return;
+        }
+        this.profileHandler = new SAML2WebSSOProfileHandler(new JahiaWebSSOMessageSender(signatureSigningParametersProvider,
+                configuration.getAuthnRequestBindingType(), true, configuration.isAuthnRequestSigned()),
+                new BoundedWebSSOMessageReceiver(authnResponseValidator, messageDecoder));
+    }
+
+    @Override
+    protected void initSAMLResponseValidator() {
+        this.authnResponseValidator = new JahiaAuthnResponseValidator(signatureTrustEngineProvider, decrypter, configuration.getLogoutHandler(),
+                configuration.getMaximumAuthenticationLifetime(), configuration.isWantsAssertionsSigned(), configuration.isWantsResponsesSigned(),
+                replayCache, configuration.isAllSignatureValidationDisabled());
+        this.authnResponseValidator.setAcceptedSkew(configuration.getAcceptedSkew());
+    }
+
+    @Override
+    protected void initSAMLLogoutResponseValidator() {
+        this.logoutValidator = new BatchLogoutValidator(signatureTrustEngineProvider, decrypter, configuration.getLogoutHandler(),
+                configuration.getPostLogoutURL(), replayCache);
+        this.logoutValidator.setAcceptedSkew(configuration.getAcceptedSkew());
+    }
+
+    @Override
+    protected void initSAMLReplayCache() {
+        this.replayCache = replayCacheProvider;
+    }
+}
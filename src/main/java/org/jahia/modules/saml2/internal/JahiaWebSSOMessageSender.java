@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.encoder.AbstractMessageEncoder;
+import org.opensaml.messaging.encoder.MessageEncoder;
+import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.common.SignableSAMLObject;
+import org.opensaml.saml.common.binding.BindingException;
+import org.opensaml.saml.common.binding.SAMLBindingSupport;
+import org.opensaml.saml.common.messaging.SAMLMessageSecuritySupport;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.metadata.IDPSSODescriptor;
+import org.opensaml.saml.saml2.metadata.SPSSODescriptor;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.saml.context.SAML2MessageContext;
+import org.pac4j.saml.crypto.SignatureSigningParametersProvider;
+import org.pac4j.saml.exceptions.SAMLException;
+import org.pac4j.saml.sso.impl.SAML2WebSSOMessageSender;
+import org.pac4j.saml.store.SAMLMessageStore;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Web SSO sender encoding the AuthnRequest straight from its marshalled bytes, instead of the pac4j encoders:
+ * <ul>
+ *     <li>HTTP-POST: the form is rendered with a {@link PostFormRenderer} precompiled for the SSO endpoint of the IdP
+ *     and left as a request attribute for the filter to write</li>
+ *     <li>HTTP-Redirect: the URL is built by a {@link RedirectUrlBuilder} with pooled deflaters and buffers and the
+ *     signing setup of the site</li>
+ * </ul>
+ * The signing parameters of the SP are resolved once instead of for each message.
+ * Other bindings are sent by pac4j.
+ */
+public class JahiaWebSSOMessageSender extends SAML2WebSSOMessageSender {
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(Buffer::new);
+
+    private final RedirectUrlBuilder redirectUrlBuilder = new RedirectUrlBuilder();
+    private volatile PostFormRenderer renderer;
+    private volatile CachedSigningParameters signingParameters;
+
+    public JahiaWebSSOMessageSender(SignatureSigningParametersProvider signatureSigningParametersProvider, String destinationBindingType,
+                                    boolean signErrorResponses, boolean isAuthnRequestSigned) {
+        super(signatureSigningParametersProvider, destinationBindingType, signErrorResponses, isAuthnRequestSigned);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void sendMessage(SAML2MessageContext context, AuthnRequest request, Object relayState) {
+        final SPSSODescriptor spDescriptor = context.getSPSSODescriptor();
+        final IDPSSODescriptor idpDescriptor = context.getIDPSSODescriptor();
+        final MessageEncoder<SAMLObject> encoder;
+        if (SAMLConstants.SAML2_POST_BINDING_URI.equals(destinationBindingType)) {
+            encoder = new FormEncoder(context.getWebContext());
+        } else if (SAMLConstants.SAML2_REDIRECT_BINDING_URI.equals(destinationBindingType)) {
+            encoder = new RedirectEncoder(context, mustSignRequest(spDescriptor, idpDescriptor));
+        } else {
+            super.sendMessage(context, request, relayState);
+            return;
+        }
+        // same outbound context as pac4j
+        final SAML2MessageContext outboundContext = new SAML2MessageContext(context);
+        outboundContext.getProfileRequestContext().setProfileId(context.getProfileRequestContext().getProfileId());
+        outboundContext.getProfileRequestContext().setInboundMessageContext(context.getProfileRequestContext().getInboundMessageContext());
+        outboundContext.getProfileRequestContext().setOutboundMessageContext(context.getProfileRequestContext().getOutboundMessageContext());
+        outboundContext.setMessage(request);
+        outboundContext.getSAMLEndpointContext().setEndpoint(context.getSPAssertionConsumerService());
+        outboundContext.getSAMLPeerEndpointContext().setEndpoint(getEndpoint(context));
+        outboundContext.getSAMLPeerEntityContext().setRole(context.getSAMLPeerEntityContext().getRole());
+        outboundContext.getSAMLPeerEntityContext().setEntityId(context.getSAMLPeerEntityContext().getEntityId());
+        outboundContext.getSAMLProtocolContext().setProtocol(context.getSAMLProtocolContext().getProtocol());
+        outboundContext.getSecurityParametersContext().setSignatureSigningParameters(signingParameters(spDescriptor));
+        if (relayState != null) {
+            outboundContext.getSAMLBindingContext().setRelayState(relayState.toString());
+        }
+        try {
+            invokeOutboundMessageHandlers(spDescriptor, idpDescriptor, outboundContext);
+            encoder.setMessageContext(outboundContext);
+            encoder.initialize();
+            encoder.prepareContext();
+            encoder.encode();
+            final SAMLMessageStore messageStore = context.getSAMLMessageStore();
+            if (messageStore != null) {
+                messageStore.set(request.getID(), request);
+            }
+        } catch (MessageEncodingException e) {
+            throw new SAMLException("Error encoding saml message", e);
+        } catch (ComponentInitializationException e) {
+            throw new SAMLException("Error initializing saml encoder", e);
+        }
+    }
+
+    /**
+     * Signing parameters of the SP, resolved once: the provider reads the signing key from the keystore each time.
+     */
+    private SignatureSigningParameters signingParameters(SPSSODescriptor spDescriptor) {
+        CachedSigningParameters cached = signingParameters;
+        if (cached == null || cached.spDescriptor != spDescriptor) {
+            cached = new CachedSigningParameters(spDescriptor, signatureSigningParametersProvider.build(spDescriptor));
+            signingParameters = cached;
+        }
+        return cached.parameters;
+    }
+
+    private PostFormRenderer renderer(String action) {
+        PostFormRenderer current = renderer;
+        if (current == null || !current.getAction().equals(action)) {
+            // built once per SSO endpoint, the endpoint only changes with the IdP metadata
+            current = new PostFormRenderer(action);
+            renderer = current;
+        }
+        return current;
+    }
+
+    /**
+     * Encoder of the marshalled message, serialized to a reusable buffer of the thread.
+     */
+    private abstract static class MarshallingEncoder extends AbstractMessageEncoder<SAMLObject> {
+        @Override
+        protected void doEncode() throws MessageEncodingException {
+            final MessageContext<SAMLObject> messageContext = getMessageContext();
+            final SAMLObject message = messageContext.getMessage();
+            if (message == null) {
+                throw new MessageEncodingException("No outbound SAML message contained in message context");
+            }
+            final String endpoint;
+            try {
+                endpoint = SAMLBindingSupport.getEndpointURL(messageContext).toString();
+            } catch (BindingException e) {
+                throw new MessageEncodingException("Could not obtain message endpoint URL", e);
+            }
+            final String relayState = SAMLBindingSupport.getRelayState(messageContext);
+            prepare(message);
+            final Buffer buffer = BUFFERS.get();
+            buffer.reset();
+            try {
+                SerializeSupport.writeNode(XMLObjectSupport.marshall(message), buffer);
+                encode(messageContext, endpoint, buffer.array(), buffer.size(), SAMLBindingSupport.checkRelayState(relayState) ? relayState : null);
+            } catch (MarshallingException e) {
+                throw new MessageEncodingException("Error marshalling message", e);
+            } finally {
+                if (buffer.array().length > MAX_RETAINED_BUFFER) {
+                    BUFFERS.remove();
+                }
+            }
+        }
+
+        protected void prepare(SAMLObject message) {
+        }
+
+        protected abstract void encode(MessageContext<SAMLObject> messageContext, String endpoint, byte[] message, int length,
+                                       String relayState) throws MessageEncodingException;
+    }
+
+    private final class FormEncoder extends MarshallingEncoder {
+        private final WebContext webContext;
+
+        private FormEncoder(WebContext webContext) {
+            this.webContext = webContext;
+        }
+
+        @Override
+        protected void encode(MessageContext<SAMLObject> messageContext, String endpoint, byte[] message, int length, String relayState) {
+            webContext.setRequestAttribute(PostFormRenderer.FORM_ATTRIBUTE, renderer(endpoint).render(message, length, relayState));
+        }
+    }
+
+    private final class RedirectEncoder extends MarshallingEncoder {
+        private final SAML2MessageContext context;
+        private final boolean signed;
+
+        private RedirectEncoder(SAML2MessageContext context, boolean signed) {
+            this.context = context;
+            this.signed = signed;
+        }
+
+        @Override
+        protected void prepare(SAMLObject message) {
+            // the query string is signed instead of the message
+            if (message instanceof SignableSAMLObject && ((SignableSAMLObject) message).isSigned()) {
+                ((SignableSAMLObject) message).setSignature(null);
+            }
+        }
+
+        @Override
+        protected void encode(MessageContext<SAMLObject> messageContext, String endpoint, byte[] message, int length, String relayState)
+                throws MessageEncodingException {
+            SignatureSigningParameters signing = signed ? SAMLMessageSecuritySupport.getContextSigningParameters(messageContext) : null;
+            if (signing != null && signing.getSigningCredential() == null) {
+                signing = null;
+            }
+            final String url = redirectUrlBuilder.build(endpoint, message, length, relayState, signing);
+            context.getProfileRequestContextOutboundMessageTransportResponse().init();
+            context.getProfileRequestContextOutboundMessageTransportResponse().setRedirectUrl(url);
+        }
+    }
+
+    private static final class CachedSigningParameters {
+        private final SPSSODescriptor spDescriptor;
+        private final SignatureSigningParameters parameters;
+
+        private CachedSigningParameters(SPSSODescriptor spDescriptor, SignatureSigningParameters parameters) {
+            this.spDescriptor = spDescriptor;
+            this.parameters = parameters;
+        }
+    }
+
+    /**
+     * Reusable serialization buffer, read in place.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(8 * 1024);
+        }
+
+        private byte[] array() {
+            return buf;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.lang.StringUtils;
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.saml.config.SAML2Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates SP key stores in memory, with the same alias, subject and validity defaults as pac4j.
+ * <p>
+ * RSA key pairs are taken from a small pool refilled by a background thread, so saving settings that need a new
+ * key store does not wait for the key generation. When the pool is empty a key pair is generated synchronously.
+ */
+public final class KeyStoreGenerator {
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyStoreGenerator.class);
+    private static final int KEY_SIZE = 2048;
+    private static final int VALIDITY_YEARS = 20;
+    private static final String SIGNATURE_ALGORITHM = "SHA256withRSA";
+    private static final String DEFAULT_ALIAS = SAML2Configuration.class.getSimpleName();
+
+    private final BlockingQueue<KeyPair> keyPairs;
+    private final ExecutorService refillExecutor;
+
+    public KeyStoreGenerator(int poolSize) {
+        this.keyPairs = new ArrayBlockingQueue<>(Math.max(1, poolSize));
+        this.refillExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(1), r -> {
+            final Thread thread = new Thread(r, "saml2-keypair-generator");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        refill();
+    }
+
+    /**
+     * Generate a key store containing a private key and its self signed certificate.
+     *
+     * @return the serialized key store
+     */
+    public byte[] generate(String keyStoreType, String alias, String keyStorePassword, String privateKeyPassword) {
+        if (StringUtils.isBlank(keyStorePassword) || StringUtils.isBlank(privateKeyPassword)) {
+            throw new TechnicalException("Key store and private key passwords are required to generate a key store");
+        }
+        final long start = System.currentTimeMillis();
+        try {
+            final KeyPair keyPair = takeKeyPair();
+            final KeyStore keyStore = KeyStore.getInstance(StringUtils.isNotBlank(keyStoreType) ? keyStoreType : KeyStore.getDefaultType());
+            keyStore.load(null, keyStorePassword.toCharArray());
+            keyStore.setKeyEntry(StringUtils.isNotBlank(alias) ? alias : DEFAULT_ALIAS, keyPair.getPrivate(), privateKeyPassword.toCharArray(),
+                    new Certificate[]{createSelfSignedCertificate(keyPair)});
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+            keyStore.store(out, keyStorePassword.toCharArray());
+            LOGGER.debug("Key store generated in {} ms", System.currentTimeMillis() - start);
+            return out.toByteArray();
+        } catch (GeneralSecurityException | IOException | OperatorCreationException e) {
+            throw new TechnicalException("Could not create keystore", e);
+        }
+    }
+
+    public int getAvailableKeyPairs() {
+        return keyPairs.size();
+    }
+
+    public void shutdown() {
+        refillExecutor.shutdownNow();
+        keyPairs.clear();
+    }
+
+    private KeyPair takeKeyPair() throws NoSuchAlgorithmException {
+        final KeyPair keyPair = keyPairs.poll();
+        refill();
+        if (keyPair != null) {
+            return keyPair;
+        }
+        LOGGER.debug("No pre-generated key pair available, generating one");
+        return generateKeyPair();
+    }
+
+    private void refill() {
+        try {
+            refillExecutor.execute(() -> {
+                try {
+                    while (keyPairs.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()) {
+                        keyPairs.offer(generateKeyPair());
+                    }
+                } catch (NoSuchAlgorithmException e) {
+                    LOGGER.error("Cannot pre-generate RSA key pairs", e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Key pair generator is shut down");
+        }
+    }
+
+    private static KeyPair generateKeyPair() throws NoSuchAlgorithmException {
+        final KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_SIZE);
+        return generator.generateKeyPair();
+    }
+
+    private static X509Certificate createSelfSignedCertificate(KeyPair keyPair) throws IOException, OperatorCreationException, GeneralSecurityException {
+        final X500Name subject = new X500Name("CN=" + InetAddress.getLocalHost().getHostName());
+        final ZonedDateTime now = ZonedDateTime.now();
+        final JcaX509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(subject, BigInteger.valueOf(now.toEpochSecond()),
+                Date.from(now.minusSeconds(1).toInstant()), Date.from(now.plusYears(VALIDITY_YEARS).toInstant()), subject, keyPair.getPublic());
+        final X509Certificate certificate = new JcaX509CertificateConverter()
+                .getCertificate(builder.build(new JcaContentSignerBuilder(SIGNATURE_ALGORITHM).build(keyPair.getPrivate())));
+        certificate.verify(keyPair.getPublic());
+        return certificate;
+    }
+}
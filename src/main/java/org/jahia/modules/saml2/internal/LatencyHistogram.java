@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram in microseconds, each power of two being split in four buckets, up to about two
+ * minutes. Recording does not allocate; percentiles are approximated by the upper bound of their bucket, which is at
+ * most 25% above the recorded values.
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int OCTAVES = 26;
+    private static final int BUCKETS = SUB_BUCKETS + OCTAVES * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        buckets.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    LatencyStats snapshot() {
+        final long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        final double max = maxNanos.get() / 1e6;
+        return new LatencyStats(count, count > 0 ? totalNanos.sum() / 1e6 / count : 0, percentile(counts, count, 0.5, max),
+                percentile(counts, count, 0.95, max), percentile(counts, count, 0.99, max), max);
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        totalNanos.reset();
+        maxNanos.reset();
+    }
+
+    static int bucket(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        final int octave = 63 - Long.numberOfLeadingZeros(micros);
+        final int subBucket = (int) (micros >> (octave - 2)) - SUB_BUCKETS;
+        return Math.min(BUCKETS - 1, SUB_BUCKETS + (octave - 2) * SUB_BUCKETS + subBucket);
+    }
+
+    /**
+     * Exclusive upper bound of a bucket, in microseconds.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket + 1L;
+        }
+        final int octave = (bucket - SUB_BUCKETS) / SUB_BUCKETS + 2;
+        return (SUB_BUCKETS + 1L + (bucket - SUB_BUCKETS) % SUB_BUCKETS) << (octave - 2);
+    }
+
+    private static double percentile(long[] counts, long count, double quantile, double max) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = (long) Math.ceil(count * quantile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, upperBound(i) / 1000d);
+            }
+        }
+        return max;
+    }
+}
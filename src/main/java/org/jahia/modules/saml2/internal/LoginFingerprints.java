@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.jahiaauth.service.MapperConfig;
+import org.pac4j.saml.credentials.authenticator.SAML2Authenticator;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Fingerprints of the mapper properties of the last login of each user, by site and user identifier, so that a
+ * returning user with unchanged attributes skips the property writes of the user mappers. All mappers still run through
+ * the mapper service, the user mappers only receive the user identifier. An entry only matches the login plan it was
+ * recorded with, a configuration change invalidates it, and the least recently used entries are evicted beyond
+ * maxEntries.
+ */
+public final class LoginFingerprints {
+    private static final int FINGERPRINT_LENGTH = 16;
+    /**
+     * Validity of the assertion, copied by pac4j into the attributes and different for every login.
+     */
+    private static final Set<String> IGNORED_PROPERTIES = Set.of(SAML2Authenticator.SAML_CONDITION_NOT_BEFORE_ATTRIBUTE,
+            SAML2Authenticator.SAML_CONDITION_NOT_ON_OR_AFTER_ATTRIBUTE);
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int maxEntries;
+    private final Set<String> userMappers;
+    /**
+     * Entries by site and user identifier in access order, guarded by itself.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param userMappers names of the mappers writing the user properties, only given the user identifier when the
+     *                    attributes of the user did not change
+     */
+    public LoginFingerprints(int maxEntries, Set<String> userMappers) {
+        this.maxEntries = maxEntries;
+        this.userMappers = userMappers;
+    }
+
+    public boolean isUserMapper(MapperConfig mapper) {
+        return userMappers.contains(mapper.getMapperName());
+    }
+
+    /**
+     * Fingerprint of mapper properties: a truncated SHA-256 of the properties sorted by name, list values in order,
+     * without the validity of the assertion.
+     */
+    public static byte[] fingerprint(Map<String, Object> properties) {
+        final MessageDigest digest = DIGESTS.get();
+        digest.reset();
+        for (Map.Entry<String, Object> property : new TreeMap<>(properties).entrySet()) {
+            if (IGNORED_PROPERTIES.contains(property.getKey())) {
+                continue;
+            }
+            update(digest, property.getKey());
+            final Object value = property.getValue();
+            if (value instanceof Collection) {
+                digest.update((byte) 1);
+                for (Object element : (Collection<?>) value) {
+                    update(digest, element);
+                }
+            } else {
+                update(digest, value);
+            }
+            digest.update((byte) 2);
+        }
+        return Arrays.copyOf(digest.digest(), FINGERPRINT_LENGTH);
+    }
+
+    private static void update(MessageDigest digest, Object value) {
+        if (value == null) {
+            digest.update((byte) 3);
+            return;
+        }
+        digest.update(value.toString().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    /**
+     * @return the Jahia login of the last login of a user if it had the same fingerprint with the same login plan,
+     * null otherwise
+     */
+    public String find(LoginPlan plan, String userId, byte[] fingerprint) {
+        final Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key(plan, userId));
+        }
+        return entry != null && entry.plan == plan && Arrays.equals(entry.fingerprint, fingerprint) ? entry.login : null;
+    }
+
+    /**
+     * Record a successful login.
+     *
+     * @param login the Jahia login the mappers resolved the user to
+     */
+    public void record(LoginPlan plan, String userId, byte[] fingerprint, String login) {
+        final Entry entry = new Entry(plan, fingerprint, login);
+        synchronized (entries) {
+            entries.put(key(plan, userId), entry);
+            final Iterator<Entry> eldest = entries.values().iterator();
+            for (int size = entries.size(); size > maxEntries; size--) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Forget the last login of a user, whose next login runs the mappers.
+     */
+    public void remove(LoginPlan plan, String userId) {
+        synchronized (entries) {
+            entries.remove(key(plan, userId));
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static String key(LoginPlan plan, String userId) {
+        return plan.getSiteKey() + '\n' + userId;
+    }
+
+    private static final class Entry {
+        private final LoginPlan plan;
+        private final byte[] fingerprint;
+        private final String login;
+
+        private Entry(LoginPlan plan, byte[] fingerprint, String login) {
+            this.plan = plan;
+            this.fingerprint = fingerprint;
+            this.login = login;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.internal.SAML2Metrics.Handler;
+import org.jahia.modules.saml2.internal.SAML2Metrics.Outcome;
+import org.jahia.modules.saml2.internal.SAML2Metrics.Phase;
+
+import java.beans.ConstructorProperties;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ring buffer of the last connect, callback and logout requests of this node, for diagnosing failed or slow logins
+ * without enabling debug logs. Slots are allocated once and overwritten in place without locking: a writer claims its
+ * slot with a compare-and-set of the slot sequence, then copies references and numbers only. Readers skip slots being
+ * written. The subject of a login is only kept as a hash salted with a random value of the node, and a failure as its
+ * exception type, as exception messages may contain user identifiers.
+ */
+public final class LoginJournal {
+    private static final Phase[] PHASES = Phase.values();
+    private static final long WRITING = -1;
+    private static final long EMPTY = -2;
+    private static final VarHandle SEQUENCE;
+    private static final long OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(Slot.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final long salt = new SecureRandom().nextLong();
+
+    /**
+     * @param size number of attempts kept, rounded up to a power of two
+     */
+    public LoginJournal(int size) {
+        final int capacity = Integer.highestOneBit(Math.max(2, size) * 2 - 1);
+        slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        mask = capacity - 1;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return the salted hash of a subject, 0 when there is none
+     */
+    public long hashSubject(String subject) {
+        if (subject == null) {
+            return 0;
+        }
+        long hash = OFFSET_BASIS ^ salt;
+        for (int i = 0; i < subject.length(); i++) {
+            hash = (hash ^ subject.charAt(i)) * PRIME;
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    /**
+     * Record an attempt, called once per request by its timer.
+     *
+     * @param phaseNanos duration of each phase, negative for the phases not reached
+     */
+    void record(Handler handler, String siteKey, long elapsedNanos, long[] phaseNanos, String binding, long messageBytes,
+                Outcome outcome, Throwable failure, long subjectHash) {
+        final long sequence = next.getAndIncrement();
+        final Slot slot = slots[(int) (sequence & mask)];
+        final long previous = slot.sequence;
+        if (previous == WRITING || previous > sequence || !SEQUENCE.compareAndSet(slot, previous, WRITING)) {
+            // the ring lapped a writer of this slot, or a newer attempt is already there: drop this one
+            return;
+        }
+        // the writes below must not become visible before the slot is marked as being written
+        VarHandle.storeStoreFence();
+        slot.timestamp = System.currentTimeMillis();
+        slot.handler = handler;
+        slot.siteKey = siteKey;
+        slot.elapsedNanos = elapsedNanos;
+        if (phaseNanos != null) {
+            System.arraycopy(phaseNanos, 0, slot.phaseNanos, 0, PHASES.length);
+        } else {
+            Arrays.fill(slot.phaseNanos, -1);
+        }
+        slot.binding = binding;
+        slot.messageBytes = messageBytes;
+        slot.outcome = outcome;
+        slot.failureType = failure != null ? failure.getClass().getName() : null;
+        slot.subjectHash = subjectHash;
+        // publishes the fields above
+        slot.sequence = sequence;
+    }
+
+    /**
+     * Most recent attempts first.
+     *
+     * @param siteKey only the attempts of this site, all sites when null
+     * @param outcome only the attempts with this outcome, all outcomes when null
+     * @param max     maximum number of attempts returned
+     */
+    public List<Attempt> find(String siteKey, Outcome outcome, int max) {
+        final long last = next.get() - 1;
+        final long first = Math.max(0, last - mask);
+        final String outcomeName = outcome != null ? SAML2Metrics.camelCase(outcome) : null;
+        final List<Attempt> attempts = new ArrayList<>(Math.min(max, slots.length));
+        for (long sequence = last; sequence >= first && attempts.size() < max; sequence--) {
+            final Attempt attempt = read(slots[(int) (sequence & mask)], sequence);
+            if (attempt != null && (siteKey == null || siteKey.equals(attempt.getSiteKey()))
+                    && (outcomeName == null || outcomeName.equals(attempt.getOutcome()))) {
+                attempts.add(attempt);
+            }
+        }
+        return attempts;
+    }
+
+    public void clear() {
+        for (Slot slot : slots) {
+            slot.sequence = EMPTY;
+        }
+    }
+
+    private static Attempt read(Slot slot, long sequence) {
+        if (slot.sequence != sequence) {
+            return null;
+        }
+        final long timestamp = slot.timestamp;
+        final Handler handler = slot.handler;
+        final String siteKey = slot.siteKey;
+        final long elapsedNanos = slot.elapsedNanos;
+        final long[] phaseNanos = slot.phaseNanos.clone();
+        final String binding = slot.binding;
+        final long messageBytes = slot.messageBytes;
+        final Outcome outcome = slot.outcome;
+        final String failureType = slot.failureType;
+        final long subjectHash = slot.subjectHash;
+        // the copies above must not be reordered after the check below
+        VarHandle.acquireFence();
+        if (slot.sequence != sequence) {
+            // overwritten while being read
+            return null;
+        }
+        final Map<String, Double> phases = new LinkedHashMap<>();
+        for (Phase phase : PHASES) {
+            if (phaseNanos[phase.ordinal()] >= 0) {
+                phases.put(SAML2Metrics.camelCase(phase), phaseNanos[phase.ordinal()] / 1e6);
+            }
+        }
+        return new Attempt(sequence, Instant.ofEpochMilli(timestamp).toString(), SAML2Metrics.camelCase(handler), siteKey,
+                elapsedNanos / 1e6, Collections.unmodifiableMap(phases), binding, messageBytes, SAML2Metrics.camelCase(outcome),
+                failureType,
+                subjectHash != 0 ? Long.toHexString(subjectHash) : null);
+    }
+
+    private static final class Slot {
+        private volatile long sequence = EMPTY;
+        private long timestamp;
+        private Handler handler;
+        private String siteKey;
+        private long elapsedNanos;
+        private final long[] phaseNanos = new long[PHASES.length];
+        private String binding;
+        private long messageBytes;
+        private Outcome outcome;
+        private String failureType;
+        private long subjectHash;
+    }
+
+    /**
+     * An attempt exposed over JMX, durations in milliseconds.
+     */
+    public static final class Attempt {
+        private final long sequence;
+        private final String time;
+        private final String handler;
+        private final String siteKey;
+        private final double duration;
+        private final Map<String, Double> phases;
+        private final String binding;
+        private final long messageBytes;
+        private final String outcome;
+        private final String failure;
+        private final String subject;
+
+        @ConstructorProperties({"sequence", "time", "handler", "siteKey", "duration", "phases", "binding", "messageBytes", "outcome",
+                "failure", "subject"})
+        public Attempt(long sequence, String time, String handler, String siteKey, double duration, Map<String, Double> phases,
+                       String binding, long messageBytes, String outcome, String failure, String subject) {
+            this.sequence = sequence;
+            this.time = time;
+            this.handler = handler;
+            this.siteKey = siteKey;
+            this.duration = duration;
+            this.phases = phases;
+            this.binding = binding;
+            this.messageBytes = messageBytes;
+            this.outcome = outcome;
+            this.failure = failure;
+            this.subject = subject;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the end of the request, ISO-8601 UTC
+         */
+        public String getTime() {
+            return time;
+        }
+
+        public String getHandler() {
+            return handler;
+        }
+
+        public String getSiteKey() {
+            return siteKey;
+        }
+
+        public double getDuration() {
+            return duration;
+        }
+
+        /**
+         * @return the duration of the phases reached by the request
+         */
+        public Map<String, Double> getPhases() {
+            return phases;
+        }
+
+        /**
+         * @return the SAML binding of the message sent or expected, null when not known
+         */
+        public String getBinding() {
+            return binding;
+        }
+
+        /**
+         * @return the decoded size of the SAML message received, -1 when none was decoded
+         */
+        public long getMessageBytes() {
+            return messageBytes;
+        }
+
+        public String getOutcome() {
+            return outcome;
+        }
+
+        /**
+         * @return the exception type of the failure, without its message, null when the attempt did not fail
+         */
+        public String getFailure() {
+            return failure;
+        }
+
+        /**
+         * @return the salted hash of the NameID of the login, null when no assertion was validated
+         */
+        public String getSubject() {
+            return subject;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.lang.StringUtils;
+import org.jahia.modules.jahiaauth.service.ConnectorConfig;
+import org.jahia.modules.jahiaauth.service.MapperConfig;
+import org.pac4j.core.profile.BasicUserProfile;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything the callback needs from the connector configuration of a site, resolved once: the mappers to execute,
+ * how profile attributes are flattened and the default redirection after login.
+ */
+public final class LoginPlan {
+    private final String siteKey;
+    private final ConnectorConfig connectorConfig;
+    private final List<MapperConfig> mappers;
+    private final String postLoginPath;
+    private final String siteParameter;
+    private final String userIdField;
+
+    private LoginPlan(ConnectorConfig connectorConfig) {
+        this.siteKey = connectorConfig.getSiteKey();
+        this.connectorConfig = connectorConfig;
+        this.mappers = Collections.unmodifiableList(connectorConfig.getMappers());
+        this.postLoginPath = StringUtils.defaultIfEmpty(connectorConfig.getProperty(SAML2Constants.POST_LOGIN_PATH), null);
+        this.siteParameter = "site=" + siteKey;
+        this.userIdField = StringUtils.defaultIfEmpty(connectorConfig.getProperty(SAML2Constants.MAPPER_ID_FIELD), null);
+    }
+
+    public static LoginPlan compile(ConnectorConfig connectorConfig) {
+        return new LoginPlan(connectorConfig);
+    }
+
+    public String getSiteKey() {
+        return siteKey;
+    }
+
+    public ConnectorConfig getConnectorConfig() {
+        return connectorConfig;
+    }
+
+    public List<MapperConfig> getMappers() {
+        return mappers;
+    }
+
+    /**
+     * Properties passed to the mappers: single valued attributes are unwrapped from their list.
+     */
+    public Map<String, Object> getMapperProperties(BasicUserProfile profile) {
+        final Map<String, Object> attributes = profile.getAttributes();
+        final Map<String, Object> properties = new HashMap<>(Math.max(16, attributes.size() * 4 / 3 + 1));
+        for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+            final Object value = entry.getValue();
+            if (value instanceof List && ((List<?>) value).size() == 1) {
+                properties.put(entry.getKey(), ((List<?>) value).get(0));
+            } else {
+                properties.put(entry.getKey(), value);
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Identifier of the user in the mapper properties, from the attribute configured as mapper ID field.
+     *
+     * @return the single value of that attribute, null when there is no such field or value
+     */
+    public String getUserId(Map<String, Object> properties) {
+        final Object value = userIdField != null ? properties.get(userIdField) : null;
+        return value != null && !(value instanceof List) ? StringUtils.defaultIfEmpty(value.toString(), null) : null;
+    }
+
+    /**
+     * Properties passed to the user mappers of a returning user with unchanged attributes: the user identifier only.
+     */
+    public Map<String, Object> getUserIdProperties(Map<String, Object> properties) {
+        return Collections.singletonMap(userIdField, properties.get(userIdField));
+    }
+
+    /**
+     * Redirection after login when no redirect was requested, including the site parameter used to manage site
+     * users.
+     */
+    public String getRedirection(String contextPath, String requestedRedirection) {
+        String redirection = requestedRedirection;
+        if (StringUtils.isEmpty(redirection)) {
+            redirection = postLoginPath != null ? contextPath + postLoginPath : "/";
+        }
+        return redirection + (redirection.contains("?") ? "&" : "?") + siteParameter;
+    }
+}
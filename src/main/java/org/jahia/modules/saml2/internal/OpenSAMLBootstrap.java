@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import net.shibboleth.utilities.java.support.xml.BasicParserPool;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.jahia.utils.ClassLoaderUtils;
+import org.joda.time.DateTime;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SAMLVersion;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.LogoutRequest;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureValidationProvider;
+import org.opensaml.xmlsec.signature.support.SignerProvider;
+import org.pac4j.saml.util.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.QName;
+import java.io.ByteArrayOutputStream;
+import java.io.StringReader;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.cert.CertificateFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.ServiceLoader;
+
+/**
+ * Explicit initialization of OpenSAML when the module starts, instead of when the first client is built: OpenSAML and
+ * pac4j configuration, a single hardened parser pool shared by all clients and the SAML message decoder, and a
+ * warm-up of the XML object providers and signature algorithms used by logins.
+ */
+public final class OpenSAMLBootstrap {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OpenSAMLBootstrap.class);
+
+    private static final String WARMUP_ENTITY_ID = "urn:jahia:saml2:warmup";
+    private static final QName[] WARMUP_ELEMENTS = {Response.DEFAULT_ELEMENT_NAME, Assertion.DEFAULT_ELEMENT_NAME,
+            AuthnRequest.DEFAULT_ELEMENT_NAME, LogoutRequest.DEFAULT_ELEMENT_NAME, EntityDescriptor.DEFAULT_ELEMENT_NAME,
+            Signature.DEFAULT_ELEMENT_NAME};
+
+    private OpenSAMLBootstrap() {
+    }
+
+    /**
+     * Initialize OpenSAML and register the shared parser pool.
+     *
+     * @param parserPoolSize number of parsers kept for reuse, ideally the number of servlet threads handling logins
+     * @return the shared parser pool
+     */
+    public static ParserPool bootstrap(int parserPoolSize) {
+        return ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
+            final long start = System.nanoTime();
+            // the pac4j configuration initializes OpenSAML and registers its own parser pool, replaced below
+            Configuration.getParserPool();
+            final long initialized = System.nanoTime();
+            final BasicParserPool parserPool = createParserPool(parserPoolSize);
+            XMLObjectProviderRegistrySupport.setParserPool(parserPool);
+            final long pooled = System.nanoTime();
+            warmUpXMLObjects(parserPool);
+            final long xmlObjects = System.nanoTime();
+            warmUpSignature();
+            final long end = System.nanoTime();
+            LOGGER.info("OpenSAML bootstrapped in {} ms: initialization {} ms, parser pool {} ms, XML objects {} ms, signature {} ms",
+                    millis(end - start), millis(initialized - start), millis(pooled - initialized), millis(xmlObjects - pooled), millis(end - xmlObjects));
+            return parserPool;
+        });
+    }
+
+    private static BasicParserPool createParserPool(int size) {
+        final BasicParserPool parserPool = new BasicParserPool();
+        parserPool.setMaxPoolSize(size);
+        parserPool.setCoalescing(true);
+        parserPool.setIgnoreComments(true);
+        parserPool.setNamespaceAware(true);
+        parserPool.setExpandEntityReferences(false);
+        parserPool.setXincludeAware(false);
+        parserPool.setIgnoreElementContentWhitespace(true);
+        final Map<String, Boolean> features = new HashMap<>();
+        features.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE);
+        features.put("http://apache.org/xml/features/validation/schema/normalized-value", Boolean.FALSE);
+        features.put(XMLConstants.FEATURE_SECURE_PROCESSING, Boolean.TRUE);
+        features.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE);
+        features.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE);
+        parserPool.setBuilderFeatures(features);
+        try {
+            parserPool.initialize();
+        } catch (ComponentInitializationException e) {
+            throw new IllegalStateException("Cannot initialize SAML parser pool", e);
+        }
+        return parserPool;
+    }
+
+    /**
+     * Marshall, parse and unmarshall a representative response and request, loading the builders, marshallers and
+     * unmarshallers of the elements of a login.
+     */
+    private static void warmUpXMLObjects(ParserPool parserPool) {
+        try {
+            for (QName element : WARMUP_ELEMENTS) {
+                XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilderOrThrow(element);
+                XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(element);
+                XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(element);
+            }
+            for (XMLObject xmlObject : new XMLObject[]{createResponse(), createAuthnRequest()}) {
+                final Element element = XMLObjectSupport.marshall(xmlObject);
+                final Element parsed = parserPool.parse(new StringReader(SerializeSupport.nodeToString(element))).getDocumentElement();
+                XMLObjectSupport.getUnmarshaller(parsed).unmarshall(parsed);
+                Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS).canonicalizeSubtree(parsed, new ByteArrayOutputStream());
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Unable to warm up OpenSAML XML objects: {}", e.getMessage());
+            LOGGER.debug("XML objects warm-up failure", e);
+        }
+    }
+
+    private static void warmUpSignature() {
+        try {
+            ServiceLoader.load(SignatureValidationProvider.class).forEach(provider -> LOGGER.debug("Signature validation provider {}", provider));
+            ServiceLoader.load(SignerProvider.class).forEach(provider -> LOGGER.debug("Signer provider {}", provider));
+            java.security.Signature.getInstance("SHA256withRSA");
+            MessageDigest.getInstance("SHA-256");
+            KeyFactory.getInstance("RSA");
+            CertificateFactory.getInstance("X.509");
+        } catch (Exception e) {
+            LOGGER.warn("Unable to warm up signature algorithms: {}", e.getMessage());
+            LOGGER.debug("Signature warm-up failure", e);
+        }
+    }
+
+    private static Response createResponse() {
+        final Response response = build(Response.DEFAULT_ELEMENT_NAME);
+        response.setID("_warmup");
+        response.setVersion(SAMLVersion.VERSION_20);
+        response.setIssueInstant(new DateTime());
+        response.setIssuer(createIssuer());
+        final Status status = build(Status.DEFAULT_ELEMENT_NAME);
+        final StatusCode statusCode = build(StatusCode.DEFAULT_ELEMENT_NAME);
+        statusCode.setValue(StatusCode.SUCCESS);
+        status.setStatusCode(statusCode);
+        response.setStatus(status);
+
+        final Assertion assertion = build(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID("_warmup-assertion");
+        assertion.setIssueInstant(response.getIssueInstant());
+        assertion.setIssuer(createIssuer());
+        final Subject subject = build(Subject.DEFAULT_ELEMENT_NAME);
+        final NameID nameID = build(NameID.DEFAULT_ELEMENT_NAME);
+        nameID.setValue("warmup");
+        subject.setNameID(nameID);
+        assertion.setSubject(subject);
+        final Conditions conditions = build(Conditions.DEFAULT_ELEMENT_NAME);
+        conditions.setNotBefore(response.getIssueInstant());
+        assertion.setConditions(conditions);
+        final AuthnStatement authnStatement = build(AuthnStatement.DEFAULT_ELEMENT_NAME);
+        authnStatement.setAuthnInstant(response.getIssueInstant());
+        assertion.getAuthnStatements().add(authnStatement);
+        final AttributeStatement attributeStatement = build(AttributeStatement.DEFAULT_ELEMENT_NAME);
+        final Attribute attribute = build(Attribute.DEFAULT_ELEMENT_NAME);
+        attribute.setName("mail");
+        attributeStatement.getAttributes().add(attribute);
+        assertion.getAttributeStatements().add(attributeStatement);
+        response.getAssertions().add(assertion);
+        return response;
+    }
+
+    private static AuthnRequest createAuthnRequest() {
+        final AuthnRequest request = build(AuthnRequest.DEFAULT_ELEMENT_NAME);
+        request.setID("_warmup-request");
+        request.setVersion(SAMLVersion.VERSION_20);
+        request.setIssueInstant(new DateTime());
+        request.setIssuer(createIssuer());
+        return request;
+    }
+
+    private static Issuer createIssuer() {
+        final Issuer issuer = build(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(WARMUP_ENTITY_ID);
+        return issuer;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends XMLObject> T build(QName element) {
+        return (T) XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilderOrThrow(element).buildObject(element);
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1_000_000;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import net.shibboleth.utilities.java.support.codec.HTMLEncoder;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Auto-submitted form of the HTTP-POST binding, precompiled for the SSO endpoint of a site: the markup around the
+ * fields is kept as bytes and only the encoded message and the relay state are spliced in, with the same content as
+ * the OpenSAML Velocity template.
+ */
+final class PostFormRenderer {
+    /**
+     * Request attribute holding the {@link Form} rendered for the AuthnRequest of the request.
+     */
+    static final String FORM_ATTRIBUTE = PostFormRenderer.class.getName() + ".form";
+
+    private static final byte[] RELAY_STATE_START = ascii("<input type=\"hidden\" name=\"RelayState\" value=\"");
+    private static final byte[] SAML_REQUEST_START = ascii("<input type=\"hidden\" name=\"SAMLRequest\" value=\"");
+    private static final byte[] FIELD_END = ascii("\"/>");
+    private static final byte[] SUFFIX = ascii("</div><noscript><div><input type=\"submit\" value=\"Continue\"/></div></noscript>"
+            + "</form></body></html>");
+    private static final byte[] BASE64 = ascii("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/");
+    private static final byte[] HEX = ascii("0123456789abcdef");
+
+    private final String action;
+    private final byte[] prefix;
+
+    PostFormRenderer(String action) {
+        this.action = action;
+        this.prefix = ("<!DOCTYPE html><html><head><meta charset=\"utf-8\" /></head><body onload=\"document.forms[0].submit()\">"
+                + "<noscript><p><strong>Note:</strong> Since your browser does not support JavaScript, you must press the Continue "
+                + "button once to proceed.</p></noscript><form action=\"" + HTMLEncoder.encodeForHTMLAttribute(action)
+                + "\" method=\"post\"><div>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    String getAction() {
+        return action;
+    }
+
+    /**
+     * Render the form posting a message.
+     *
+     * @param message    marshalled SAML message, base64 encoded into the SAMLRequest field
+     * @param length     length of the message in the array
+     * @param relayState relay state, or null for none
+     */
+    Form render(byte[] message, int length, String relayState) {
+        final long start = System.nanoTime();
+        final byte[] relayStateBytes = relayState != null ? escape(relayState) : null;
+        final int encodedLength = (length + 2) / 3 * 4;
+        final byte[] content = new byte[prefix.length + (relayStateBytes != null ? RELAY_STATE_START.length + relayStateBytes.length + FIELD_END.length : 0)
+                + SAML_REQUEST_START.length + encodedLength + FIELD_END.length + SUFFIX.length];
+        int position = copy(prefix, content, 0);
+        if (relayStateBytes != null) {
+            position = copy(RELAY_STATE_START, content, position);
+            position = copy(relayStateBytes, content, position);
+            position = copy(FIELD_END, content, position);
+        }
+        position = copy(SAML_REQUEST_START, content, position);
+        // base64 characters need no escaping in an attribute value
+        position = encodeBase64(message, length, content, position);
+        position = copy(FIELD_END, content, position);
+        copy(SUFFIX, content, position);
+        return new Form(content, System.nanoTime() - start);
+    }
+
+    private static int copy(byte[] source, byte[] target, int position) {
+        System.arraycopy(source, 0, target, position, source.length);
+        return position + source.length;
+    }
+
+    private static int encodeBase64(byte[] source, int length, byte[] target, int position) {
+        final int full = length - length % 3;
+        for (int i = 0; i < full; i += 3) {
+            final int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | source[i + 2] & 0xff;
+            target[position++] = BASE64[bits >>> 18];
+            target[position++] = BASE64[bits >>> 12 & 0x3f];
+            target[position++] = BASE64[bits >>> 6 & 0x3f];
+            target[position++] = BASE64[bits & 0x3f];
+        }
+        final int remaining = length - full;
+        if (remaining > 0) {
+            final int bits = (source[full] & 0xff) << 16 | (remaining == 2 ? (source[full + 1] & 0xff) << 8 : 0);
+            target[position++] = BASE64[bits >>> 18];
+            target[position++] = BASE64[bits >>> 12 & 0x3f];
+            target[position++] = remaining == 2 ? BASE64[bits >>> 6 & 0x3f] : (byte) '=';
+            target[position++] = '=';
+        }
+        return position;
+    }
+
+    /**
+     * HTML attribute encoding of a value: ASCII values are escaped in place, others go through the OpenSAML encoder.
+     */
+    private static byte[] escape(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c >= 0x80) {
+                return HTMLEncoder.encodeForHTMLAttribute(value).getBytes(StandardCharsets.UTF_8);
+            }
+            length += isSafe(c) ? 1 : 6;
+        }
+        final byte[] escaped = new byte[length];
+        int position = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (isSafe(c)) {
+                escaped[position++] = (byte) c;
+            } else {
+                escaped[position++] = '&';
+                escaped[position++] = '#';
+                escaped[position++] = 'x';
+                escaped[position++] = HEX[c >>> 4];
+                escaped[position++] = HEX[c & 0xf];
+                escaped[position++] = ';';
+            }
+        }
+        return escaped;
+    }
+
+    private static boolean isSafe(char c) {
+        return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == ',' || c == '.' || c == '-' || c == '_';
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Rendered form, written as is to the response.
+     */
+    static final class Form {
+        private final byte[] content;
+        private final long renderNanos;
+
+        private Form(byte[] content, long renderNanos) {
+            this.content = content;
+            this.renderNanos = renderNanos;
+        }
+
+        int getLength() {
+            return content.length;
+        }
+
+        long getRenderNanos() {
+            return renderNanos;
+        }
+
+        void write(HttpServletResponse response) throws IOException {
+            response.setContentType("text/html;charset=UTF-8");
+            response.setHeader("Cache-Control", "no-cache, no-store");
+            response.setHeader("Pragma", "no-cache");
+            response.setContentLength(content.length);
+            final ServletOutputStream out = response.getOutputStream();
+            out.write(content);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.security.SecurityException;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.algorithm.AlgorithmSupport;
+import org.opensaml.xmlsec.crypto.XMLSigningUtil;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * URL of a message sent with the HTTP-Redirect binding: the marshalled message is deflated, base64 and URL encoded
+ * straight into the URL, with the deflater and buffers of the thread reused and the query string signed with a setup
+ * cached for the signing key of the site. The URL is the same as the one built by the pac4j encoder.
+ */
+final class RedirectUrlBuilder {
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+    private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+    private static final String[] RESERVED_PARAMETERS = {"SAMLRequest", "SAMLResponse", "RelayState", "SigAlg", "Signature"};
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private volatile SigningSetup signingSetup;
+
+    /**
+     * Build the redirect URL of a SAMLRequest.
+     *
+     * @param endpoint   SSO endpoint of the IdP
+     * @param message    marshalled message
+     * @param length     length of the message in the array
+     * @param relayState relay state, or null for none
+     * @param signing    signing parameters of the query string, or null when it is not signed
+     */
+    String build(String endpoint, byte[] message, int length, String relayState, SignatureSigningParameters signing)
+            throws MessageEncodingException {
+        final Scratch scratch = SCRATCH.get();
+        try {
+            final StringBuilder url = scratch.url;
+            url.setLength(0);
+            final int query = appendEndpoint(url, endpoint);
+            url.append("SAMLRequest=");
+            appendBase64(url, scratch.deflated, scratch.deflate(message, length));
+            if (relayState != null) {
+                url.append("&RelayState=").append(URLEncoder.encode(relayState.trim(), StandardCharsets.UTF_8));
+            }
+            if (signing != null) {
+                final SigningSetup setup = signingSetup(signing);
+                url.append("&SigAlg=").append(setup.encodedAlgorithm);
+                final byte[] signature = setup.sign(scratch.ascii(url, query), url.length() - query);
+                url.append("&Signature=");
+                appendBase64(url, signature, signature.length);
+            }
+            return url.toString();
+        } finally {
+            scratch.trim();
+        }
+    }
+
+    private SigningSetup signingSetup(SignatureSigningParameters signing) throws MessageEncodingException {
+        final String algorithm = signing.getSignatureAlgorithm();
+        if (algorithm == null) {
+            throw new MessageEncodingException("The signing algorithm URI could not be determined");
+        }
+        final Key key = CredentialSupport.extractSigningKey(signing.getSigningCredential());
+        SigningSetup setup = signingSetup;
+        if (setup == null || !setup.algorithm.equals(algorithm) || !setup.key.equals(key)) {
+            setup = new SigningSetup(signing.getSigningCredential(), key, algorithm);
+            signingSetup = setup;
+        }
+        return setup;
+    }
+
+    /**
+     * Append the endpoint and the separator of the SAML parameters, keeping the parameters of the endpoint that the
+     * binding does not use.
+     *
+     * @return start of the query string
+     */
+    private static int appendEndpoint(StringBuilder url, String endpoint) {
+        final int separator = endpoint.indexOf('?');
+        if (separator < 0) {
+            url.append(endpoint).append('?');
+            return url.length();
+        }
+        url.append(endpoint, 0, separator + 1);
+        final int query = url.length();
+        for (String parameter : endpoint.substring(separator + 1).split("&")) {
+            final int equals = parameter.indexOf('=');
+            final String name = equals >= 0 ? parameter.substring(0, equals) : parameter;
+            if (!parameter.isEmpty() && Arrays.stream(RESERVED_PARAMETERS).noneMatch(name::equals)) {
+                url.append(parameter).append('&');
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Base64 encoding of the bytes, URL encoded.
+     */
+    private static void appendBase64(StringBuilder url, byte[] source, int length) {
+        final int full = length - length % 3;
+        for (int i = 0; i < full; i += 3) {
+            final int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | source[i + 2] & 0xff;
+            appendBase64Char(url, bits >>> 18);
+            appendBase64Char(url, bits >>> 12 & 0x3f);
+            appendBase64Char(url, bits >>> 6 & 0x3f);
+            appendBase64Char(url, bits & 0x3f);
+        }
+        final int remaining = length - full;
+        if (remaining > 0) {
+            final int bits = (source[full] & 0xff) << 16 | (remaining == 2 ? (source[full + 1] & 0xff) << 8 : 0);
+            appendBase64Char(url, bits >>> 18);
+            appendBase64Char(url, bits >>> 12 & 0x3f);
+            if (remaining == 2) {
+                appendBase64Char(url, bits >>> 6 & 0x3f);
+            } else {
+                url.append("%3D");
+            }
+            url.append("%3D");
+        }
+    }
+
+    private static void appendBase64Char(StringBuilder url, int value) {
+        final char c = BASE64[value];
+        if (c == '+') {
+            url.append("%2B");
+        } else if (c == '/') {
+            url.append("%2F");
+        } else {
+            url.append(c);
+        }
+    }
+
+    /**
+     * Deflater and buffers of a thread.
+     */
+    private static final class Scratch {
+        private final Deflater deflater = new Deflater(8, true);
+        private byte[] deflated = new byte[4 * 1024];
+        private byte[] ascii = new byte[8 * 1024];
+        private StringBuilder url = new StringBuilder(8 * 1024);
+
+        private int deflate(byte[] message, int length) {
+            deflater.reset();
+            deflater.setInput(message, 0, length);
+            deflater.finish();
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == deflated.length) {
+                    deflated = Arrays.copyOf(deflated, deflated.length * 2);
+                }
+                size += deflater.deflate(deflated, size, deflated.length - size);
+            }
+            return size;
+        }
+
+        /**
+         * Bytes of the URL from an index, the URL being ASCII once encoded.
+         */
+        private byte[] ascii(StringBuilder url, int start) {
+            final int length = url.length() - start;
+            if (ascii.length < length) {
+                ascii = new byte[Math.max(length, ascii.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                ascii[i] = (byte) url.charAt(start + i);
+            }
+            return ascii;
+        }
+
+        private void trim() {
+            if (deflated.length > MAX_RETAINED_BUFFER) {
+                deflated = new byte[4 * 1024];
+            }
+            if (ascii.length > MAX_RETAINED_BUFFER) {
+                ascii = new byte[8 * 1024];
+            }
+            if (url.capacity() > MAX_RETAINED_BUFFER) {
+                url = new StringBuilder(8 * 1024);
+            }
+        }
+    }
+
+    /**
+     * JCA signature of the query string for a signing key and algorithm, with a signature instance per thread
+     * initialized once.
+     */
+    private static final class SigningSetup {
+        private final Credential credential;
+        private final Key key;
+        private final String algorithm;
+        private final String encodedAlgorithm;
+        private final ThreadLocal<Signature> signatures;
+
+        private SigningSetup(Credential credential, Key key, String algorithm) throws MessageEncodingException {
+            this.credential = credential;
+            this.key = key;
+            this.algorithm = algorithm;
+            this.encodedAlgorithm = URLEncoder.encode(algorithm, StandardCharsets.UTF_8);
+            final String jcaAlgorithm = AlgorithmSupport.getAlgorithmID(algorithm);
+            if (jcaAlgorithm == null) {
+                throw new MessageEncodingException("Unknown signature algorithm " + algorithm);
+            }
+            if (key instanceof PrivateKey && !AlgorithmSupport.isHMAC(algorithm)) {
+                signatures = ThreadLocal.withInitial(() -> {
+                    try {
+                        final Signature signature = Signature.getInstance(jcaAlgorithm);
+                        signature.initSign((PrivateKey) key);
+                        return signature;
+                    } catch (GeneralSecurityException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+            } else {
+                signatures = null;
+            }
+        }
+
+        private byte[] sign(byte[] input, int length) throws MessageEncodingException {
+            try {
+                if (signatures == null) {
+                    return XMLSigningUtil.signWithURI(credential, algorithm, Arrays.copyOf(input, length));
+                }
+                // a signature is reset to its initialized state after signing
+                final Signature signature = signatures.get();
+                signature.update(input, 0, length);
+                return signature.sign();
+            } catch (GeneralSecurityException | SecurityException | IllegalStateException e) {
+                if (signatures != null) {
+                    signatures.remove();
+                }
+                throw new MessageEncodingException("Unable to sign URL query string", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * MXBean exposing the administration operations of {@link SAML2Util}.
+ */
+public final class SAML2Admin implements SAML2AdminMXBean {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SAML2Admin.class);
+
+    private final SAML2Util util;
+
+    public SAML2Admin(SAML2Util util) {
+        this.util = util;
+    }
+
+    @Override
+    public BulkValidationReport validateSites(String siteKeys) {
+        final List<String> keys = new ArrayList<>();
+        if (siteKeys != null) {
+            for (String siteKey : siteKeys.split(",")) {
+                if (StringUtils.isNotBlank(siteKey)) {
+                    keys.add(siteKey.trim());
+                }
+            }
+        }
+        return util.validateSites(keys);
+    }
+
+    @Override
+    public List<LoginJournal.Attempt> findAttempts(String siteKey, String outcome, int max) {
+        final LoginJournal journal = util.getMetrics().getJournal();
+        if (journal == null) {
+            return Collections.emptyList();
+        }
+        return journal.find(StringUtils.trimToNull(siteKey), parseOutcome(StringUtils.trimToNull(outcome)), Math.max(0, max));
+    }
+
+    private static SAML2Metrics.Outcome parseOutcome(String outcome) {
+        if (outcome == null) {
+            return null;
+        }
+        for (SAML2Metrics.Outcome value : SAML2Metrics.Outcome.values()) {
+            if (value.name().equalsIgnoreCase(outcome) || SAML2Metrics.camelCase(value).equalsIgnoreCase(outcome)) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Unknown outcome: " + outcome);
+    }
+
+    public void register() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = objectName();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Cannot register SAML2 administration MXBean: {}", e.getMessage());
+        }
+    }
+
+    public void unregister() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            final ObjectName name = objectName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.debug("Cannot unregister SAML2 administration MXBean", e);
+        }
+    }
+
+    private static ObjectName objectName() throws JMException {
+        return new ObjectName(SAML2Metrics.DOMAIN + ":type=Admin");
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import java.util.List;
+
+/**
+ * Administration operations on the SAML configuration of sites.
+ */
+public interface SAML2AdminMXBean {
+
+    /**
+     * Validate the SAML configuration of sites and rebuild their clients. Sites with a valid configuration get their
+     * new clients once all sites are validated, the others keep their previous clients.
+     *
+     * @param siteKeys comma separated site keys, all sites when blank
+     */
+    BulkValidationReport validateSites(String siteKeys);
+
+    /**
+     * Last connect, callback and logout requests recorded by the journal of this node, most recent first.
+     *
+     * @param siteKey only the requests of this site, all sites when blank
+     * @param outcome only the requests with this outcome (success, signatureFailure...), all outcomes when blank
+     * @param max     maximum number of requests returned
+     */
+    List<LoginJournal.Attempt> findAttempts(String siteKey, String outcome, int max);
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.jahiaauth.service.ConnectorConfig;
+import org.jahia.modules.saml2.SAMLConfigException;
+import org.pac4j.core.exception.TechnicalException;
+import org.pac4j.saml.client.SAML2Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Clients keyed by site and assertion consumer service URL, grouped per site so that the clients of a site can be
+ * replaced all at once.
+ * <p>
+ * A single thread builds a given client while concurrent requests for the same key wait for that result. The pool
+ * holds at most <code>maxSize</code> clients and <code>maxPerSite</code> clients per site, evicting the least
+ * recently used ones, and drops clients that have not been used for <code>maxIdle</code> milliseconds. A client is
+ * only ever used for the callback URL it was built for: when a site already has its maximum number of clients, its
+ * least recently used one is evicted to make room for the requested URL.
+ * <p>
+ * Each client keeps the {@link ConfigFingerprint} of the configuration it was built from. When a request comes with a
+ * configuration whose fingerprint differs, the client is rebuilt on the rebuild executor and replaced once ready, the
+ * previous client serving requests in the meantime. Configurations are compared by identity first, so an unchanged
+ * configuration is not fingerprinted again.
+ */
+public final class SAML2ClientPool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SAML2ClientPool.class);
+    private static final long SWEEP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    /**
+     * Rough heap cost of an initialized OpenSAML stack, excluding the parsed metadata and key material.
+     */
+    private static final long CLIENT_BASE_HEAP_SIZE = 256L * 1024;
+    /**
+     * DOM and XMLObject trees take several times the size of the raw XML.
+     */
+    private static final int METADATA_HEAP_FACTOR = 10;
+
+    /**
+     * Build a client, called at most once per key at a time.
+     */
+    @FunctionalInterface
+    public interface ClientFactory {
+        SAML2Client build() throws SAMLConfigException;
+    }
+
+    private final ConcurrentMap<String, ConcurrentMap<String, PooledClient>> sites = new ConcurrentHashMap<>();
+    private final int maxSize;
+    private final int maxPerSite;
+    private final long maxIdle;
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+    private final Executor rebuildExecutor;
+
+    /**
+     * @param rebuildExecutor executor of the rebuilds after a configuration change
+     */
+    public SAML2ClientPool(int maxSize, int maxPerSite, long maxIdle, Executor rebuildExecutor) {
+        this.maxSize = maxSize;
+        this.maxPerSite = maxPerSite;
+        this.maxIdle = maxIdle;
+        this.rebuildExecutor = rebuildExecutor;
+    }
+
+    /**
+     * Get the client of a site and callback URL, building it with the factory if needed.
+     *
+     * @param config  the current configuration of the site, the one the factory builds clients from
+     */
+    public PooledClient get(String siteKey, String callbackUrl, ConnectorConfig config, ClientFactory factory) throws SAMLConfigException {
+        final long now = System.currentTimeMillis();
+        final ConcurrentMap<String, PooledClient> siteClients = sites.computeIfAbsent(siteKey, key -> new ConcurrentHashMap<>());
+        PooledClient pooled = siteClients.get(callbackUrl);
+        if (pooled == null) {
+            final PooledClient newClient = new PooledClient(siteKey, callbackUrl, now, config, ConfigFingerprint.of(config));
+            pooled = siteClients.putIfAbsent(callbackUrl, newClient);
+            if (pooled == null) {
+                pooled = newClient;
+                evictSiteOverflow(siteClients, newClient);
+                build(newClient, factory);
+                evict(now);
+            }
+        }
+        pooled.lastAccess = now;
+        pooled.await();
+        if (pooled.config != config) {
+            checkFingerprint(pooled, config, factory);
+        }
+        sweepIfNeeded(now);
+        return pooled;
+    }
+
+    /**
+     * Rebuild a client in the background if the configuration changed since it was built.
+     */
+    private void checkFingerprint(PooledClient pooled, ConnectorConfig config, ClientFactory factory) {
+        final String fingerprint = ConfigFingerprint.of(config);
+        if (fingerprint.equals(pooled.fingerprint)) {
+            pooled.config = config;
+            return;
+        }
+        if (fingerprint.equals(pooled.failedFingerprint) || !pooled.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        LOGGER.info("SAML2 configuration of site {} changed, rebuilding its client for {}", pooled.siteKey, pooled.callbackUrl);
+        try {
+            rebuildExecutor.execute(() -> rebuild(pooled, config, fingerprint, factory));
+        } catch (RejectedExecutionException e) {
+            pooled.rebuilding.set(false);
+            LOGGER.debug("SAML2 client rebuild rejected", e);
+        }
+    }
+
+    private void rebuild(PooledClient pooled, ConnectorConfig config, String fingerprint, ClientFactory factory) {
+        try {
+            final PooledClient replacement = new PooledClient(pooled.siteKey, pooled.callbackUrl, pooled.lastAccess, config, fingerprint);
+            final SAML2Client client = factory.build();
+            replacement.estimatedHeapSize = estimateHeapSize(client);
+            replacement.future.complete(client);
+            final ConcurrentMap<String, PooledClient> siteClients = sites.get(pooled.siteKey);
+            if (siteClients != null && siteClients.replace(pooled.callbackUrl, pooled, replacement)) {
+                LOGGER.info("Rebuilt SAML2 client of site {} for {}", pooled.siteKey, pooled.callbackUrl);
+            }
+        } catch (SAMLConfigException | RuntimeException e) {
+            // keep serving with the previous client until the configuration changes again
+            pooled.failedFingerprint = fingerprint;
+            LOGGER.warn("Unable to rebuild SAML2 client of site {}, keeping the previous one: {}", pooled.siteKey, e.getMessage());
+            LOGGER.debug("SAML2 client rebuild failure for site {}", pooled.siteKey, e);
+        } finally {
+            pooled.rebuilding.set(false);
+        }
+    }
+
+    /**
+     * Replace all clients of a site with already built ones in a single swap, so that a request gets either one of the
+     * previous clients or one of the new ones. Requests holding a previous client complete with it.
+     *
+     * @param clients the new clients by callback URL
+     */
+    public void replaceSite(String siteKey, ConnectorConfig config, Map<String, SAML2Client> clients) {
+        final long now = System.currentTimeMillis();
+        final String fingerprint = ConfigFingerprint.of(config);
+        final Map<String, PooledClient> previous = sites.get(siteKey);
+        final ConcurrentMap<String, PooledClient> siteClients = new ConcurrentHashMap<>();
+        clients.forEach((callbackUrl, client) -> {
+            final PooledClient replaced = previous != null ? previous.get(callbackUrl) : null;
+            final PooledClient pooled = new PooledClient(siteKey, callbackUrl, replaced != null ? replaced.lastAccess : now, config, fingerprint);
+            pooled.estimatedHeapSize = estimateHeapSize(client);
+            pooled.future.complete(client);
+            siteClients.put(callbackUrl, pooled);
+        });
+        evictSiteOverflow(siteClients, null);
+        sites.put(siteKey, siteClients);
+        evict(now);
+    }
+
+    /**
+     * @return the callback URLs of the pooled clients of a site
+     */
+    public List<String> getCallbackUrls(String siteKey) {
+        final Map<String, PooledClient> siteClients = sites.get(siteKey);
+        return siteClients != null ? new ArrayList<>(siteClients.keySet()) : new ArrayList<>();
+    }
+
+    /**
+     * Remove all clients of a site. Requests holding one of them complete with it.
+     */
+    public void remove(String siteKey) {
+        sites.remove(siteKey);
+    }
+
+    public void clear() {
+        sites.clear();
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Map<String, PooledClient> siteClients : sites.values()) {
+            size += siteClients.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the rough heap size, in bytes, used by the pooled clients
+     */
+    public long getEstimatedHeapSize() {
+        long size = 0;
+        for (Map<String, PooledClient> siteClients : sites.values()) {
+            for (PooledClient pooled : siteClients.values()) {
+                size += pooled.estimatedHeapSize;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the rough heap size, in bytes, of the clients of each site
+     */
+    public Map<String, Long> getEstimatedHeapSizePerSite() {
+        final Map<String, Long> sizes = new HashMap<>();
+        sites.forEach((siteKey, siteClients) -> {
+            for (PooledClient pooled : siteClients.values()) {
+                sizes.merge(siteKey, pooled.estimatedHeapSize, Long::sum);
+            }
+        });
+        return sizes;
+    }
+
+    /**
+     * Drop the least recently used clients of a site above <code>maxPerSite</code>, keeping the newly added one.
+     */
+    private void evictSiteOverflow(ConcurrentMap<String, PooledClient> siteClients, PooledClient added) {
+        if (siteClients.size() <= maxPerSite) {
+            return;
+        }
+        final List<PooledClient> candidates = new ArrayList<>(siteClients.values());
+        candidates.removeIf(pooled -> pooled == added || !pooled.future.isDone());
+        candidates.sort(Comparator.comparingLong(pooled -> pooled.lastAccess));
+        int excess = siteClients.size() - maxPerSite;
+        for (int i = 0; i < candidates.size() && excess > 0; i++) {
+            final PooledClient pooled = candidates.get(i);
+            if (siteClients.remove(pooled.callbackUrl, pooled)) {
+                LOGGER.debug("Evicting least recently used SAML2 client of site {} for {}", pooled.siteKey, pooled.callbackUrl);
+                excess--;
+            }
+        }
+    }
+
+    private boolean remove(PooledClient pooled) {
+        final Map<String, PooledClient> siteClients = sites.get(pooled.siteKey);
+        return siteClients != null && siteClients.remove(pooled.callbackUrl, pooled);
+    }
+
+    private void build(PooledClient pooled, ClientFactory factory) {
+        final CompletableFuture<SAML2Client> future = pooled.future;
+        try {
+            final SAML2Client client = factory.build();
+            pooled.estimatedHeapSize = estimateHeapSize(client);
+            future.complete(client);
+        } catch (SAMLConfigException | RuntimeException e) {
+            remove(pooled);
+            future.completeExceptionally(e);
+        } finally {
+            if (!future.isDone()) {
+                remove(pooled);
+                future.completeExceptionally(new TechnicalException("Unable to build SAML2 client for siteKey: " + pooled.siteKey));
+            }
+        }
+    }
+
+    private void sweepIfNeeded(long now) {
+        final long last = lastSweep.get();
+        if (now - last > SWEEP_INTERVAL && lastSweep.compareAndSet(last, now)) {
+            evict(now);
+        }
+    }
+
+    /**
+     * Drop idle clients, then the least recently used ones above the maximum size.
+     */
+    private void evict(long now) {
+        if (maxIdle > 0) {
+            for (Map<String, PooledClient> siteClients : sites.values()) {
+                siteClients.values().removeIf(pooled -> {
+                    final boolean idle = pooled.future.isDone() && now - pooled.lastAccess > maxIdle;
+                    if (idle) {
+                        LOGGER.debug("Evicting idle SAML2 client of site {} for {}", pooled.siteKey, pooled.callbackUrl);
+                    }
+                    return idle;
+                });
+            }
+        }
+        int size = getSize();
+        if (size > maxSize) {
+            final List<PooledClient> candidates = new ArrayList<>();
+            for (Map<String, PooledClient> siteClients : sites.values()) {
+                candidates.addAll(siteClients.values());
+            }
+            candidates.removeIf(pooled -> !pooled.future.isDone());
+            candidates.sort(Comparator.comparingLong(pooled -> pooled.lastAccess));
+            for (int i = 0; i < candidates.size() && size > maxSize; i++) {
+                final PooledClient pooled = candidates.get(i);
+                if (remove(pooled)) {
+                    LOGGER.debug("Evicting least recently used SAML2 client of site {} for {}", pooled.siteKey, pooled.callbackUrl);
+                    size--;
+                }
+            }
+        }
+    }
+
+    private static long estimateHeapSize(SAML2Client client) {
+        long size = CLIENT_BASE_HEAP_SIZE;
+        try {
+            final Resource idpMetadata = client.getConfiguration().getIdentityProviderMetadataResource();
+            if (idpMetadata != null) {
+                size += idpMetadata.contentLength() * METADATA_HEAP_FACTOR;
+            }
+            final Resource keystore = client.getConfiguration().getKeystoreResource();
+            if (keystore != null && keystore.exists()) {
+                size += keystore.contentLength() * 2;
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Cannot estimate SAML2 client size", e);
+        }
+        return size;
+    }
+
+    /**
+     * A pooled client with the fingerprint of its configuration and its lazily generated service provider metadata.
+     */
+    public static final class PooledClient {
+        private final String siteKey;
+        private final String callbackUrl;
+        private final CompletableFuture<SAML2Client> future = new CompletableFuture<>();
+        private final String fingerprint;
+        private final AtomicBoolean rebuilding = new AtomicBoolean();
+        private volatile ConnectorConfig config;
+        private volatile String failedFingerprint;
+        private volatile long lastAccess;
+        private volatile long estimatedHeapSize;
+        private volatile SPMetadata metadata;
+
+        private PooledClient(String siteKey, String callbackUrl, long now, ConnectorConfig config, String fingerprint) {
+            this.siteKey = siteKey;
+            this.callbackUrl = callbackUrl;
+            this.lastAccess = now;
+            this.config = config;
+            this.fingerprint = fingerprint;
+        }
+
+        public SAML2Client getClient() {
+            return future.join();
+        }
+
+        public SPMetadata getMetadata() throws IOException {
+            SPMetadata spMetadata = metadata;
+            if (spMetadata == null) {
+                spMetadata = SPMetadata.of(getClient());
+                metadata = spMetadata;
+            }
+            return spMetadata;
+        }
+
+        private void await() throws SAMLConfigException {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof SAMLConfigException) {
+                    throw (SAMLConfigException) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new TechnicalException(cause);
+            }
+        }
+    }
+}
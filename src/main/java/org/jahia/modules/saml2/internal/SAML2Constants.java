@@ -5,6 +5,8 @@ public final class SAML2Constants {
     public static final String SITEKEY = "siteKey";
     public static final String ENABLED = "enabled";
     public static final String IDENTITY_PROVIDER_METADATA = "identityProviderMetadata";
+    public static final String IDENTITY_PROVIDER_METADATA_URL = "identityProviderMetadataUrl";
+    public static final String IDENTITY_PROVIDER_METADATA_CERTIFICATE = "identityProviderMetadataCertificate";
     public static final String INCOMING_TARGET_URL = "incomingTargetUrl";
     public static final String KEY_STORE = "keyStore";
     public static final String KEY_STORE_TYPE = "keyStoreType";
@@ -25,6 +27,7 @@ public final class SAML2Constants {
 
     public static final String REDIRECT = "redirect";
     public static final String SITE = "site";
+    public static final String LOGOUT_REDIRECT = "logoutRedirect";
 
     private SAML2Constants() {
     }
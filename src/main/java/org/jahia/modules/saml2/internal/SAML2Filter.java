@@ -15,35 +15,55 @@
  */
 package org.jahia.modules.saml2.internal;
 
+import org.apache.commons.lang.StringUtils;
 import org.jahia.bin.filters.AbstractServletFilter;
 import org.jahia.modules.jahiaauth.service.*;
 import org.jahia.modules.saml2.SAMLConfigException;
+import org.jahia.modules.saml2.internal.SAML2Metrics.Handler;
+import org.jahia.modules.saml2.internal.SAML2Metrics.Outcome;
+import org.jahia.modules.saml2.internal.SAML2Metrics.Phase;
+import org.jahia.modules.saml2.internal.SAML2Metrics.RequestTimer;
+import org.jahia.services.usermanager.JahiaUserManagerService;
 import org.jahia.utils.ClassLoaderUtils;
 import org.opensaml.core.config.InitializationService;
 import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
 import org.pac4j.core.context.JEEContext;
 import org.pac4j.core.exception.http.FoundAction;
+import org.pac4j.core.exception.http.HttpAction;
 import org.pac4j.core.exception.http.OkAction;
 import org.pac4j.core.exception.http.RedirectionAction;
 import org.pac4j.core.exception.http.SeeOtherAction;
 import org.pac4j.core.profile.BasicUserProfile;
 import org.pac4j.core.profile.UserProfile;
+import org.pac4j.core.util.Pac4jConstants;
 import org.pac4j.saml.client.SAML2Client;
 import org.pac4j.saml.credentials.SAML2Credentials;
-import org.pac4j.saml.metadata.SAML2MetadataResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.servlet.*;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Jerome Blanchard
@@ -51,13 +71,20 @@ import java.util.Optional;
 @Component(immediate = true, service = AbstractServletFilter.class)
 public class SAML2Filter extends AbstractServletFilter {
     private static final Logger LOGGER = LoggerFactory.getLogger(SAML2Filter.class);
+    private static final int SC_TOO_MANY_REQUESTS = 429;
 
     @Reference
     private SAML2Util util;
     @Reference
-    private SettingsService settingsService;
-    @Reference
     private JahiaAuthMapperService jahiaAuthMapperService;
+    @Reference
+    private JahiaUserManagerService userManagerService;
+
+    private ExecutorService mapperExecutor;
+    private ExecutorService validationExecutor;
+    private ExecutorService loginExecutor;
+    private long asyncTimeout;
+    private final Set<AsyncCallback> pendingCallbacks = ConcurrentHashMap.newKeySet();
 
     @Override
     public void init(FilterConfig filterConfig) {
@@ -71,6 +98,42 @@ public class SAML2Filter extends AbstractServletFilter {
         setUrlPatterns(new String[]{"*.saml"});
         setFilterName("SAML2Filter");
         setOrder(-5.4f);
+        final SAML2Settings settings = util.getModuleSettings();
+        if (settings.isParallelMappers()) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            mapperExecutor = Executors.newFixedThreadPool(settings.getMapperThreads(), r -> {
+                final Thread thread = new Thread(r, "saml2-mapper-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        if (settings.isAsyncCallback()) {
+            validationExecutor = BoundedExecutors.create("saml2-validation", settings.getAsyncValidationThreads(),
+                    settings.getAsyncQueueSize(), settings.isAsyncVirtualThreads());
+            loginExecutor = BoundedExecutors.create("saml2-login", settings.getAsyncLoginThreads(), settings.getAsyncQueueSize(),
+                    settings.isAsyncVirtualThreads());
+            asyncTimeout = settings.getAsyncTimeout();
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        // answer pending callbacks first, so that a task interrupted below cannot complete its login afterwards
+        for (AsyncCallback callback : pendingCallbacks.toArray(new AsyncCallback[0])) {
+            callback.abort();
+        }
+        if (mapperExecutor != null) {
+            mapperExecutor.shutdownNow();
+            mapperExecutor = null;
+        }
+        if (validationExecutor != null) {
+            validationExecutor.shutdownNow();
+            validationExecutor = null;
+        }
+        if (loginExecutor != null) {
+            loginExecutor.shutdownNow();
+            loginExecutor = null;
+        }
     }
 
     @Override
@@ -88,124 +151,554 @@ public class SAML2Filter extends AbstractServletFilter {
         } else if (requestURI.endsWith("metadata.saml")) {
             handleMetadata(httpRequest, httpResponse);
             return;
+        } else if (requestURI.endsWith("logout.saml")) {
+            handleLogout(httpRequest, httpResponse);
+            return;
         }
         chain.doFilter(request, response);
     }
 
     private void handleConnect(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
         LOGGER.debug("SAML2Filter.handleConnect() matches request URI: {}", httpRequest.getRequestURI());
-        final String siteKey = util.findSiteKeyForRequest(httpRequest);
-        if (siteKey != null) {
-            boolean redirected = ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
-                try {
-                    // Store authentication context (redirect URL, site param) in cookies
-                    util.storeAuthenticationContext(httpRequest, httpResponse, siteKey);
-                    final SAML2Client client = util.getSAML2Client(httpRequest, siteKey);
-                    JEEContext webContext = new JEEContext(httpRequest, httpResponse);
-                    final Optional<RedirectionAction> action = client.getRedirectionAction(webContext);
-                    if (action.isPresent()) {
-                        RedirectionAction redirectionAction = action.get();
-                        try {
-                            if (redirectionAction instanceof OkAction) {
-                                httpResponse.getWriter().append(((OkAction) redirectionAction).getContent());
-                            } else if (redirectionAction instanceof SeeOtherAction) {
-                                httpResponse.sendRedirect(((SeeOtherAction) redirectionAction).getLocation());
-                            } else if (redirectionAction instanceof FoundAction) {
-                                httpResponse.sendRedirect(((FoundAction) redirectionAction).getLocation());
-                            }
-                            httpResponse.getWriter().flush();
+        final RequestTimer timer = util.getMetrics().start(Handler.CONNECT);
+        try {
+            if (!admitSource(httpRequest, httpResponse, timer)) {
+                return;
+            }
+            final String siteKey = util.findSiteKeyForRequest(httpRequest);
+            timer.site(siteKey).phase(Phase.SITE_RESOLUTION);
+            if (!admitSite(siteKey, httpResponse, timer)) {
+                return;
+            }
+            if (siteKey != null) {
+                boolean redirected = ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
+                    try {
+                        // Store authentication context (redirect URL, site param) in cookies
+                        util.storeAuthenticationContext(httpRequest, httpResponse, siteKey);
+                        final SAML2Client client = util.getSAML2Client(httpRequest, siteKey);
+                        timer.phase(Phase.CLIENT_LOOKUP);
+                        timer.binding(client.getConfiguration().getAuthnRequestBindingType());
+                        final JEEContext webContext = util.createWebContext(httpRequest, httpResponse);
+                        final Optional<RedirectionAction> action = client.getRedirectionAction(webContext);
+                        util.saveWebContext(webContext);
+                        final PostFormRenderer.Form form = (PostFormRenderer.Form) httpRequest.getAttribute(PostFormRenderer.FORM_ATTRIBUTE);
+                        if (form != null) {
+                            httpRequest.removeAttribute(PostFormRenderer.FORM_ATTRIBUTE);
+                            timer.rendered(form.getLength(), form.getRenderNanos());
+                            form.write(httpResponse);
+                            timer.phase(Phase.REDIRECT);
+                            timer.outcome(Outcome.SUCCESS);
                             return true;
-                        } catch (IOException e) {
-                            LOGGER.error("Cannot send response", e);
+                        } else if (action.isPresent()) {
+                            try {
+                                writeAction(httpResponse, action.get());
+                                timer.phase(Phase.REDIRECT);
+                                timer.outcome(Outcome.SUCCESS);
+                                return true;
+                            } catch (IOException e) {
+                                LOGGER.error("Cannot send response", e);
+                                timer.failure(e);
+                            }
+                        } else {
+                            LOGGER.warn("No SAML redirection found in config");
+                            timer.outcome(Outcome.CONFIG_ERROR);
                         }
-                    } else {
-                        LOGGER.warn("No SAML redirection found in config");
+                    } catch (SAMLConfigException e) {
+                        LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
+                        timer.failure(e);
+                    } catch (Exception e) {
+                        LOGGER.error("Unexpected error while trying to connect to SAML", e);
+                        timer.failure(e);
                     }
-                } catch (SAMLConfigException e) {
-                    LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
-                } catch (Exception e) {
-                    LOGGER.error("Unexpected error while trying to connect to SAML", e);
+                    return false;
+                });
+                if (redirected) {
+                    LOGGER.debug("SAMLConnectFilter request redirected to SSO");
+                    return;
                 }
-                return false;
-            });
-            if (redirected) {
-                LOGGER.debug("SAMLConnectFilter request redirected to SSO");
-                return;
+            } else {
+                LOGGER.warn("No site found (param or servername based), cannot proceed with SAML connect");
+                timer.outcome(Outcome.CONFIG_ERROR);
             }
-        } else {
-            LOGGER.warn("No site found (param or servername based), cannot proceed with SAML connect");
+            httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Error while trying to connect to SAML");
+        } finally {
+            timer.stop();
         }
-        httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Error while trying to connect to SAML");
     }
 
     private void handleCallback(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
         LOGGER.debug("SAML2Filter.handleCallback() matches URL {}", httpRequest.getRequestURI());
-        String siteKey = util.findSiteKeyForRequest(httpRequest);
-        if (siteKey != null) {
-            String redirection = ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
-                try {
-                    final SAML2Client client = util.getSAML2Client(httpRequest, siteKey);
-                    final JEEContext webContext = new JEEContext(httpRequest, httpResponse);
-                    final Optional<SAML2Credentials> saml2Credentials = client.getCredentials(webContext);
-                    final Optional<UserProfile> saml2Profile = saml2Credentials.flatMap(c -> client.getUserProfile(c, webContext));
-
-                    if (saml2Profile.isPresent()) {
-                        Map<String, Object> properties = getMapperResult((BasicUserProfile) saml2Profile.get());
-                        ConnectorConfig config = settingsService.getConnectorConfig(siteKey, "Saml");
-                        for (MapperConfig mapper : config.getMappers()) {
-                            try {
-                                jahiaAuthMapperService.executeMapper(httpRequest.getSession().getId(), mapper, properties);
-                            } catch (JahiaAuthException e) {
-                                LOGGER.warn("Cannot log in user : {}", e.getMessage());
-                                return null;
-                            }
-                        }
-                        jahiaAuthMapperService.executeConnectorResultProcessors(config, properties);
-                        return util.getRedirectionUrl(httpRequest, siteKey);
-                    }
-                    LOGGER.warn("Cannot log in user : saml2Profile is not present");
-                } catch (SAMLConfigException e) {
-                    LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
-                } catch (Exception e) {
-                    LOGGER.warn("Unable to handle SAML callback : {}", e.getMessage());
+        // logout requests and responses of the IdP are posted to the callback URL with the logout endpoint parameter
+        final boolean logoutMessage = isLogoutMessage(httpRequest);
+        final RequestTimer timer = util.getMetrics().start(logoutMessage ? Handler.LOGOUT : Handler.CALLBACK);
+        final AdmissionController admission = util.getAdmissionController();
+        boolean permitted = false;
+        boolean async = false;
+        try {
+            if (!admitSource(httpRequest, httpResponse, timer)) {
+                return;
+            }
+            if (httpRequest.getContentLengthLong() > util.getMessageDecoder().getMaxRequestLength()) {
+                // rejected before the container parses the request parameters
+                LOGGER.warn("Rejecting SAML callback of {} bytes, larger than the maximum SAML response size", httpRequest.getContentLengthLong());
+                timer.outcome(Outcome.REJECTED);
+                httpResponse.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, "SAML response too large");
+                return;
+            }
+            String siteKey = util.findSiteKeyForRequest(httpRequest);
+            timer.site(siteKey).phase(Phase.SITE_RESOLUTION);
+            if (!admitSite(siteKey, httpResponse, timer)) {
+                return;
+            }
+            if (admission != null) {
+                if (!admission.enterCallback()) {
+                    LOGGER.debug("Too many concurrent SAML callbacks, rejecting callback of site {}", siteKey);
+                    throttle(httpResponse, timer);
+                    return;
+                }
+                permitted = true;
+            }
+            if (siteKey != null && logoutMessage) {
+                if (handleLogoutMessage(httpRequest, httpResponse, siteKey, timer)) {
+                    return;
+                }
+            } else if (siteKey != null && validationExecutor != null && httpRequest.isAsyncSupported()) {
+                processCallbackAsync(httpRequest, httpResponse, siteKey, timer, permitted);
+                async = true;
+                return;
+            } else if (siteKey != null) {
+                String redirection = ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
+                    final ValidatedLogin login = validateCallback(httpRequest, httpResponse, siteKey, timer);
+                    return login != null ? completeLogin(httpRequest, siteKey, login, timer) : null;
+                });
+                if (redirection != null) {
+                    LOGGER.debug("SAML Callback performed, redirecting to locale page {}", redirection);
+                    httpResponse.sendRedirect(redirection);
+                    timer.phase(Phase.REDIRECT);
+                    timer.outcome(Outcome.SUCCESS);
+                    return;
+                }
+            } else {
+                LOGGER.warn("No site found (param or servername based), cannot proceed with SAML authentication");
+                timer.outcome(Outcome.CONFIG_ERROR);
+            }
+            httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Error while trying to proceed with SAML authentication");
+        } finally {
+            if (!async) {
+                endCallback(httpRequest, timer, permitted);
+            }
+        }
+    }
+
+    /**
+     * Release the callback slot and record the request, once its response is sent.
+     */
+    private void endCallback(HttpServletRequest httpRequest, RequestTimer timer, boolean permitted) {
+        if (permitted) {
+            util.getAdmissionController().exitCallback();
+        }
+        final Object decodedSize = httpRequest.getAttribute(SAMLMessageDecoder.DECODED_SIZE_ATTRIBUTE);
+        if (decodedSize instanceof Long) {
+            timer.decoded((Long) decodedSize);
+        }
+        timer.stop();
+    }
+
+    /**
+     * Validate the SAML response of a callback, CPU bound.
+     *
+     * @return the validated login, null when the response is invalid
+     */
+    private ValidatedLogin validateCallback(HttpServletRequest httpRequest, HttpServletResponse httpResponse, String siteKey,
+                                            RequestTimer timer) {
+        try {
+            final SAML2Client client = util.getSAML2Client(httpRequest, siteKey);
+            timer.phase(Phase.CLIENT_LOOKUP);
+            timer.binding(client.getConfiguration().getResponseBindingType());
+            final JEEContext webContext = util.createWebContext(httpRequest, httpResponse);
+            final Optional<SAML2Credentials> saml2Credentials = client.getCredentials(webContext);
+            saml2Credentials.map(SAML2Credentials::getNameId).ifPresent(nameId -> timer.subject(nameId.getValue()));
+            final Optional<UserProfile> saml2Profile = saml2Credentials.flatMap(c -> client.getUserProfile(c, webContext));
+            util.saveWebContext(webContext);
+            timer.phase(Phase.RESPONSE_VALIDATION);
+            if (saml2Profile.isPresent()) {
+                return new ValidatedLogin(saml2Credentials.get(), (BasicUserProfile) saml2Profile.get());
+            }
+            LOGGER.warn("Cannot log in user : saml2Profile is not present");
+            timer.outcome(Outcome.VALIDATION_FAILURE);
+        } catch (SAMLConfigException e) {
+            LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
+            timer.failure(e);
+        } catch (Exception e) {
+            LOGGER.warn("Unable to handle SAML callback : {}", e.getMessage());
+            timer.failure(e);
+        }
+        return null;
+    }
+
+    /**
+     * Execute the mappers and result processors of a validated login, JCR bound.
+     *
+     * @return the URL to redirect to, null when the user cannot be logged in
+     */
+    private String completeLogin(HttpServletRequest httpRequest, String siteKey, ValidatedLogin login, RequestTimer timer) {
+        try {
+            if (DetachedRequest.isAbandoned(httpRequest)) {
+                return null;
+            }
+            final LoginPlan loginPlan = util.getLoginPlan(siteKey);
+            final Map<String, Object> properties = loginPlan.getMapperProperties(login.profile);
+            final String sessionId = httpRequest.getSession().getId();
+            final LoginFingerprints fingerprints = util.getLoginFingerprints();
+            final String userId = fingerprints != null ? loginPlan.getUserId(properties) : null;
+            final byte[] fingerprint = userId != null ? LoginFingerprints.fingerprint(properties) : null;
+            final String previousLogin = fingerprint != null ? fingerprints.find(loginPlan, userId, fingerprint) : null;
+            // same attributes as the last login of an existing user: the user mappers only get the user identifier
+            final Map<String, Object> unchangedUserProperties = previousLogin != null && userManagerService.lookupUser(previousLogin, siteKey) != null
+                    ? loginPlan.getUserIdProperties(properties) : null;
+            final Map<String, Map<String, MappedProperty>> mapperResults;
+            try {
+                mapperResults = executeMappers(loginPlan, sessionId, properties, unchangedUserProperties);
+            } catch (JahiaAuthException e) {
+                LOGGER.warn("Cannot log in user : {}", e.getMessage());
+                timer.failure(e);
+                if (fingerprint != null) {
+                    fingerprints.remove(loginPlan, userId);
                 }
                 return null;
+            }
+            if (unchangedUserProperties != null) {
+                timer.userUpdateSkipped();
+            } else if (fingerprint != null) {
+                final String jahiaLogin = getLogin(mapperResults);
+                if (jahiaLogin != null) {
+                    fingerprints.record(loginPlan, userId, fingerprint, jahiaLogin);
+                }
+            }
+            jahiaAuthMapperService.executeConnectorResultProcessors(loginPlan.getConnectorConfig(), properties);
+            if (DetachedRequest.isAbandoned(httpRequest)) {
+                LOGGER.debug("SAML callback of site {} completed while mapping the user, login abandoned", siteKey);
+                return null;
+            }
+            util.getSessionRegistry().record(siteKey, login.credentials, httpRequest.getSession());
+            timer.phase(Phase.MAPPERS);
+            return util.getRedirectionUrl(httpRequest, siteKey);
+        } catch (SAMLConfigException e) {
+            LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
+            timer.failure(e);
+        } catch (Exception e) {
+            LOGGER.warn("Unable to handle SAML callback : {}", e.getMessage());
+            timer.failure(e);
+        }
+        return null;
+    }
+
+    /**
+     * Release the container thread: the response is validated on the validation executor, then the user is mapped on
+     * the login executor. Full queues and timeouts answer a retryable 503. The tasks only see a {@link DetachedRequest}
+     * and a guarded response, which fail once the callback is completed.
+     */
+    private void processCallbackAsync(HttpServletRequest httpRequest, HttpServletResponse httpResponse, String siteKey, RequestTimer timer,
+                                      boolean permitted) {
+        final AsyncContext asyncContext = httpRequest.startAsync(httpRequest, httpResponse);
+        asyncContext.setTimeout(asyncTimeout);
+        final AsyncCallback callback = new AsyncCallback(asyncContext, httpRequest, httpResponse, timer, permitted);
+        asyncContext.addListener(callback);
+        final HttpServletRequest request = callback.request;
+        final HttpServletResponse response = callback.response;
+        final ClassLoader classLoader = InitializationService.class.getClassLoader();
+        pendingCallbacks.add(callback);
+        callback.submit(validationExecutor, () -> {
+            final ValidatedLogin login = ClassLoaderUtils.executeWith(classLoader, () -> validateCallback(request, response, siteKey, timer));
+            if (login == null) {
+                callback.fail();
+                return;
+            }
+            callback.submit(loginExecutor, () -> {
+                final String redirection = ClassLoaderUtils.executeWith(classLoader, () -> completeLogin(request, siteKey, login, timer));
+                if (redirection != null) {
+                    callback.redirect(redirection);
+                } else {
+                    callback.fail();
+                }
             });
-            if (redirection != null) {
-                LOGGER.debug("SAML Callback performed, redirecting to locale page {}", redirection);
-                httpResponse.sendRedirect(redirection);
+        });
+    }
+
+    /**
+     * Handle a logout request or response of the IdP: the sessions of the request are ended and the answer of pac4j,
+     * thrown as an action, is sent back to the IdP.
+     */
+    private boolean handleLogoutMessage(HttpServletRequest httpRequest, HttpServletResponse httpResponse, String siteKey,
+                                        RequestTimer timer) {
+        httpRequest.setAttribute(SessionIndexRegistry.SITE_ATTRIBUTE, siteKey);
+        return ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
+            try {
+                final SAML2Client client = util.getSAML2Client(httpRequest, siteKey);
+                timer.phase(Phase.CLIENT_LOOKUP);
+                final JEEContext webContext = util.createWebContext(httpRequest, httpResponse);
+                try {
+                    client.getCredentials(webContext);
+                    LOGGER.warn("No SAML logout message found in logout request of site {}", siteKey);
+                    timer.outcome(Outcome.VALIDATION_FAILURE);
+                    return false;
+                } catch (HttpAction action) {
+                    util.saveWebContext(webContext);
+                    timer.phase(Phase.RESPONSE_VALIDATION);
+                    if (action instanceof OkAction && StringUtils.isEmpty(((OkAction) action).getContent())) {
+                        // logout response of the IdP to a logout of the SP
+                        httpResponse.sendRedirect(util.getLogoutRedirectionUrl(httpRequest));
+                    } else if (action instanceof RedirectionAction) {
+                        writeAction(httpResponse, (RedirectionAction) action);
+                    } else {
+                        httpResponse.sendError(action.getCode());
+                    }
+                    timer.phase(Phase.REDIRECT);
+                    timer.outcome(Outcome.SUCCESS);
+                    return true;
+                }
+            } catch (SAMLConfigException e) {
+                LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
+                timer.failure(e);
+            } catch (Exception e) {
+                LOGGER.warn("Unable to handle SAML logout message : {}", e.getMessage());
+                timer.failure(e);
+            }
+            return false;
+        });
+    }
+
+    /**
+     * Log out the current session, through the IdP when the session was opened by a SAML login of the site and the
+     * IdP has a single logout service, else locally.
+     */
+    private void handleLogout(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
+        LOGGER.debug("SAML2Filter.handleLogout() matches URL {}", httpRequest.getRequestURI());
+        final RequestTimer timer = util.getMetrics().start(Handler.LOGOUT);
+        try {
+            if (!admitSource(httpRequest, httpResponse, timer)) {
                 return;
             }
-        } else {
-            LOGGER.warn("No site found (param or servername based), cannot proceed with SAML authentication");
+            final String siteKey = util.findSiteKeyForRequest(httpRequest);
+            timer.site(siteKey).phase(Phase.SITE_RESOLUTION);
+            if (!admitSite(siteKey, httpResponse, timer)) {
+                return;
+            }
+            final HttpSession session = httpRequest.getSession(false);
+            final SessionIndexRegistry.Entry entry = util.getSessionRegistry().find(session);
+            if (siteKey != null && entry != null && siteKey.equals(entry.getSiteKey())) {
+                httpRequest.setAttribute(SessionIndexRegistry.SITE_ATTRIBUTE, siteKey);
+                boolean redirected = ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
+                    try {
+                        final SAML2Client client = util.getSAML2Client(httpRequest, siteKey);
+                        timer.phase(Phase.CLIENT_LOOKUP);
+                        timer.binding(client.getConfiguration().getSpLogoutRequestBindingType());
+                        final JEEContext webContext = util.createWebContext(httpRequest, httpResponse);
+                        final Optional<RedirectionAction> action = client.getLogoutAction(webContext, entry.toProfile(), null);
+                        util.saveWebContext(webContext);
+                        if (action.isPresent()) {
+                            util.storeLogoutContext(httpRequest, httpResponse);
+                            invalidate(session);
+                            writeAction(httpResponse, action.get());
+                            timer.phase(Phase.REDIRECT);
+                            timer.outcome(Outcome.SUCCESS);
+                            return true;
+                        }
+                    } catch (SAMLConfigException e) {
+                        LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
+                    } catch (Exception e) {
+                        LOGGER.warn("Unable to send SAML logout request for site {}, logging out locally : {}", siteKey, e.getMessage());
+                    }
+                    return false;
+                });
+                if (redirected) {
+                    LOGGER.debug("SAML logout request sent to the IdP of site {}", siteKey);
+                    return;
+                }
+            }
+            invalidate(session);
+            httpResponse.sendRedirect(util.getLogoutRedirectionUrl(httpRequest));
+            timer.phase(Phase.REDIRECT);
+            timer.outcome(Outcome.SUCCESS);
+        } finally {
+            timer.stop();
+        }
+    }
+
+    private static void invalidate(HttpSession session) {
+        if (session == null) {
+            return;
         }
-        httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Error while trying to proceed with SAML authentication");
+        try {
+            session.invalidate();
+        } catch (IllegalStateException e) {
+            // already ended by the logout handler
+        }
+    }
+
+    private static boolean isLogoutMessage(HttpServletRequest httpRequest) {
+        // only the query string, the body is parsed after the size checks of the callback
+        final String queryString = httpRequest.getQueryString();
+        return queryString != null && queryString.contains(Pac4jConstants.LOGOUT_ENDPOINT_PARAMETER + "=");
+    }
+
+    private static void writeAction(HttpServletResponse httpResponse, RedirectionAction action) throws IOException {
+        if (action instanceof OkAction) {
+            httpResponse.getWriter().append(((OkAction) action).getContent());
+        } else if (action instanceof SeeOtherAction) {
+            httpResponse.sendRedirect(((SeeOtherAction) action).getLocation());
+        } else if (action instanceof FoundAction) {
+            httpResponse.sendRedirect(((FoundAction) action).getLocation());
+        }
+        httpResponse.getWriter().flush();
     }
 
     private void handleMetadata(HttpServletRequest httpRequest, HttpServletResponse httpResponse) throws IOException {
         LOGGER.debug("SAML2Filter.handleMetadata() matches URL {}", httpRequest.getRequestURI());
-        final String siteKey = util.findSiteKeyForRequest(httpRequest);
-        if (siteKey != null) {
-            boolean generated = ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
-                try {
-                    SAML2MetadataResolver metadataResolver = util.getSAML2Client(httpRequest, siteKey).getServiceProviderMetadataResolver();
-                    httpResponse.getWriter().append(metadataResolver.getMetadata());
-                    return true;
-                } catch (SAMLConfigException e) {
-                    LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
-                } catch (Exception e) {
-                    LOGGER.error("Error when getting metadata", e);
+        final RequestTimer timer = util.getMetrics().start(Handler.METADATA);
+        try {
+            final String siteKey = util.findSiteKeyForRequest(httpRequest);
+            timer.site(siteKey).phase(Phase.SITE_RESOLUTION);
+            if (siteKey != null) {
+                SPMetadata spMetadata = ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
+                    try {
+                        return util.getServiceProviderMetadata(httpRequest, siteKey);
+                    } catch (SAMLConfigException e) {
+                        LOGGER.warn("Error in SAML configuration for siteKey '" + siteKey + "': " + e.getMessage());
+                        timer.failure(e);
+                    } catch (Exception e) {
+                        LOGGER.error("Error when getting metadata", e);
+                        timer.failure(e);
+                    }
+                    return null;
+                });
+                timer.phase(Phase.CLIENT_LOOKUP);
+                if (spMetadata != null) {
+                    writeMetadata(httpRequest, httpResponse, spMetadata);
+                    LOGGER.debug("SAML2 metadata successfully generated");
+                    timer.outcome(Outcome.SUCCESS);
+                    return;
+                }
+            } else {
+                LOGGER.warn("No site found (param or servername based), cannot proceed with SAML metadata generation");
+                timer.outcome(Outcome.CONFIG_ERROR);
+            }
+            httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Error while trying to generate SAML metadata");
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Answer 429 when the source address of the request is over its rate.
+     */
+    private boolean admitSource(HttpServletRequest httpRequest, HttpServletResponse httpResponse, RequestTimer timer) throws IOException {
+        final AdmissionController admission = util.getAdmissionController();
+        if (admission == null) {
+            return true;
+        }
+        final String source = admission.getSource(httpRequest);
+        if (admission.admitSource(source)) {
+            return true;
+        }
+        LOGGER.debug("Too many SAML requests from {}", source);
+        throttle(httpResponse, timer);
+        return false;
+    }
+
+    /**
+     * Answer 429 when the site of the request is over its rate.
+     */
+    private boolean admitSite(String siteKey, HttpServletResponse httpResponse, RequestTimer timer) throws IOException {
+        final AdmissionController admission = util.getAdmissionController();
+        if (admission == null || admission.admitSite(siteKey)) {
+            return true;
+        }
+        LOGGER.debug("Too many SAML requests for site {}", siteKey);
+        throttle(httpResponse, timer);
+        return false;
+    }
+
+    private static void throttle(HttpServletResponse httpResponse, RequestTimer timer) throws IOException {
+        timer.outcome(Outcome.THROTTLED);
+        httpResponse.setHeader("Retry-After", "1");
+        httpResponse.sendError(SC_TOO_MANY_REQUESTS, "Too many SAML requests");
+    }
+
+    /**
+     * Whether an Accept-Encoding header allows gzip: its quality value, or the one of the "*" wildcard when gzip is
+     * not listed, is above 0.
+     */
+    static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        double gzip = -1;
+        double wildcard = -1;
+        for (String token : StringUtils.split(acceptEncoding, ',')) {
+            final String[] parts = StringUtils.split(token, ';');
+            if (parts.length == 0) {
+                continue;
+            }
+            final String coding = parts[0].trim();
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                final String parameter = parts[i].trim();
+                if (parameter.length() > 1 && Character.toLowerCase(parameter.charAt(0)) == 'q' && parameter.substring(1).trim().startsWith("=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(parameter.indexOf('=') + 1).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
                 }
-                return false;
-            });
-            if (generated) {
-                LOGGER.debug("SAML2 metadata successfully generated");
-                return;
             }
+            if ("gzip".equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)) {
+                gzip = Math.max(gzip, quality);
+            } else if ("*".equals(coding)) {
+                wildcard = quality;
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : wildcard > 0;
+    }
+
+    /**
+     * Write the metadata, answering conditional requests with a 304 and using gzip when the client accepts it.
+     */
+    private void writeMetadata(HttpServletRequest httpRequest, HttpServletResponse httpResponse, SPMetadata spMetadata) throws IOException {
+        final String acceptEncoding = httpRequest.getHeader("Accept-Encoding");
+        final boolean gzip = acceptsGzip(acceptEncoding);
+        httpResponse.setHeader("ETag", spMetadata.getETag(gzip));
+        httpResponse.setDateHeader("Last-Modified", spMetadata.getLastModified());
+        httpResponse.setHeader("Cache-Control", "no-cache");
+        httpResponse.setHeader("Vary", "Accept-Encoding");
+
+        final String ifNoneMatch = httpRequest.getHeader("If-None-Match");
+        final boolean notModified;
+        if (ifNoneMatch != null) {
+            notModified = spMetadata.matches(ifNoneMatch);
         } else {
-            LOGGER.warn("No site found (param or servername based), cannot proceed with SAML metadata generation");
+            long ifModifiedSince;
+            try {
+                ifModifiedSince = httpRequest.getDateHeader("If-Modified-Since");
+            } catch (IllegalArgumentException e) {
+                ifModifiedSince = -1;
+            }
+            notModified = ifModifiedSince >= spMetadata.getLastModified();
+        }
+        if (notModified) {
+            httpResponse.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        final byte[] content = gzip ? spMetadata.getGzipContent() : spMetadata.getContent();
+        httpResponse.setContentType("application/xml;charset=UTF-8");
+        if (gzip) {
+            httpResponse.setHeader("Content-Encoding", "gzip");
+        }
+        httpResponse.setContentLength(content.length);
+        if (!"HEAD".equals(httpRequest.getMethod())) {
+            httpResponse.getOutputStream().write(content);
         }
-        httpResponse.sendError(HttpServletResponse.SC_BAD_REQUEST, "Error while trying to generate SAML metadata");
     }
 
     @Override
@@ -214,22 +707,241 @@ public class SAML2Filter extends AbstractServletFilter {
     }
 
     /**
-     * properties for new user.
+     * Execute the mappers of the login plan, concurrently when enabled in the module settings.
+     *
+     * @return the results of the mappers by mapper name
      */
-    private Map<String, Object> getMapperResult(BasicUserProfile saml2Profile) {
-        Map<String, Object> properties = new HashMap<>();
-        for (Map.Entry<String, Object> entry : saml2Profile.getAttributes().entrySet()) {
-            if (entry.getValue() instanceof List) {
-                final List<?> l = (List<?>) entry.getValue();
-                if (l.size() == 1) {
-                    properties.put(entry.getKey(), l.get(0));
-                } else {
-                    properties.put(entry.getKey(), entry.getValue());
+    private Map<String, Map<String, MappedProperty>> executeMappers(LoginPlan loginPlan, String sessionId, Map<String, Object> properties,
+                                                                    Map<String, Object> unchangedUserProperties) throws JahiaAuthException {
+        final List<MapperConfig> mappers = loginPlan.getMappers();
+        final Map<String, Map<String, MappedProperty>> mapperResults = new LinkedHashMap<>();
+        if (mapperExecutor == null || mappers.size() < 2) {
+            for (MapperConfig mapper : mappers) {
+                mapperResults.put(mapper.getMapperName(), jahiaAuthMapperService.executeMapper(sessionId, mapper,
+                        getMapperProperties(mapper, properties, unchangedUserProperties)));
+            }
+            return mapperResults;
+        }
+        final Map<String, Object> sharedProperties = Collections.unmodifiableMap(properties);
+        final List<Future<Map<String, MappedProperty>>> results = new ArrayList<>(mappers.size());
+        for (MapperConfig mapper : mappers) {
+            final Map<String, Object> mapperProperties = getMapperProperties(mapper, sharedProperties, unchangedUserProperties);
+            results.add(mapperExecutor.submit(() -> jahiaAuthMapperService.executeMapper(sessionId, mapper, mapperProperties)));
+        }
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                mapperResults.put(mappers.get(i).getMapperName(), results.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new JahiaAuthException("Interrupted while executing mappers");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof JahiaAuthException) {
+                    throw (JahiaAuthException) e.getCause();
                 }
-            } else {
-                properties.put(entry.getKey(), entry.getValue());
+                throw new JahiaAuthException("Error while executing mapper: " + e.getCause().getMessage());
+            }
+        }
+        return mapperResults;
+    }
+
+    /**
+     * Properties passed to a mapper: only the user identifier for user mappers when the attributes did not change since
+     * the last login of an existing user, all the mapped properties otherwise.
+     */
+    private Map<String, Object> getMapperProperties(MapperConfig mapper, Map<String, Object> properties, Map<String, Object> unchangedUserProperties) {
+        return unchangedUserProperties != null && util.getLoginFingerprints().isUserMapper(mapper) ? unchangedUserProperties : properties;
+    }
+
+    /**
+     * @return the Jahia login the mappers resolved the user to, null if none did
+     */
+    private static String getLogin(Map<String, Map<String, MappedProperty>> mapperResults) {
+        for (Map<String, MappedProperty> result : mapperResults.values()) {
+            final MappedProperty login = result.get(JahiaAuthMapperService.SSO_LOGIN);
+            if (login != null && login.getValue() != null) {
+                return login.getValue().toString();
             }
         }
-        return properties;
+        return null;
+    }
+
+
+    /**
+     * A login whose SAML response is valid, waiting for its mappers.
+     */
+    private static final class ValidatedLogin {
+        private final SAML2Credentials credentials;
+        private final BasicUserProfile profile;
+
+        private ValidatedLogin(SAML2Credentials credentials, BasicUserProfile profile) {
+            this.credentials = credentials;
+            this.profile = profile;
+        }
+    }
+
+    /**
+     * State of an asynchronous callback. The first of the tasks, the container timeout or a rejected task to finish
+     * the callback sends the response and completes the context, while holding the monitor of the callback; later
+     * ones are ignored. The timer is only used by the thread owning the callback, the container thread until the first
+     * task is queued and then the task running, which ends the callback once it is finished.
+     */
+    private final class AsyncCallback implements AsyncListener, DetachedRequest.Completion {
+        private final AsyncContext asyncContext;
+        private final HttpServletResponse httpResponse;
+        private final DetachedRequest request;
+        private final HttpServletResponse response;
+        private final RequestTimer timer;
+        private final boolean permitted;
+        private final AtomicBoolean ended = new AtomicBoolean();
+        private boolean completed;
+        private volatile Outcome completionOutcome;
+
+        private AsyncCallback(AsyncContext asyncContext, HttpServletRequest httpRequest, HttpServletResponse httpResponse, RequestTimer timer,
+                              boolean permitted) {
+            this.asyncContext = asyncContext;
+            this.httpResponse = httpResponse;
+            this.request = new DetachedRequest(httpRequest, this);
+            this.response = DetachedRequest.guard(httpResponse, this);
+            this.timer = timer;
+            this.permitted = permitted;
+        }
+
+        @Override
+        public synchronized boolean isCompleted() {
+            return completed;
+        }
+
+        private void submit(ExecutorService executor, Runnable task) {
+            try {
+                executor.execute(() -> {
+                    if (!isCompleted()) {
+                        try {
+                            task.run();
+                            return;
+                        } catch (RuntimeException e) {
+                            LOGGER.warn("Unable to handle SAML callback : {}", e.getMessage());
+                            timer.failure(e);
+                            fail();
+                        }
+                    }
+                    end();
+                });
+            } catch (RejectedExecutionException e) {
+                LOGGER.debug("SAML callback queue full, rejecting callback");
+                timer.outcome(Outcome.THROTTLED);
+                finish(null, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many SAML callbacks in progress");
+                end();
+            }
+        }
+
+        /**
+         * Send the redirection of a logged in user, from the task owning the callback.
+         */
+        private void redirect(String redirection) {
+            synchronized (this) {
+                if (!completed) {
+                    LOGGER.debug("SAML Callback performed, redirecting to locale page {}", redirection);
+                    try {
+                        httpResponse.sendRedirect(redirection);
+                        timer.phase(Phase.REDIRECT);
+                        timer.outcome(Outcome.SUCCESS);
+                    } catch (IOException | IllegalStateException e) {
+                        LOGGER.warn("Cannot send SAML callback response : {}", e.getMessage());
+                        timer.failure(e);
+                    }
+                    complete();
+                }
+            }
+            end();
+        }
+
+        /**
+         * Answer a 400, from the task owning the callback.
+         */
+        private void fail() {
+            synchronized (this) {
+                if (!completed) {
+                    sendError(HttpServletResponse.SC_BAD_REQUEST, "Error while trying to proceed with SAML authentication");
+                    complete();
+                }
+            }
+            end();
+        }
+
+        /**
+         * Answer a retryable error, from any thread. The outcome is recorded by the owner of the callback.
+         */
+        private synchronized void finish(Outcome outcome, int status, String message) {
+            if (!completed) {
+                completionOutcome = outcome;
+                httpResponse.setHeader("Retry-After", "1");
+                sendError(status, message);
+                complete();
+            }
+        }
+
+        private void sendError(int status, String message) {
+            try {
+                httpResponse.sendError(status, message);
+            } catch (IOException | IllegalStateException e) {
+                LOGGER.debug("Cannot send SAML callback error", e);
+            }
+        }
+
+        private void complete() {
+            completed = true;
+            try {
+                asyncContext.complete();
+            } catch (IllegalStateException e) {
+                LOGGER.debug("SAML callback already completed by the container", e);
+            }
+        }
+
+        /**
+         * Release the callback slot and record the request, once.
+         */
+        private void end() {
+            if (ended.compareAndSet(false, true)) {
+                pendingCallbacks.remove(this);
+                if (completionOutcome != null) {
+                    timer.outcome(completionOutcome);
+                }
+                endCallback(request, timer, permitted);
+            }
+        }
+
+        /**
+         * Answer the callback of a filter being deactivated, whose tasks are dropped.
+         */
+        private void abort() {
+            finish(Outcome.ERROR, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "SAML authentication unavailable");
+            end();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            LOGGER.warn("SAML callback not processed in {} ms", asyncTimeout);
+            finish(Outcome.TIMEOUT, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "SAML authentication timed out");
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            synchronized (this) {
+                if (!completed) {
+                    completionOutcome = Outcome.of(event.getThrowable());
+                    complete();
+                }
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            // the response is sent by the task finishing the callback
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // not restarted
+        }
     }
 }
@@ -0,0 +1,523 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.jahiaauth.service.JahiaAuthException;
+import org.jahia.modules.saml2.SAMLConfigException;
+import org.pac4j.saml.exceptions.SAMLException;
+import org.pac4j.saml.exceptions.SAMLSignatureRequiredException;
+import org.pac4j.saml.exceptions.SAMLSignatureValidationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counts and latencies of the SAML filter, per site and for all sites, exposed as MXBeans named
+ * {@code org.jahia.modules.saml2:type=Metrics} and {@code org.jahia.modules.saml2:type=Metrics,site="siteKey"}.
+ * Recording a request allocates a single {@link RequestTimer} and takes no lock. Requests are also recorded in the
+ * {@link LoginJournal} when one is given, even with metrics disabled.
+ */
+public final class SAML2Metrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SAML2Metrics.class);
+    static final String DOMAIN = "org.jahia.modules.saml2";
+    static final String OTHER_SITES = "_other";
+
+    public enum Handler {
+        CONNECT, CALLBACK, METADATA, LOGOUT
+    }
+
+    public enum Phase {
+        SITE_RESOLUTION, CLIENT_LOOKUP, RESPONSE_VALIDATION, MAPPERS, REDIRECT
+    }
+
+    public enum Outcome {
+        SUCCESS, CONFIG_ERROR, SIGNATURE_FAILURE, VALIDATION_FAILURE, MAPPER_FAILURE, REJECTED, THROTTLED, TIMEOUT, ERROR;
+
+        /**
+         * Classify a failure by its type or the type of one of its causes.
+         */
+        public static Outcome of(Throwable failure) {
+            Outcome outcome = ERROR;
+            for (Throwable t = failure; t != null; t = t.getCause() != t ? t.getCause() : null) {
+                if (t instanceof MessageLimitExceededException) {
+                    return REJECTED;
+                } else if (t instanceof SAMLSignatureValidationException || t instanceof SAMLSignatureRequiredException) {
+                    return SIGNATURE_FAILURE;
+                } else if (t instanceof SAMLConfigException) {
+                    return CONFIG_ERROR;
+                } else if (t instanceof JahiaAuthException) {
+                    return MAPPER_FAILURE;
+                } else if (t instanceof SAMLException && outcome == ERROR) {
+                    outcome = VALIDATION_FAILURE;
+                }
+            }
+            return outcome;
+        }
+    }
+
+    private static final Handler[] HANDLERS = Handler.values();
+    private static final Phase[] PHASES = Phase.values();
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final boolean enabled;
+    private final int maxSites;
+    private final LoginJournal journal;
+    private final Metrics global = new Metrics(null);
+    private final ConcurrentMap<String, Metrics> sites = new ConcurrentHashMap<>();
+    private volatile MBeanServer mBeanServer;
+
+    public SAML2Metrics(boolean enabled, int maxSites, LoginJournal journal) {
+        this.enabled = enabled;
+        this.maxSites = maxSites;
+        this.journal = journal;
+    }
+
+    /**
+     * Register the MXBeans of all sites and of the sites recorded from now on.
+     */
+    public void register() {
+        if (!enabled) {
+            return;
+        }
+        mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        register(global);
+        sites.values().forEach(this::register);
+    }
+
+    public void unregister() {
+        final MBeanServer server = mBeanServer;
+        mBeanServer = null;
+        if (server == null) {
+            return;
+        }
+        unregister(server, global);
+        sites.values().forEach(metrics -> unregister(server, metrics));
+    }
+
+    /**
+     * Start timing a request, to be completed with {@link RequestTimer#stop()}.
+     */
+    public RequestTimer start(Handler handler) {
+        return enabled || journal != null ? new RequestTimer(this, handler) : RequestTimer.DISABLED;
+    }
+
+    public void clientLookup(String siteKey) {
+        if (enabled) {
+            global.clientLookups.increment();
+            site(siteKey).clientLookups.increment();
+        }
+    }
+
+    /**
+     * Called when a lookup has to build the client.
+     */
+    public void clientMiss(String siteKey) {
+        if (enabled) {
+            global.clientMisses.increment();
+            site(siteKey).clientMisses.increment();
+        }
+    }
+
+    public void clientBuilt(String siteKey, long nanos) {
+        if (enabled) {
+            global.clientBuilds.increment();
+            global.clientBuildLatency.record(nanos);
+            final Metrics metrics = site(siteKey);
+            metrics.clientBuilds.increment();
+            metrics.clientBuildLatency.record(nanos);
+        }
+    }
+
+    public void clientReset(String siteKey) {
+        if (enabled) {
+            global.clientResets.increment();
+            site(siteKey).clientResets.increment();
+        }
+    }
+
+    /**
+     * @return the journal of the last requests, null when disabled
+     */
+    public LoginJournal getJournal() {
+        return journal;
+    }
+
+    public SAML2MetricsMXBean getGlobal() {
+        return global;
+    }
+
+    /**
+     * Metrics of a site, null when nothing was recorded for it.
+     */
+    public SAML2MetricsMXBean getSite(String siteKey) {
+        return sites.get(siteKey);
+    }
+
+    /**
+     * Metrics of a site, created on its first client lookup: site keys of requests are only trusted once a SAML
+     * configuration was found for them.
+     */
+    private Metrics site(String siteKey) {
+        final String key = siteKey != null ? siteKey : OTHER_SITES;
+        final Metrics metrics = sites.get(key);
+        if (metrics != null) {
+            return metrics;
+        }
+        // site keys may come from request parameters, keep their number bounded
+        return sites.computeIfAbsent(sites.size() < maxSites ? key : OTHER_SITES, k -> {
+            final Metrics created = new Metrics(k);
+            register(created);
+            return created;
+        });
+    }
+
+    private void register(Metrics metrics) {
+        final MBeanServer server = mBeanServer;
+        if (server == null) {
+            return;
+        }
+        try {
+            final ObjectName name = metrics.objectName();
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException e) {
+            LOGGER.warn("Cannot register SAML2 metrics of {}: {}", metrics.siteKey != null ? metrics.siteKey : "all sites", e.getMessage());
+        }
+    }
+
+    private static void unregister(MBeanServer server, Metrics metrics) {
+        try {
+            final ObjectName name = metrics.objectName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            LOGGER.debug("Cannot unregister SAML2 metrics", e);
+        }
+    }
+
+    static String camelCase(Enum<?> value) {
+        final StringBuilder name = new StringBuilder();
+        boolean upper = false;
+        for (char c : value.name().toLowerCase(Locale.ENGLISH).toCharArray()) {
+            if (c == '_') {
+                upper = true;
+            } else {
+                name.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        return name.toString();
+    }
+
+    /**
+     * Timing of a single request: each call to {@link #phase} records the time elapsed since the previous one.
+     * Not thread safe, a timer belongs to the request thread.
+     */
+    public static final class RequestTimer {
+        static final RequestTimer DISABLED = new RequestTimer(null, null);
+
+        private final SAML2Metrics owner;
+        private final Handler handler;
+        private final long start;
+        private final long[] phaseNanos;
+        private long phaseStart;
+        private String siteKey;
+        private Metrics site;
+        private Outcome outcome = Outcome.ERROR;
+        private Throwable failure;
+        private String binding;
+        private long messageBytes = -1;
+        private long subjectHash;
+
+        private RequestTimer(SAML2Metrics owner, Handler handler) {
+            this.owner = owner;
+            this.handler = handler;
+            this.start = owner != null ? System.nanoTime() : 0;
+            this.phaseStart = start;
+            if (owner != null && owner.journal != null) {
+                phaseNanos = new long[PHASES.length];
+                Arrays.fill(phaseNanos, -1);
+            } else {
+                phaseNanos = null;
+            }
+        }
+
+        public RequestTimer site(String siteKey) {
+            this.siteKey = siteKey;
+            return this;
+        }
+
+        public void phase(Phase phase) {
+            if (owner != null) {
+                final long now = System.nanoTime();
+                if (phaseNanos != null) {
+                    phaseNanos[phase.ordinal()] = now - phaseStart;
+                }
+                if (owner.enabled) {
+                    owner.global.phaseLatencies[phase.ordinal()].record(now - phaseStart);
+                    final Metrics site = site();
+                    if (site != null) {
+                        site.phaseLatencies[phase.ordinal()].record(now - phaseStart);
+                    }
+                }
+                phaseStart = now;
+            }
+        }
+
+        public void outcome(Outcome outcome) {
+            this.outcome = outcome;
+        }
+
+        public void failure(Throwable failure) {
+            this.outcome = Outcome.of(failure);
+            this.failure = failure;
+        }
+
+        /**
+         * Record the SAML binding of the message sent or expected, for the journal.
+         */
+        public void binding(String binding) {
+            this.binding = binding;
+        }
+
+        /**
+         * Record the NameID of a validated assertion, only kept as a salted hash in the journal.
+         */
+        public void subject(String nameId) {
+            if (phaseNanos != null) {
+                subjectHash = owner.journal.hashSubject(nameId);
+            }
+        }
+
+        /**
+         * Record the decoded size of the SAML message of the request.
+         */
+        public void decoded(long bytes) {
+            messageBytes = bytes;
+            if (owner != null && owner.enabled) {
+                owner.global.recordDecoded(bytes);
+                final Metrics site = site();
+                if (site != null) {
+                    site.recordDecoded(bytes);
+                }
+            }
+        }
+
+        /**
+         * Record the rendering of a POST binding form of the given size.
+         */
+        public void rendered(long bytes, long nanos) {
+            messageBytes = bytes;
+            if (owner != null && owner.enabled) {
+                owner.global.recordRendered(bytes, nanos);
+                final Metrics site = site();
+                if (site != null) {
+                    site.recordRendered(bytes, nanos);
+                }
+            }
+        }
+
+        /**
+         * Record a login skipping the user property writes of the user mappers.
+         */
+        public void userUpdateSkipped() {
+            if (owner != null && owner.enabled) {
+                owner.global.skippedUserUpdates.increment();
+                final Metrics site = site();
+                if (site != null) {
+                    site.skippedUserUpdates.increment();
+                }
+            }
+        }
+
+        public void stop() {
+            if (owner != null) {
+                final long elapsed = System.nanoTime() - start;
+                if (owner.enabled) {
+                    owner.global.record(handler, outcome, elapsed);
+                    final Metrics site = site();
+                    if (site != null) {
+                        site.record(handler, outcome, elapsed);
+                    }
+                }
+                if (phaseNanos != null) {
+                    owner.journal.record(handler, siteKey, elapsed, phaseNanos, binding, messageBytes, outcome, failure, subjectHash);
+                }
+            }
+        }
+
+        private Metrics site() {
+            if (site == null && siteKey != null) {
+                site = owner.sites.get(siteKey);
+            }
+            return site;
+        }
+    }
+
+    private static final class Metrics implements SAML2MetricsMXBean {
+        private final String siteKey;
+        private final AtomicLongArray requests = new AtomicLongArray(HANDLERS.length * OUTCOMES.length);
+        private final LatencyHistogram[] handlerLatencies = histograms(HANDLERS.length);
+        private final LatencyHistogram[] phaseLatencies = histograms(PHASES.length);
+        private final LatencyHistogram clientBuildLatency = new LatencyHistogram();
+        private final LatencyHistogram renderLatency = new LatencyHistogram();
+        private final LongAdder clientLookups = new LongAdder();
+        private final LongAdder clientMisses = new LongAdder();
+        private final LongAdder clientBuilds = new LongAdder();
+        private final LongAdder clientResets = new LongAdder();
+        private final LongAdder decodedMessages = new LongAdder();
+        private final LongAdder decodedBytes = new LongAdder();
+        private final LongAccumulator maxDecodedBytes = new LongAccumulator(Math::max, 0);
+        private final LongAdder renderedForms = new LongAdder();
+        private final LongAdder renderedBytes = new LongAdder();
+        private final LongAdder skippedUserUpdates = new LongAdder();
+
+        private Metrics(String siteKey) {
+            this.siteKey = siteKey;
+        }
+
+        private static LatencyHistogram[] histograms(int size) {
+            final LatencyHistogram[] histograms = new LatencyHistogram[size];
+            for (int i = 0; i < size; i++) {
+                histograms[i] = new LatencyHistogram();
+            }
+            return histograms;
+        }
+
+        private ObjectName objectName() throws JMException {
+            return new ObjectName(DOMAIN + ":type=Metrics" + (siteKey != null ? ",site=" + ObjectName.quote(siteKey) : ""));
+        }
+
+        private void record(Handler handler, Outcome outcome, long nanos) {
+            requests.incrementAndGet(handler.ordinal() * OUTCOMES.length + outcome.ordinal());
+            handlerLatencies[handler.ordinal()].record(nanos);
+        }
+
+        private void recordDecoded(long bytes) {
+            decodedMessages.increment();
+            decodedBytes.add(bytes);
+            maxDecodedBytes.accumulate(bytes);
+        }
+
+        private void recordRendered(long bytes, long nanos) {
+            renderedForms.increment();
+            renderedBytes.add(bytes);
+            renderLatency.record(nanos);
+        }
+
+        @Override public Map<String, Long> getRequests() {
+            final Map<String, Long> counts = new LinkedHashMap<>();
+            for (Handler handler : HANDLERS) {
+                for (Outcome outcome : OUTCOMES) {
+                    counts.put(camelCase(handler) + "." + camelCase(outcome), requests.get(handler.ordinal() * OUTCOMES.length + outcome.ordinal()));
+                }
+            }
+            return counts;
+        }
+
+        @Override public Map<String, LatencyStats> getLatencies() {
+            final Map<String, LatencyStats> latencies = new LinkedHashMap<>();
+            for (Handler handler : HANDLERS) {
+                latencies.put(camelCase(handler), handlerLatencies[handler.ordinal()].snapshot());
+            }
+            for (Phase phase : PHASES) {
+                latencies.put("phase." + camelCase(phase), phaseLatencies[phase.ordinal()].snapshot());
+            }
+            latencies.put("clientBuild", clientBuildLatency.snapshot());
+            latencies.put("render", renderLatency.snapshot());
+            return latencies;
+        }
+
+        @Override public long getClientHits() {
+            return Math.max(0, clientLookups.sum() - clientMisses.sum());
+        }
+
+        @Override public long getClientMisses() {
+            return clientMisses.sum();
+        }
+
+        @Override public long getClientBuilds() {
+            return clientBuilds.sum();
+        }
+
+        @Override public long getClientResets() {
+            return clientResets.sum();
+        }
+
+        @Override public long getDecodedMessages() {
+            return decodedMessages.sum();
+        }
+
+        @Override public long getDecodedBytes() {
+            return decodedBytes.sum();
+        }
+
+        @Override public long getMaxDecodedBytes() {
+            return maxDecodedBytes.get();
+        }
+
+        @Override public long getRenderedForms() {
+            return renderedForms.sum();
+        }
+
+        @Override public long getRenderedBytes() {
+            return renderedBytes.sum();
+        }
+
+        @Override public long getSkippedUserUpdates() {
+            return skippedUserUpdates.sum();
+        }
+
+        @Override public void reset() {
+            for (int i = 0; i < requests.length(); i++) {
+                requests.set(i, 0);
+            }
+            for (LatencyHistogram histogram : handlerLatencies) {
+                histogram.reset();
+            }
+            for (LatencyHistogram histogram : phaseLatencies) {
+                histogram.reset();
+            }
+            clientBuildLatency.reset();
+            renderLatency.reset();
+            clientLookups.reset();
+            clientMisses.reset();
+            clientBuilds.reset();
+            clientResets.reset();
+            decodedMessages.reset();
+            decodedBytes.reset();
+            maxDecodedBytes.reset();
+            renderedForms.reset();
+            skippedUserUpdates.reset();
+            renderedBytes.reset();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import java.util.Map;
+
+/**
+ * SAML filter metrics of a site, or of all sites for the MXBean without site key.
+ */
+public interface SAML2MetricsMXBean {
+
+    /**
+     * Number of requests by handler and outcome, for instance {@code callback.signatureFailure}.
+     */
+    Map<String, Long> getRequests();
+
+    /**
+     * Latencies by handler ({@code connect}, {@code callback}, {@code metadata}), by phase ({@code phase.mappers}...)
+     * of client builds ({@code clientBuild}) and of POST binding form rendering ({@code render}).
+     */
+    Map<String, LatencyStats> getLatencies();
+
+    long getClientHits();
+
+    long getClientMisses();
+
+    long getClientBuilds();
+
+    long getClientResets();
+
+    /**
+     * Number of SAML responses decoded by the callback, rejected ones included.
+     */
+    long getDecodedMessages();
+
+    /**
+     * Total decoded size in bytes of the SAML responses, up to the limit for rejected ones.
+     */
+    long getDecodedBytes();
+
+    long getMaxDecodedBytes();
+
+    /**
+     * Number of HTTP-POST binding forms rendered by the connect handler.
+     */
+    long getRenderedForms();
+
+    /**
+     * Total size in bytes of the rendered HTTP-POST binding forms.
+     */
+    long getRenderedBytes();
+
+    /**
+     * Logins of returning users with unchanged attributes, for which the user mappers only received the user identifier.
+     */
+    long getSkippedUserUpdates();
+
+    void reset();
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import net.shibboleth.utilities.java.support.component.ComponentInitializationException;
+import org.opensaml.storage.ReplayCache;
+import org.pac4j.saml.exceptions.SAMLException;
+import org.pac4j.saml.replay.ReplayCacheProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replay cache of a client, backed by the node wide {@link BoundedReplayCache}. Message IDs are kept at least for
+ * the maximum authentication lifetime of the site.
+ */
+public final class SAML2ReplayCacheProvider implements ReplayCacheProvider {
+    private final ReplayCache cache;
+
+    public SAML2ReplayCacheProvider(BoundedReplayCache replayCache, int maximumAuthenticationLifetime) {
+        final BoundedReplayCacheAdapter adapter = new BoundedReplayCacheAdapter(replayCache, TimeUnit.SECONDS.toMillis(maximumAuthenticationLifetime));
+        adapter.setId("saml2-replay-cache");
+        try {
+            adapter.initialize();
+        } catch (ComponentInitializationException e) {
+            throw new SAMLException(e);
+        }
+        this.cache = adapter;
+    }
+
+    @Override
+    public ReplayCache get() {
+        return cache;
+    }
+
+    private static final class BoundedReplayCacheAdapter extends ReplayCache {
+        private final BoundedReplayCache replayCache;
+        private final long lifetime;
+
+        private BoundedReplayCacheAdapter(BoundedReplayCache replayCache, long lifetime) {
+            this.replayCache = replayCache;
+            this.lifetime = lifetime;
+        }
+
+        @Override
+        public void doInitialize() {
+            // entries are held by the bounded replay cache, no storage service needed
+        }
+
+        @Override
+        public boolean check(String context, String s, long expires) {
+            return replayCache.check(context + '!' + s, Math.max(expires, System.currentTimeMillis() + lifetime));
+        }
+    }
+}
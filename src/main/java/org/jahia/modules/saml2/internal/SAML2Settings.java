@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Module wide settings, read from the <code>org.jahia.modules.saml2</code> configuration. Per site settings are
+ * handled by the jahia-authentication connector configuration.
+ */
+public final class SAML2Settings {
+    public static final String PID = "org.jahia.modules.saml2";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SAML2Settings.class);
+    private static final int MIN_REPLAY_CACHE_ENTRIES = 16;
+
+    private final Map<String, ?> properties;
+
+    private SAML2Settings(Map<String, ?> properties) {
+        this.properties = properties != null ? properties : Collections.emptyMap();
+    }
+
+    public static SAML2Settings from(Map<String, ?> properties) {
+        return new SAML2Settings(properties);
+    }
+
+    /**
+     * Build the clients of all sites with an enabled SAML connector in the background when the module starts.
+     */
+    public boolean isWarmupEnabled() {
+        return getBoolean("warmup.enabled", false);
+    }
+
+    public int getWarmupThreads() {
+        return Math.max(1, getInt("warmup.threads", 2));
+    }
+
+    /**
+     * Maximum number of message IDs kept by the replay cache of this node.
+     */
+    public int getReplayCacheMaxEntries() {
+        return Math.max(MIN_REPLAY_CACHE_ENTRIES, getInt("replayCache.maxEntries", 100000));
+    }
+
+    /**
+     * Maximum number of clients kept in memory, all sites included.
+     */
+    public int getClientPoolMaxSize() {
+        return Math.max(1, getInt("clientPool.maxSize", 500));
+    }
+
+    /**
+     * Maximum number of clients per site, one per distinct callback URL.
+     */
+    public int getClientPoolMaxPerSite() {
+        return Math.max(1, getInt("clientPool.maxPerSite", 4));
+    }
+
+    /**
+     * Time in milliseconds after which an unused client is dropped, 0 to keep clients until evicted by size.
+     */
+    public long getClientPoolMaxIdle() {
+        return TimeUnit.MINUTES.toMillis(Math.max(0, getLong("clientPool.maxIdleMinutes", 60)));
+    }
+
+    /**
+     * Number of threads rebuilding the clients whose site configuration changed.
+     */
+    public int getClientRebuildThreads() {
+        return Math.max(1, getInt("clientPool.rebuildThreads", 2));
+    }
+
+    /**
+     * Number of sites validated concurrently by a bulk validation.
+     */
+    public int getBulkValidationParallelism() {
+        return Math.max(1, getInt("bulkValidation.parallelism", 4));
+    }
+
+    /**
+     * Number of RSA key pairs generated in advance for new SP key stores.
+     */
+    public int getKeyPairPoolSize() {
+        return Math.max(1, getInt("keyPairPool.size", 2));
+    }
+
+    /**
+     * Execute the mappers of a site concurrently. Only enable this when the configured mappers do not depend on each
+     * other nor on the request thread.
+     */
+    public boolean isParallelMappers() {
+        return getBoolean("callback.parallelMappers", false);
+    }
+
+    public int getMapperThreads() {
+        return Math.max(1, getInt("callback.mapperThreads", 4));
+    }
+
+    /**
+     * Process callbacks asynchronously, releasing the container thread while the response is validated and the user
+     * is mapped.
+     */
+    public boolean isAsyncCallback() {
+        return getBoolean("callback.async.enabled", false);
+    }
+
+    public int getAsyncValidationThreads() {
+        final int threads = getInt("callback.async.validationThreads", 0);
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    public int getAsyncLoginThreads() {
+        return Math.max(1, getInt("callback.async.loginThreads", 16));
+    }
+
+    /**
+     * Callbacks waiting for each executor, beyond which callbacks are answered with a 503.
+     */
+    public int getAsyncQueueSize() {
+        return Math.max(1, getInt("callback.async.queueSize", 200));
+    }
+
+    public long getAsyncTimeout() {
+        return TimeUnit.SECONDS.toMillis(Math.max(1, getLong("callback.async.timeoutSeconds", 30)));
+    }
+
+    public boolean isAsyncVirtualThreads() {
+        return getBoolean("callback.async.virtualThreads", false);
+    }
+
+    /**
+     * Only give the user identifier to the user mappers when a user logs in again with the same attributes, so that
+     * the user properties are not written again.
+     */
+    public boolean isFingerprintEnabled() {
+        return getBoolean("callback.fingerprint.enabled", false);
+    }
+
+    /**
+     * Names of the mappers writing the user properties, skipped by fingerprinting.
+     */
+    public Set<String> getFingerprintUserMappers() {
+        final Object value = properties.get("callback.fingerprint.userMappers");
+        final String names = value != null ? value.toString() : "jcrOAuthProvider";
+        return new HashSet<>(Arrays.asList(StringUtils.split(names, ", ")));
+    }
+
+    public int getFingerprintMaxEntries() {
+        return Math.max(1, getInt("callback.fingerprint.maxEntries", 100000));
+    }
+
+    /**
+     * Maximum size in bytes of a decoded SAML response, larger responses are rejected before being parsed entirely.
+     */
+    public int getMaxMessageSize() {
+        return Math.max(4096, getInt("callback.maxMessageSize", 1048576));
+    }
+
+    /**
+     * Maximum number of XML elements of a SAML response.
+     */
+    public int getMaxMessageElements() {
+        return Math.max(100, getInt("callback.maxMessageElements", 20000));
+    }
+
+    /**
+     * Number of XML parsers kept for reuse, shared by all clients.
+     */
+    public int getParserPoolSize() {
+        return Math.max(1, getInt("parserPool.size", 100));
+    }
+
+    /**
+     * Rate limit connect and callback requests and cap the number of concurrent callbacks. Disabled by default, as
+     * behind a proxy all requests share the address of the proxy unless the client address is resolved.
+     */
+    public boolean isAdmissionEnabled() {
+        return getBoolean("admission.enabled", false);
+    }
+
+    /**
+     * Request header holding the client address set by a trusted reverse proxy, blank to use the remote address.
+     */
+    public String getAdmissionSourceHeader() {
+        final Object value = properties.get("admission.source.header");
+        return value != null ? value.toString().trim() : "";
+    }
+
+    public int getAdmissionBuckets() {
+        return Math.max(64, getInt("admission.buckets", 16384));
+    }
+
+    /**
+     * Connect and callback requests allowed per second from a source address, on average.
+     */
+    public double getAdmissionSourceRate() {
+        return Math.max(1, getLong("admission.source.ratePerSecond", 10));
+    }
+
+    public double getAdmissionSourceBurst() {
+        return Math.max(1, getLong("admission.source.burst", 30));
+    }
+
+    /**
+     * Connect and callback requests allowed per second for a site, on average.
+     */
+    public double getAdmissionSiteRate() {
+        return Math.max(1, getLong("admission.site.ratePerSecond", 200));
+    }
+
+    public double getAdmissionSiteBurst() {
+        return Math.max(1, getLong("admission.site.burst", 400));
+    }
+
+    /**
+     * Number of callbacks parsing and verifying SAML responses at the same time, twice the number of processors by
+     * default.
+     */
+    public int getAdmissionMaxConcurrentCallbacks() {
+        final int value = getInt("admission.maxConcurrentCallbacks", 0);
+        return value > 0 ? value : 2 * Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Time in milliseconds a callback waits for a processing slot before being rejected.
+     */
+    public long getAdmissionMaxWait() {
+        return Math.max(0, getLong("admission.maxWaitMillis", 200));
+    }
+
+    /**
+     * Record request counts and latencies, exposed over JMX under the org.jahia.modules.saml2 domain.
+     */
+    public boolean isMetricsEnabled() {
+        return getBoolean("metrics.enabled", true);
+    }
+
+    /**
+     * Maximum number of sites with their own metrics, requests of additional sites are recorded together.
+     */
+    public int getMetricsMaxSites() {
+        return Math.max(1, getInt("metrics.maxSites", 1000));
+    }
+
+    /**
+     * Minimum time in milliseconds between two fetches of a remote IdP metadata, also the delay before retrying a
+     * failed fetch.
+     */
+    public long getMetadataRefreshMinInterval() {
+        return TimeUnit.MINUTES.toMillis(Math.max(1, getLong("metadata.refresh.minIntervalMinutes", 5)));
+    }
+
+    /**
+     * Maximum time in milliseconds between two fetches of a remote IdP metadata without validUntil or cacheDuration.
+     */
+    public long getMetadataRefreshMaxInterval() {
+        return TimeUnit.MINUTES.toMillis(Math.max(1, getLong("metadata.refresh.maxIntervalMinutes", 240)));
+    }
+
+    public int getMetadataRefreshTimeout() {
+        return (int) TimeUnit.SECONDS.toMillis(Math.max(1, getInt("metadata.refresh.timeoutSeconds", 10)));
+    }
+
+    /**
+     * Keep the SAML state of logins in progress in an encrypted cookie instead of the HTTP session. Only honoured
+     * when a {@link #getSessionSecret() secret} is configured.
+     */
+    public boolean isStatelessSession() {
+        return getBoolean("session.stateless", false);
+    }
+
+    /**
+     * Secret the state cookie key is derived from, required by {@link #isStatelessSession()}.
+     */
+    public String getSessionSecret() {
+        final Object value = properties.get("session.secret");
+        return value != null ? value.toString().trim() : "";
+    }
+
+    public long getSessionStateMaxAge() {
+        return TimeUnit.MINUTES.toMillis(Math.max(1, getLong("session.stateMaxAgeMinutes", 15)));
+    }
+
+    /**
+     * Maximum number of SAML logins indexed for Single Logout, the oldest ones can no longer be ended by the IdP.
+     */
+    public int getLogoutMaxSessions() {
+        return Math.max(1, getInt("logout.maxSessions", 100000));
+    }
+
+    /**
+     * Keep the last connect, callback and logout requests in memory, queryable over JMX.
+     */
+    public boolean isJournalEnabled() {
+        return getBoolean("journal.enabled", true);
+    }
+
+    public int getJournalSize() {
+        return Math.max(16, getInt("journal.size", 1024));
+    }
+
+    boolean getBoolean(String key, boolean defaultValue) {
+        final Object value = properties.get(key);
+        return value != null ? Boolean.parseBoolean(value.toString().trim()) : defaultValue;
+    }
+
+    int getInt(String key, int defaultValue) {
+        return (int) getLong(key, defaultValue);
+    }
+
+    long getLong(String key, long defaultValue) {
+        final Object value = properties.get(key);
+        if (value == null || StringUtils.isBlank(value.toString())) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid value '{}' for {}, using default {}", value, key, defaultValue);
+            return defaultValue;
+        }
+    }
+}
@@ -1,11 +1,12 @@
 package org.jahia.modules.saml2.internal;
 
-import org.apache.commons.io.FileUtils;
+import net.shibboleth.utilities.java.support.xml.ParserPool;
 import org.apache.commons.lang.StringUtils;
 import org.jahia.api.settings.SettingsBean;
 import org.jahia.modules.jahiaauth.service.ConnectorConfig;
 import org.jahia.modules.jahiaauth.service.SettingsService;
 import org.jahia.modules.saml2.SAML2InfoProvider;
+import org.jahia.modules.saml2.SAML2ReplayStore;
 import org.jahia.modules.saml2.SAMLConfigException;
 import org.jahia.services.content.JCRCallback;
 import org.jahia.services.content.JCRSessionWrapper;
@@ -14,8 +15,14 @@ import org.jahia.services.content.decorator.JCRSiteNode;
 import org.jahia.services.sites.JahiaSitesService;
 import org.jahia.utils.ClassLoaderUtils;
 import org.opensaml.core.config.InitializationService;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
+import org.pac4j.core.context.JEEContext;
 import org.pac4j.core.exception.TechnicalException;
 import org.pac4j.core.util.generator.RandomValueGenerator;
 import org.pac4j.saml.client.SAML2Client;
@@ -23,7 +30,6 @@ import org.pac4j.saml.config.SAML2Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.ByteArrayResource;
-import org.springframework.core.io.FileSystemResource;
 
 import javax.jcr.RepositoryException;
 import javax.servlet.http.Cookie;
@@ -35,13 +41,42 @@ import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import java.util.HashMap;
-
-@Component(service = {SAML2InfoProvider.class, SAML2Util.class}, immediate = true)
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+@Component(service = {SAML2InfoProvider.class, SAML2Util.class}, immediate = true, configurationPid = SAML2Settings.PID)
 public final class SAML2Util implements SAML2InfoProvider {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(SAML2Util.class);
-    private final HashMap<String, SAML2Client> clients = new HashMap<>();
+    private static final long SITE_KEY_CACHE_TTL = TimeUnit.MINUTES.toMillis(5);
+    private static final long UNKNOWN_SERVER_NAME_CACHE_TTL = TimeUnit.SECONDS.toMillis(30);
+    private static final int MAX_CACHED_SERVER_NAMES = 1000;
+    /**
+     * Site keys resolved from server names.
+     */
+    private final ConcurrentMap<String, CachedSiteKey> siteKeysByServerName = new ConcurrentHashMap<>();
+    /**
+     * Server names resolving to no site, with a shorter lifetime and bounded separately, so that requests with random
+     * host names cannot push out the known server names.
+     */
+    private final ConcurrentMap<String, CachedSiteKey> unknownServerNames = new ConcurrentHashMap<>();
 
     @Reference
     private JahiaSitesService sitesService;
@@ -49,6 +84,181 @@ public final class SAML2Util implements SAML2InfoProvider {
     private SettingsService settingsService;
     @Reference
     private SettingsBean settingsBean;
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL, policy = ReferencePolicy.DYNAMIC, policyOption = ReferencePolicyOption.GREEDY)
+    private volatile SAML2ReplayStore replayStore;
+
+    private SAML2Settings moduleSettings = SAML2Settings.from(null);
+    private BoundedReplayCache replayCache = new BoundedReplayCache(moduleSettings.getReplayCacheMaxEntries(), () -> replayStore);
+    private SAML2ClientPool clientPool = createClientPool(moduleSettings, Runnable::run);
+    private SessionIndexRegistry sessionRegistry = new SessionIndexRegistry(moduleSettings.getLogoutMaxSessions());
+    private LoginFingerprints loginFingerprints;
+    private final SharedMaterialCache sharedMaterial = new SharedMaterialCache();
+    private final ConcurrentMap<String, LoginPlan> loginPlans = new ConcurrentHashMap<>();
+    private KeyStoreGenerator keyStoreGenerator;
+    private SAML2Metrics metrics = new SAML2Metrics(false, 1, null);
+    private IdPMetadataRefresher metadataRefresher;
+    private SAMLMessageDecoder messageDecoder;
+    private ExecutorService warmupExecutor;
+    private ExecutorService rebuildExecutor;
+    private CookieSessionStore sessionStore;
+    private SAML2Admin admin;
+    private AdmissionController admissionController;
+
+    @Activate
+    public void activate(Map<String, ?> properties) {
+        moduleSettings = SAML2Settings.from(properties);
+        final ParserPool parserPool = OpenSAMLBootstrap.bootstrap(moduleSettings.getParserPoolSize());
+        replayCache = new BoundedReplayCache(moduleSettings.getReplayCacheMaxEntries(), () -> replayStore);
+        rebuildExecutor = createRebuildExecutor(moduleSettings.getClientRebuildThreads());
+        clientPool = createClientPool(moduleSettings, rebuildExecutor);
+        sessionRegistry = new SessionIndexRegistry(moduleSettings.getLogoutMaxSessions());
+        loginFingerprints = moduleSettings.isFingerprintEnabled() ? new LoginFingerprints(moduleSettings.getFingerprintMaxEntries(),
+                moduleSettings.getFingerprintUserMappers()) : null;
+        keyStoreGenerator = new KeyStoreGenerator(moduleSettings.getKeyPairPoolSize());
+        metrics = new SAML2Metrics(moduleSettings.isMetricsEnabled(), moduleSettings.getMetricsMaxSites(),
+                moduleSettings.isJournalEnabled() ? new LoginJournal(moduleSettings.getJournalSize()) : null);
+        metrics.register();
+        messageDecoder = new SAMLMessageDecoder(moduleSettings.getMaxMessageSize(), moduleSettings.getMaxMessageElements(), parserPool);
+        metadataRefresher = new IdPMetadataRefresher(getMetadataCacheDirectory(), moduleSettings.getMetadataRefreshMinInterval(),
+                moduleSettings.getMetadataRefreshMaxInterval(), moduleSettings.getMetadataRefreshTimeout());
+        sessionStore = moduleSettings.isStatelessSession() ? createSessionStore(moduleSettings) : null;
+        admissionController = moduleSettings.isAdmissionEnabled() ? createAdmissionController(moduleSettings) : null;
+        admin = new SAML2Admin(this);
+        admin.register();
+        if (moduleSettings.isWarmupEnabled()) {
+            warmUpClients(moduleSettings.getWarmupThreads());
+        }
+    }
+
+    @Deactivate
+    public void deactivate() {
+        if (warmupExecutor != null) {
+            warmupExecutor.shutdownNow();
+            warmupExecutor = null;
+        }
+        if (rebuildExecutor != null) {
+            rebuildExecutor.shutdownNow();
+            rebuildExecutor = null;
+        }
+        if (keyStoreGenerator != null) {
+            keyStoreGenerator.shutdown();
+            keyStoreGenerator = null;
+        }
+        if (metadataRefresher != null) {
+            metadataRefresher.shutdown();
+            metadataRefresher = null;
+        }
+        if (admin != null) {
+            admin.unregister();
+            admin = null;
+        }
+        metrics.unregister();
+        clientPool.clear();
+        sessionRegistry.clear();
+        loginPlans.clear();
+        if (loginFingerprints != null) {
+            loginFingerprints.clear();
+        }
+        replayCache.clear();
+        sharedMaterial.clear();
+    }
+
+    public SAML2Settings getModuleSettings() {
+        return moduleSettings;
+    }
+
+    public BoundedReplayCache getReplayCache() {
+        return replayCache;
+    }
+
+    public SharedMaterialCache getSharedMaterial() {
+        return sharedMaterial;
+    }
+
+    public SAML2ClientPool getClientPool() {
+        return clientPool;
+    }
+
+    public SessionIndexRegistry getSessionRegistry() {
+        return sessionRegistry;
+    }
+
+    /**
+     * @return the attribute fingerprints of the last logins, null when disabled
+     */
+    public LoginFingerprints getLoginFingerprints() {
+        return loginFingerprints;
+    }
+
+    public SAML2Metrics getMetrics() {
+        return metrics;
+    }
+
+    public SAMLMessageDecoder getMessageDecoder() {
+        return messageDecoder;
+    }
+
+    public IdPMetadataRefresher getMetadataRefresher() {
+        return metadataRefresher;
+    }
+
+    /**
+     * @return the admission control of the filter, null when disabled
+     */
+    public AdmissionController getAdmissionController() {
+        return admissionController;
+    }
+
+    /**
+     * Create the pac4j context of a request, keeping the pac4j state in a cookie when stateless sessions are enabled.
+     */
+    public JEEContext createWebContext(HttpServletRequest request, HttpServletResponse response) {
+        final CookieSessionStore store = sessionStore;
+        return store != null ? new JEEContext(request, response, store) : new JEEContext(request, response);
+    }
+
+    /**
+     * Write the pac4j state changed during the request, before the response is committed.
+     */
+    public void saveWebContext(JEEContext webContext) {
+        if (webContext.getSessionStore() instanceof CookieSessionStore) {
+            ((CookieSessionStore) webContext.getSessionStore()).save(webContext);
+        }
+    }
+
+    private File getMetadataCacheDirectory() {
+        final String varDiskPath = settingsBean != null ? settingsBean.getJahiaVarDiskPath() : null;
+        return varDiskPath != null ? new File(varDiskPath, "saml2/idp-metadata") : null;
+    }
+
+    private static SAML2ClientPool createClientPool(SAML2Settings settings, Executor rebuildExecutor) {
+        return new SAML2ClientPool(settings.getClientPoolMaxSize(), settings.getClientPoolMaxPerSite(), settings.getClientPoolMaxIdle(),
+                rebuildExecutor);
+    }
+
+    private static CookieSessionStore createSessionStore(SAML2Settings settings) {
+        if (StringUtils.isBlank(settings.getSessionSecret())) {
+            LOGGER.error("session.stateless requires session.secret to be set, keeping the SAML state in the HTTP session");
+            return null;
+        }
+        return new CookieSessionStore(settings.getSessionSecret(), settings.getSessionStateMaxAge());
+    }
+
+    private static AdmissionController createAdmissionController(SAML2Settings settings) {
+        return new AdmissionController(settings.getAdmissionSourceHeader(),
+                new AdmissionController.TokenBuckets(settings.getAdmissionBuckets(), settings.getAdmissionSourceRate(), settings.getAdmissionSourceBurst()),
+                new AdmissionController.TokenBuckets(settings.getAdmissionBuckets(), settings.getAdmissionSiteRate(), settings.getAdmissionSiteBurst()),
+                settings.getAdmissionMaxConcurrentCallbacks(), settings.getAdmissionMaxWait());
+    }
+
+    private static ExecutorService createRebuildExecutor(int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "saml2-client-rebuild-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
 
     @Override public String getRedirectionUrl(HttpServletRequest request) {
         return getRedirectionUrl(request, findSiteKeyForRequest(request));
@@ -70,29 +280,70 @@ public final class SAML2Util implements SAML2InfoProvider {
         String siteKey = request.getParameter(SAML2Constants.SITEKEY);
         if (siteKey == null) {
             LOGGER.debug("No site key provided, trying to guess using server name");
-            try {
-                siteKey = JCRTemplate.getInstance().doExecuteWithSystemSession(new JCRCallback<String>() {
-                    @Override public String doInJCR(JCRSessionWrapper session) {
-                        try {
-                            JCRSiteNode site = sitesService.getSiteByServerName(request.getServerName(), session);
-                            if (site != null) {
-                                return site.getSiteKey();
-                            }
-                            LOGGER.error("Unable to determine site key for server name {}, check your configuration", request.getServerName());
-                            return null;
-                        } catch (RepositoryException e) {
-                            LOGGER.error("Error while trying to determine site key from server name {}", request.getServerName(), e);
-                            return null;
-                        }
-                    }
-                });
-            } catch (RepositoryException e) {
-                LOGGER.error("Cannot find site for server name {}", request.getServerName(), e);
-            }
+            siteKey = findSiteKeyForServerName(request.getServerName());
         }
         return siteKey;
     }
 
+    /**
+     * Drop all cached server name resolutions, called when a site or its server names change.
+     */
+    public void invalidateSiteKeyCache() {
+        siteKeysByServerName.clear();
+        unknownServerNames.clear();
+    }
+
+    private String findSiteKeyForServerName(String serverName) {
+        if (serverName == null) {
+            return null;
+        }
+        final long now = System.currentTimeMillis();
+        CachedSiteKey cached = siteKeysByServerName.get(serverName);
+        if (cached == null) {
+            cached = unknownServerNames.get(serverName);
+        }
+        if (cached != null && cached.expiration > now) {
+            return cached.siteKey;
+        }
+        final String siteKey;
+        try {
+            siteKey = JCRTemplate.getInstance().doExecuteWithSystemSession(new JCRCallback<String>() {
+                @Override public String doInJCR(JCRSessionWrapper session) throws RepositoryException {
+                    JCRSiteNode site = sitesService.getSiteByServerName(serverName, session);
+                    return site != null ? site.getSiteKey() : null;
+                }
+            });
+        } catch (RepositoryException e) {
+            // not cached, the next request retries the lookup
+            LOGGER.error("Cannot find site for server name {}", serverName, e);
+            return null;
+        }
+        if (siteKey == null) {
+            // any client can send a random host name, do not flood the log
+            LOGGER.debug("Unable to determine site key for server name {}, check your configuration", serverName);
+            cacheServerName(unknownServerNames, serverName, null, now + UNKNOWN_SERVER_NAME_CACHE_TTL);
+        } else {
+            unknownServerNames.remove(serverName);
+            cacheServerName(siteKeysByServerName, serverName, siteKey, now + SITE_KEY_CACHE_TTL);
+        }
+        return siteKey;
+    }
+
+    /**
+     * Cache a server name resolution, dropping expired entries when the cache is full, and all entries of that cache
+     * only if they are all still valid.
+     */
+    private static void cacheServerName(ConcurrentMap<String, CachedSiteKey> cache, String serverName, String siteKey, long expiration) {
+        if (cache.size() >= MAX_CACHED_SERVER_NAMES) {
+            final long now = System.currentTimeMillis();
+            cache.values().removeIf(entry -> entry.expiration <= now);
+            if (cache.size() >= MAX_CACHED_SERVER_NAMES) {
+                cache.clear();
+            }
+        }
+        cache.put(serverName, new CachedSiteKey(siteKey, expiration));
+    }
+
     /**
      * Store redirect URL and preferred language in cookies for use after SAML authentication
      */
@@ -130,16 +381,103 @@ public final class SAML2Util implements SAML2InfoProvider {
      * Retrieve redirection URL
      */
     public String getRedirectionUrl(HttpServletRequest request, String siteKey) {
-        String redirection = this.getCookieValue(request, SAML2Constants.REDIRECT);
-        if (StringUtils.isEmpty(redirection)) {
-            redirection = request.getContextPath() + this.settingsService.getSettings(siteKey).getValues("Saml").getProperty(SAML2Constants.POST_LOGIN_PATH);
-            if (StringUtils.isEmpty(redirection)) {
-                // default value
-                redirection = "/";
+        final String redirection = this.getCookieValue(request, SAML2Constants.REDIRECT);
+        final LoginPlan loginPlan = findLoginPlan(siteKey);
+        if (loginPlan != null) {
+            return loginPlan.getRedirection(request.getContextPath(), redirection);
+        }
+        // default value
+        final String defaultRedirection = StringUtils.isEmpty(redirection) ? "/" : redirection;
+        return defaultRedirection + (defaultRedirection.contains("?") ? "&" : "?") + "site=" + siteKey;
+    }
+
+    /**
+     * Store the redirect URL of a logout in a cookie, for use when the IdP answers the logout request
+     */
+    public void storeLogoutContext(HttpServletRequest request, HttpServletResponse response) {
+        final String redirectParam = request.getParameter(SAML2Constants.REDIRECT);
+        if (redirectParam != null && isAuthorizedRedirect(request, redirectParam, false)) {
+            final Cookie redirectCookie = new Cookie(SAML2Constants.LOGOUT_REDIRECT, redirectParam);
+            redirectCookie.setPath(StringUtils.isEmpty(request.getContextPath()) ? "/" : request.getContextPath());
+            redirectCookie.setSecure(request.isSecure());
+            redirectCookie.setHttpOnly(true);
+            response.addCookie(redirectCookie);
+        }
+    }
+
+    /**
+     * Retrieve the URL to go to once logged out: the authorized redirect parameter of the logout, else the root
+     */
+    public String getLogoutRedirectionUrl(HttpServletRequest request) {
+        String redirection = request.getParameter(SAML2Constants.REDIRECT);
+        if (redirection == null) {
+            redirection = this.getCookieValue(request, SAML2Constants.LOGOUT_REDIRECT);
+        }
+        if (StringUtils.isNotEmpty(redirection) && isAuthorizedRedirect(request, redirection, false)) {
+            return redirection;
+        }
+        return StringUtils.isEmpty(request.getContextPath()) ? "/" : request.getContextPath() + "/";
+    }
+
+    /**
+     * Get the compiled login plan of a site, built from its connector configuration on first use.
+     */
+    public LoginPlan getLoginPlan(String siteKey) throws SAMLConfigException {
+        final LoginPlan loginPlan = findLoginPlan(siteKey);
+        if (loginPlan == null) {
+            throw new SAMLConfigException("No SAML2 settings found for siteKey: " + siteKey);
+        }
+        return loginPlan;
+    }
+
+    /**
+     * The configuration is read inside the mapping function: an invalidation waits for a plan being compiled and then
+     * drops it, so a plan compiled from a previous configuration cannot be cached again.
+     */
+    private LoginPlan findLoginPlan(String siteKey) {
+        final LoginPlan loginPlan = loginPlans.get(siteKey);
+        if (loginPlan != null) {
+            return loginPlan;
+        }
+        return loginPlans.computeIfAbsent(siteKey, k -> {
+            final ConnectorConfig saml2Settings = this.settingsService.getConnectorConfig(k, "Saml");
+            return saml2Settings != null ? LoginPlan.compile(saml2Settings) : null;
+        });
+    }
+
+    /**
+     * Drop all compiled login plans, called when an authentication configuration changes.
+     */
+    public void invalidateLoginPlans() {
+        loginPlans.clear();
+        if (loginFingerprints != null) {
+            loginFingerprints.clear();
+        }
+        releaseUnusedMetadata();
+    }
+
+    /**
+     * Stop refreshing the IdP metadata URLs that no site uses any more.
+     */
+    private void releaseUnusedMetadata() {
+        final IdPMetadataRefresher refresher = metadataRefresher;
+        if (refresher == null || refresher.getSourceCount() == 0) {
+            return;
+        }
+        try {
+            final Set<String> used = new HashSet<>();
+            for (String siteKey : sitesService.getSitesNames()) {
+                final ConnectorConfig saml2Settings = this.settingsService.getConnectorConfig(siteKey, "Saml");
+                final String metadataUrl = saml2Settings != null ? saml2Settings.getProperty(SAML2Constants.IDENTITY_PROVIDER_METADATA_URL) : null;
+                if (StringUtils.isNotBlank(metadataUrl)) {
+                    used.add(IdPMetadataRefresher.getKey(metadataUrl.trim(), saml2Settings.getProperty(SAML2Constants.IDENTITY_PROVIDER_METADATA_CERTIFICATE)));
+                }
             }
+            refresher.retain(used);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Unable to list the IdP metadata URLs in use: {}", e.getMessage());
+            LOGGER.debug("IdP metadata URLs listing failure", e);
         }
-        // The site parameter is added to the redirection URL to manage site users.
-        return redirection + (redirection.contains("?") ? "&" : "?") + "site=" + siteKey;
     }
 
     public String getAssertionConsumerServiceUrl(final HttpServletRequest request, final String incoming) {
@@ -157,19 +495,177 @@ public final class SAML2Util implements SAML2InfoProvider {
     }
 
     public SAML2Client getSAML2Client(final HttpServletRequest request, String siteKey) throws SAMLConfigException {
-        final SAML2Client client;
-        if (clients.containsKey(siteKey)) {
-            client = clients.get(siteKey);
-        } else {
+        final SAML2Client client = getPooledClient(request, siteKey).getClient();
+        LOGGER.debug("SAML2 Client found for siteKey: {}", siteKey);
+        return client;
+    }
+
+    /**
+     * Get the serialized service provider metadata of the current client of a site.
+     */
+    public SPMetadata getServiceProviderMetadata(final HttpServletRequest request, String siteKey) throws SAMLConfigException, IOException {
+        return getPooledClient(request, siteKey).getMetadata();
+    }
+
+    private SAML2ClientPool.PooledClient getPooledClient(final HttpServletRequest request, String siteKey) throws SAMLConfigException {
+        final ConnectorConfig saml2Settings = this.settingsService.getConnectorConfig(siteKey, "Saml");
+        if (saml2Settings == null) {
+            throw new SAMLConfigException("No SAML2 settings found for siteKey: " + siteKey);
+        }
+        final String callbackUrl = getAssertionConsumerServiceUrl(saml2Settings, request);
+        metrics.clientLookup(siteKey);
+        return clientPool.get(siteKey, callbackUrl, saml2Settings, () -> {
+            metrics.clientMiss(siteKey);
+            final long start = System.nanoTime();
+            final SAML2Client client = initSAMLClient(getSAML2ClientConfiguration(saml2Settings), callbackUrl);
+            metrics.clientBuilt(siteKey, System.nanoTime() - start);
+            return client;
+        });
+    }
+
+    /**
+     * Build the clients of all sites having an enabled SAML connector on a bounded background executor. Sites without
+     * a server location need a request to compute their callback URL: their configuration is checked with a
+     * throwaway client and their client is built on first use.
+     */
+    private void warmUpClients(int threads) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "saml2-warmup-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        warmupExecutor = executor;
+        executor.execute(() -> {
+            try {
+                final long start = System.currentTimeMillis();
+                final List<String> siteKeys = sitesService.getSitesNames();
+                final AtomicInteger remaining = new AtomicInteger(siteKeys.size());
+                final AtomicInteger failures = new AtomicInteger();
+                LOGGER.info("Warming up SAML2 clients for {} sites", siteKeys.size());
+                for (String siteKey : siteKeys) {
+                    executor.execute(() -> {
+                        if (!warmUpClient(siteKey)) {
+                            failures.incrementAndGet();
+                        }
+                        if (remaining.decrementAndGet() == 0) {
+                            LOGGER.info("SAML2 clients warm-up done in {} ms, {} failure(s)", System.currentTimeMillis() - start, failures.get());
+                        }
+                    });
+                }
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unable to list sites for SAML2 clients warm-up", e);
+            } finally {
+                executor.shutdown();
+            }
+        });
+    }
+
+    private boolean warmUpClient(String siteKey) {
+        final long start = System.currentTimeMillis();
+        try {
             final ConnectorConfig saml2Settings = this.settingsService.getConnectorConfig(siteKey, "Saml");
-            if (saml2Settings == null) {
-                throw new SAMLConfigException("No SAML2 settings found for siteKey: " + siteKey);
+            if (saml2Settings == null || !saml2Settings.getBooleanProperty(SAML2Constants.ENABLED)) {
+                return true;
+            }
+            if (StringUtils.isEmpty(saml2Settings.getProperty(SAML2Constants.SERVER_LOCATION))) {
+                initSAMLClient(getSAML2ClientConfiguration(saml2Settings), "/");
+                LOGGER.info("SAML2 configuration of site {} checked in {} ms, client will be built on first request (no server location)",
+                        siteKey, System.currentTimeMillis() - start);
+            } else {
+                getSAML2Client(null, siteKey);
+                LOGGER.info("SAML2 client of site {} built in {} ms", siteKey, System.currentTimeMillis() - start);
             }
-            client = initSAMLClient(saml2Settings, request);
-            clients.put(siteKey, client);
+            return true;
+        } catch (SAMLConfigException | RuntimeException e) {
+            LOGGER.warn("Unable to warm up SAML2 client of site {} after {} ms: {}", siteKey, System.currentTimeMillis() - start, e.getMessage());
+            LOGGER.debug("Warm-up failure for site {}", siteKey, e);
+            return false;
         }
-        LOGGER.debug("SAML2 Client found for siteKey: {}", siteKey);
-        return client;
+    }
+
+    /**
+     * Validate the SAML configuration of sites on a bounded fork-join pool and rebuild their clients, one per callback
+     * URL in use plus the one of the server location. Once all sites are validated, the new clients of each valid site
+     * replace its previous ones in a single swap, unless its configuration changed in the meantime. Sites with an invalid
+     * or changed configuration keep their previous clients.
+     *
+     * @param siteKeys the sites to validate, all sites when empty
+     */
+    public BulkValidationReport validateSites(Collection<String> siteKeys) {
+        final long start = System.currentTimeMillis();
+        final List<String> keys = new ArrayList<>(siteKeys == null || siteKeys.isEmpty() ? sitesService.getSitesNames() : siteKeys);
+        LOGGER.info("Validating SAML2 configuration of {} sites", keys.size());
+        final ForkJoinPool pool = new ForkJoinPool(moduleSettings.getBulkValidationParallelism());
+        final List<SiteValidation> validations;
+        try {
+            validations = pool.submit(() -> keys.parallelStream().map(this::validateSite).collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while validating SAML2 configurations", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Unable to validate SAML2 configurations", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        final List<BulkValidationReport.SiteResult> results = new ArrayList<>(validations.size());
+        for (SiteValidation validation : validations) {
+            if (!validation.clients.isEmpty()) {
+                final ConnectorConfig current = this.settingsService.getConnectorConfig(validation.siteKey, "Saml");
+                if (current == null || !ConfigFingerprint.of(current).equals(ConfigFingerprint.of(validation.config))) {
+                    LOGGER.info("SAML2 configuration of site {} changed during validation, keeping its clients", validation.siteKey);
+                    validation.result = new BulkValidationReport.SiteResult(validation.siteKey, BulkValidationReport.Status.STALE, 0,
+                            validation.result.getDurationMillis(), null);
+                } else {
+                    clientPool.replaceSite(validation.siteKey, validation.config, validation.clients);
+                    loginPlans.remove(validation.siteKey);
+                }
+            }
+            results.add(validation.result);
+        }
+        final BulkValidationReport report = new BulkValidationReport(results, System.currentTimeMillis() - start);
+        LOGGER.info("SAML2 configuration validation done: {}", report);
+        return report;
+    }
+
+    private SiteValidation validateSite(String siteKey) {
+        final long start = System.currentTimeMillis();
+        final SiteValidation validation = new SiteValidation(siteKey);
+        try {
+            validation.config = this.settingsService.getConnectorConfig(siteKey, "Saml");
+            if (validation.config == null) {
+                validation.result = new BulkValidationReport.SiteResult(siteKey, BulkValidationReport.Status.SKIPPED, 0, 0, null);
+                return validation;
+            }
+            if (validation.config.getBinaryProperty(SAML2Constants.KEY_STORE) == null) {
+                throw new SAMLConfigException("No keystore, save the SAML settings of the site to generate one");
+            }
+            final Set<String> callbackUrls = new LinkedHashSet<>(clientPool.getCallbackUrls(siteKey));
+            if (StringUtils.isNotEmpty(validation.config.getProperty(SAML2Constants.SERVER_LOCATION))) {
+                callbackUrls.add(getAssertionConsumerServiceUrl(validation.config, null));
+            }
+            if (callbackUrls.isEmpty()) {
+                initSAMLClient(getSAML2ClientConfiguration(validation.config), "/");
+            }
+            // IdP metadata and keys are parsed once and shared by the clients of all callback URLs and sites
+            final Map<String, SAML2Client> clients = new LinkedHashMap<>();
+            for (String callbackUrl : callbackUrls) {
+                final long buildStart = System.nanoTime();
+                clients.put(callbackUrl, initSAMLClient(getSAML2ClientConfiguration(validation.config), callbackUrl));
+                metrics.clientBuilt(siteKey, System.nanoTime() - buildStart);
+            }
+            validation.clients = clients;
+            final BulkValidationReport.Status status = clients.isEmpty() ? BulkValidationReport.Status.CHECKED : BulkValidationReport.Status.APPLIED;
+            validation.result = new BulkValidationReport.SiteResult(siteKey, status, clients.size(), System.currentTimeMillis() - start, null);
+        } catch (SAMLConfigException | RuntimeException e) {
+            LOGGER.warn("Invalid SAML2 configuration for site {}: {}", siteKey, e.getMessage());
+            LOGGER.debug("Validation failure for site {}", siteKey, e);
+            validation.clients = Collections.emptyMap();
+            validation.result = new BulkValidationReport.SiteResult(siteKey, BulkValidationReport.Status.FAILED, 0,
+                    System.currentTimeMillis() - start, e.getMessage());
+        }
+        return validation;
     }
 
     public String getCookieValue(final HttpServletRequest request, final String name) {
@@ -184,15 +680,28 @@ public final class SAML2Util implements SAML2InfoProvider {
         return null;
     }
 
+    /**
+     * Drop the client of a site. Requests already holding the previous client complete with it, the next request
+     * builds a new one.
+     */
     public void resetClient(String siteKey) {
-        clients.remove(siteKey);
+        metrics.clientReset(siteKey);
+        clientPool.remove(siteKey);
+        loginPlans.remove(siteKey);
+        releaseUnusedMetadata();
     }
 
     public SAML2Configuration getSAML2ClientConfiguration(ConnectorConfig saml2Settings) {
         final SAML2Configuration saml2ClientConfiguration = new SAML2Configuration();
 
         saml2ClientConfiguration.setMaximumAuthenticationLifetime(Integer.parseInt(saml2Settings.getProperty(SAML2Constants.MAXIMUM_AUTHENTICATION_LIFETIME)));
-        saml2ClientConfiguration.setIdentityProviderMetadataResource(new ByteArrayResource(saml2Settings.getBinaryProperty(SAML2Constants.IDENTITY_PROVIDER_METADATA)));
+        final String metadataUrl = saml2Settings.getProperty(SAML2Constants.IDENTITY_PROVIDER_METADATA_URL);
+        if (StringUtils.isNotBlank(metadataUrl)) {
+            saml2ClientConfiguration.setIdentityProviderMetadataResource(metadataRefresher.get(metadataUrl.trim(),
+                    saml2Settings.getProperty(SAML2Constants.IDENTITY_PROVIDER_METADATA_CERTIFICATE)).getResource());
+        } else {
+            saml2ClientConfiguration.setIdentityProviderMetadataResource(new ByteArrayResource(saml2Settings.getBinaryProperty(SAML2Constants.IDENTITY_PROVIDER_METADATA)));
+        }
         saml2ClientConfiguration.setServiceProviderEntityId(saml2Settings.getProperty(SAML2Constants.RELYING_PARTY_IDENTIFIER));
         if (saml2Settings.getProperty(SAML2Constants.KEY_STORE) != null) {
             saml2ClientConfiguration.setKeystoreResource(new ByteArrayResource(saml2Settings.getBinaryProperty(SAML2Constants.KEY_STORE)));
@@ -203,37 +712,32 @@ public final class SAML2Util implements SAML2InfoProvider {
         }
         saml2ClientConfiguration.setKeystorePassword(saml2Settings.getProperty(SAML2Constants.KEY_STORE_PASS));
         saml2ClientConfiguration.setPrivateKeyPassword(saml2Settings.getProperty(SAML2Constants.PRIVATE_KEY_PASS));
-        saml2ClientConfiguration.setServiceProviderMetadataResource(new FileSystemResource(getSamlFileName(saml2Settings.getSiteKey(), "sp-metadata.xml")));
         saml2ClientConfiguration.setForceAuth(saml2Settings.getBooleanProperty(SAML2Constants.FORCE_AUTH));
         saml2ClientConfiguration.setPassive(saml2Settings.getBooleanProperty(SAML2Constants.PASSIVE));
         saml2ClientConfiguration.setAuthnRequestSigned(saml2Settings.getBooleanProperty(SAML2Constants.SIGN_AUTH_REQUEST));
         saml2ClientConfiguration.setWantsAssertionsSigned(saml2Settings.getBooleanProperty(SAML2Constants.REQUIRES_SIGNED_ASSERTIONS));
         saml2ClientConfiguration.setAuthnRequestBindingType(saml2Settings.getProperty(SAML2Constants.BINDING_TYPE));
+        saml2ClientConfiguration.setLogoutHandler(sessionRegistry);
 
         return saml2ClientConfiguration;
     }
 
-    private SAML2Client initSAMLClient(ConnectorConfig saml2Settings, HttpServletRequest request) {
-        final SAML2Configuration saml2ClientConfiguration = getSAML2ClientConfiguration(saml2Settings);
-        if (StringUtils.isEmpty(saml2Settings.getProperty(SAML2Constants.SERVER_LOCATION))) {
-            return initSAMLClient(saml2ClientConfiguration, getAssertionConsumerServiceUrl(request, saml2Settings.getProperty(SAML2Constants.INCOMING_TARGET_URL)));
-        } else {
-            return initSAMLClient(saml2ClientConfiguration, saml2Settings.getProperty(SAML2Constants.SERVER_LOCATION) + saml2Settings.getProperty(SAML2Constants.INCOMING_TARGET_URL));
+    private String getAssertionConsumerServiceUrl(ConnectorConfig saml2Settings, HttpServletRequest request) throws SAMLConfigException {
+        if (StringUtils.isNotEmpty(saml2Settings.getProperty(SAML2Constants.SERVER_LOCATION))) {
+            return saml2Settings.getProperty(SAML2Constants.SERVER_LOCATION) + saml2Settings.getProperty(SAML2Constants.INCOMING_TARGET_URL);
         }
+        if (request == null) {
+            throw new SAMLConfigException("No server location set for siteKey: " + saml2Settings.getSiteKey());
+        }
+        return getAssertionConsumerServiceUrl(request, saml2Settings.getProperty(SAML2Constants.INCOMING_TARGET_URL));
     }
 
     private SAML2Client initSAMLClient(SAML2Configuration saml2ClientConfiguration, String callbackUrl) {
         return ClassLoaderUtils.executeWith(InitializationService.class.getClassLoader(), () -> {
-            try {
-                final File spMetadataFile = saml2ClientConfiguration.getServiceProviderMetadataResource().getFile();
-                if (spMetadataFile.exists()) {
-                    spMetadataFile.delete();
-                }
-            } catch (IOException e) {
-                throw new TechnicalException("Cannot update SP Metadata file", e);
-            }
-
-            final SAML2Client client = new SAML2Client(saml2ClientConfiguration);
+            // no SP metadata resource: the metadata is generated and kept in memory
+            final SAML2Client client = new JahiaSAML2Client(saml2ClientConfiguration,
+                    new SAML2ReplayCacheProvider(replayCache, saml2ClientConfiguration.getMaximumAuthenticationLifetime()), sharedMaterial,
+                    messageDecoder);
             client.setCallbackUrl(callbackUrl);
             client.setStateGenerator(new RandomValueGenerator());
             try {
@@ -288,19 +792,32 @@ public final class SAML2Util implements SAML2InfoProvider {
         }
     }
 
-    private byte[] generateKeyStore(ConnectorConfig settings) throws IOException {
-        File samlFileName = new File(getSamlFileName(settings.getSiteKey(), "keystore.jks"));
-        samlFileName.getParentFile().mkdirs();
-        SAML2Configuration saml2ClientConfiguration = getSAML2ClientConfiguration(settings);
-        saml2ClientConfiguration.setKeystoreResource(new FileSystemResource(samlFileName));
-        initSAMLClient(saml2ClientConfiguration, "/");
-        byte[] s = FileUtils.readFileToByteArray(samlFileName);
-        samlFileName.delete();
-        return s;
+    private byte[] generateKeyStore(ConnectorConfig settings) {
+        return keyStoreGenerator.generate(settings.getProperty(SAML2Constants.KEY_STORE_TYPE), settings.getProperty(SAML2Constants.KEY_STORE_ALIAS),
+                settings.getProperty(SAML2Constants.KEY_STORE_PASS), settings.getProperty(SAML2Constants.PRIVATE_KEY_PASS));
+    }
 
+    /**
+     * Clients built by the validation of a site, applied once all sites are validated.
+     */
+    private static final class SiteValidation {
+        private final String siteKey;
+        private ConnectorConfig config;
+        private Map<String, SAML2Client> clients = Collections.emptyMap();
+        private BulkValidationReport.SiteResult result;
+
+        private SiteValidation(String siteKey) {
+            this.siteKey = siteKey;
+        }
     }
 
-    private String getSamlFileName(String siteKey, String filename) {
-        return this.settingsBean.getJahiaVarDiskPath() + "/saml/" + siteKey + "." + filename;
+    private static final class CachedSiteKey {
+        private final String siteKey;
+        private final long expiration;
+
+        private CachedSiteKey(String siteKey, long expiration) {
+            this.siteKey = siteKey;
+            this.expiration = expiration;
+        }
     }
 }
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import net.shibboleth.utilities.java.support.xml.ParserPool;
+import net.shibboleth.utilities.java.support.xml.XMLParserException;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.Unmarshaller;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.opensaml.messaging.decoder.MessageDecodingException;
+import org.pac4j.core.context.WebContext;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Decodes incoming HTTP-POST SAML messages from their base64 form without materializing the decoded bytes: the
+ * parameter value is streamed through the base64 decoder into a pooled parser. Messages
+ * larger than the maximum decoded size or with more elements than allowed are rejected, oversized parameters before
+ * any decoding.
+ */
+public final class SAMLMessageDecoder {
+    /**
+     * Request attribute holding the decoded size in bytes of the SAML message of the request.
+     */
+    public static final String DECODED_SIZE_ATTRIBUTE = "org.jahia.modules.saml2.decodedSize";
+    private static final int MAX_OTHER_PARAMETERS_LENGTH = 16384;
+
+    private final int maxDecodedSize;
+    private final int maxElements;
+    private final ParserPool parserPool;
+
+    /**
+     * @param maxDecodedSize maximum size in bytes of the decoded message
+     * @param maxElements    maximum number of XML elements of the message
+     * @param parserPool     the shared parser pool, see {@link OpenSAMLBootstrap}
+     */
+    public SAMLMessageDecoder(int maxDecodedSize, int maxElements, ParserPool parserPool) {
+        this.maxDecodedSize = maxDecodedSize;
+        this.maxElements = maxElements;
+        this.parserPool = parserPool;
+    }
+
+    public ParserPool getParserPool() {
+        return parserPool;
+    }
+
+    /**
+     * Maximum length of a base64 encoded message of the maximum decoded size, line breaks included.
+     */
+    public long getMaxEncodedLength() {
+        final long encoded = (maxDecodedSize + 2L) / 3 * 4;
+        return encoded + encoded / 76 * 2;
+    }
+
+    /**
+     * Maximum length of a form encoded request body holding a message of the maximum size, allowing for the URL
+     * encoding of the base64 padding and special characters and for the other parameters.
+     */
+    public long getMaxRequestLength() {
+        return getMaxEncodedLength() * 3 / 2 + MAX_OTHER_PARAMETERS_LENGTH;
+    }
+
+    /**
+     * Decode and unmarshall a message, recording its decoded size as the {@link #DECODED_SIZE_ATTRIBUTE} request
+     * attribute.
+     *
+     * @param encoded the base64 encoded message, or the raw XML
+     */
+    public XMLObject decode(String encoded, WebContext context) throws MessageDecodingException {
+        final boolean raw = encoded.indexOf('<') >= 0;
+        if (!raw && encoded.length() > getMaxEncodedLength()) {
+            throw new MessageDecodingException(new MessageLimitExceededException("SAML message parameter of " + encoded.length() + " characters exceeds the limit of " + getMaxEncodedLength()));
+        }
+        final InputStream in = raw ? new ByteArrayInputStream(encoded.getBytes(StandardCharsets.UTF_8))
+                : Base64.getMimeDecoder().wrap(new StringInputStream(encoded));
+        final LimitedInputStream limited = new LimitedInputStream(in, maxDecodedSize);
+        try {
+            final Document document;
+            try {
+                document = parserPool.parse(limited);
+            } finally {
+                context.setRequestAttribute(DECODED_SIZE_ATTRIBUTE, limited.count);
+            }
+            final Element root = document.getDocumentElement();
+            checkElementCount(root);
+            final Unmarshaller unmarshaller = XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(root);
+            if (unmarshaller == null) {
+                throw new MessageDecodingException("No unmarshaller for SAML message element " + root.getNodeName());
+            }
+            return unmarshaller.unmarshall(root);
+        } catch (XMLParserException | UnmarshallingException | MessageLimitExceededException e) {
+            final MessageLimitExceededException limit = findLimit(e);
+            throw new MessageDecodingException("Error unmarshalling message from input stream", limit != null ? limit : e);
+        }
+    }
+
+    private void checkElementCount(Element root) throws MessageLimitExceededException {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE && ++count > maxElements) {
+                throw new MessageLimitExceededException("SAML message exceeds the limit of " + maxElements + " elements");
+            }
+            Node next = node.getFirstChild();
+            while (next == null && node != null && node != root) {
+                next = node.getNextSibling();
+                if (next == null) {
+                    node = node.getParentNode();
+                }
+            }
+            node = next;
+        }
+    }
+
+    private static MessageLimitExceededException findLimit(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() != t ? t.getCause() : null) {
+            if (t instanceof MessageLimitExceededException) {
+                return (MessageLimitExceededException) t;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads the characters of a base64 string as bytes, without copying it.
+     */
+    private static final class StringInputStream extends InputStream {
+        private final String value;
+        private int position;
+
+        private StringInputStream(String value) {
+            this.value = value;
+        }
+
+        @Override
+        public int read() {
+            return position < value.length() ? value.charAt(position++) & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            final int remaining = value.length() - position;
+            if (remaining <= 0) {
+                return -1;
+            }
+            final int count = Math.min(len, remaining);
+            for (int i = 0; i < count; i++) {
+                b[off + i] = (byte) value.charAt(position++);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Counts the decoded bytes and fails as soon as they exceed the limit.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long count;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                add(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                add(read);
+            }
+            return read;
+        }
+
+        private void add(int read) throws MessageLimitExceededException {
+            count += read;
+            if (count > limit) {
+                throw new MessageLimitExceededException("Decoded SAML message exceeds the limit of " + limit + " bytes");
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.pac4j.saml.client.SAML2Client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Serialized service provider metadata of a client, kept with its plain and gzip encoded bytes and the validators
+ * used for conditional requests.
+ */
+public final class SPMetadata {
+    private final byte[] content;
+    private final byte[] gzipContent;
+    private final String etag;
+    private final long lastModified;
+
+    private SPMetadata(byte[] content, long lastModified) {
+        this.content = content;
+        this.gzipContent = gzip(content);
+        this.etag = DigestUtils.sha256Hex(content).substring(0, 32);
+        // HTTP dates have a one second precision
+        this.lastModified = lastModified / 1000 * 1000;
+    }
+
+    public static SPMetadata of(SAML2Client client) throws IOException {
+        return new SPMetadata(client.getServiceProviderMetadataResolver().getMetadata().getBytes(StandardCharsets.UTF_8), System.currentTimeMillis());
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public byte[] getGzipContent() {
+        return gzipContent;
+    }
+
+    /**
+     * Strong entity tag of the given representation, the gzip encoded one has its own tag.
+     */
+    public String getETag(boolean gzip) {
+        return "\"" + etag + (gzip ? "-gz" : "") + "\"";
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return true if one of the entity tags of an If-None-Match header matches any representation of this metadata
+     */
+    public boolean matches(String ifNoneMatch) {
+        for (String tag : ifNoneMatch.split(",")) {
+            final String trimmed = tag.trim();
+            if (trimmed.equals("*") || trimmed.equals(getETag(false)) || trimmed.equals(getETag(true))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] content) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(content);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -34,7 +34,6 @@ public class SamlConnector implements ConnectorService {
     public void validateSettings(ConnectorConfig settings) throws IOException {
         LOGGER.debug("Validating settings for Saml connector");
         util.validateSettings(settings);
-        util.resetClient(settings.getSiteKey());
     }
 
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.pac4j.core.context.JEEContext;
+import org.pac4j.core.context.WebContext;
+import org.pac4j.core.logout.handler.LogoutHandler;
+import org.pac4j.saml.credentials.authenticator.SAML2Authenticator;
+import org.pac4j.saml.credentials.SAML2Credentials;
+import org.pac4j.saml.profile.SAML2Profile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import java.io.Serializable;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Index of the HTTP sessions opened by SAML logins, by site and SessionIndex and by site and NameID, so that the logout
+ * requests of the IdP end the matching sessions without scanning. An entry is dropped when its session ends, and the
+ * oldest entries are evicted beyond maxEntries: their sessions stay open but can no longer be ended by the IdP.
+ */
+public final class SessionIndexRegistry implements LogoutHandler<WebContext> {
+    /**
+     * Request attribute holding the site key of a logout request, set by the filter.
+     */
+    public static final String SITE_ATTRIBUTE = SessionIndexRegistry.class.getName() + ".site";
+    private static final String SESSION_ATTRIBUTE = SessionIndexRegistry.class.getName() + ".binding";
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionIndexRegistry.class);
+
+    private final int maxEntries;
+    private final ConcurrentMap<String, Entry> bySessionIndex = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Entry>> byNameId = new ConcurrentHashMap<>();
+    /**
+     * Entries by session id in registration order, guarded by itself.
+     */
+    private final LinkedHashMap<String, Entry> bySessionId = new LinkedHashMap<>();
+
+    public SessionIndexRegistry(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Index the session of a successful login, replacing the previous login of the same session.
+     */
+    public void record(String siteKey, SAML2Credentials credentials, HttpSession session) {
+        final SAML2Credentials.SAMLNameID nameId = credentials.getNameId();
+        if (nameId == null || nameId.getValue() == null) {
+            return;
+        }
+        final Entry entry = new Entry(siteKey, nameId, credentials.getSessionIndex(), session);
+        // unbinds the previous entry of the session, if any
+        session.setAttribute(SESSION_ATTRIBUTE, new Binding(this, entry));
+        final Entry previous;
+        synchronized (bySessionId) {
+            previous = bySessionId.put(entry.sessionId, entry);
+        }
+        if (previous != null) {
+            remove(previous);
+        }
+        if (entry.sessionIndex != null) {
+            bySessionIndex.put(entry.sessionIndexKey(), entry);
+        }
+        byNameId.computeIfAbsent(entry.nameIdKey(), k -> ConcurrentHashMap.newKeySet()).add(entry);
+        if (entry.removed) {
+            // the session ended while being indexed
+            remove(entry);
+        }
+        evict();
+    }
+
+    /**
+     * @return the login of a session, null when the session was not opened by a SAML login
+     */
+    public Entry find(HttpSession session) {
+        synchronized (bySessionId) {
+            return session != null ? bySessionId.get(session.getId()) : null;
+        }
+    }
+
+    public int size() {
+        synchronized (bySessionId) {
+            return bySessionId.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (bySessionId) {
+            bySessionId.values().forEach(entry -> entry.removed = true);
+            bySessionId.clear();
+        }
+        bySessionIndex.clear();
+        byNameId.clear();
+    }
+
+    /**
+     * End the sessions of a SessionIndex of a site or, when no session has this index, of a NameID.
+     *
+     * @return the number of sessions ended
+     */
+    public int destroy(String siteKey, String key) {
+        if (siteKey == null || key == null) {
+            return 0;
+        }
+        final Entry entry = bySessionIndex.get(siteKey + '\n' + key);
+        if (entry != null) {
+            invalidate(entry);
+            return 1;
+        }
+        final Set<Entry> entries = byNameId.get(siteKey + '\n' + key);
+        if (entries == null) {
+            LOGGER.debug("No session to end for site {}", siteKey);
+            return 0;
+        }
+        int count = 0;
+        for (Entry e : entries.toArray(new Entry[0])) {
+            invalidate(e);
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void destroySessionFront(WebContext context, String key) {
+        destroy(getSiteKey(context), key);
+    }
+
+    @Override
+    public void destroySessionBack(WebContext context, String key) {
+        destroy(getSiteKey(context), key);
+    }
+
+    private static String getSiteKey(WebContext context) {
+        return context instanceof JEEContext ? (String) ((JEEContext) context).getNativeRequest().getAttribute(SITE_ATTRIBUTE) : null;
+    }
+
+    private void invalidate(Entry entry) {
+        remove(entry);
+        LOGGER.info("Ending session of {} on logout request of the IdP of site {}", entry.nameId.getValue(), entry.siteKey);
+        try {
+            entry.session.invalidate();
+        } catch (IllegalStateException e) {
+            // already invalidated
+        }
+    }
+
+    /**
+     * Drop an entry from all indexes, without ending its session. Safe to call again for an entry indexed after its
+     * session ended.
+     */
+    void remove(Entry entry) {
+        entry.removed = true;
+        synchronized (bySessionId) {
+            bySessionId.remove(entry.sessionId, entry);
+        }
+        if (entry.sessionIndex != null) {
+            bySessionIndex.remove(entry.sessionIndexKey(), entry);
+        }
+        byNameId.computeIfPresent(entry.nameIdKey(), (k, entries) -> {
+            entries.remove(entry);
+            return entries.isEmpty() ? null : entries;
+        });
+    }
+
+    private void evict() {
+        while (true) {
+            final Entry eldest;
+            synchronized (bySessionId) {
+                if (bySessionId.size() <= maxEntries) {
+                    return;
+                }
+                final Iterator<Entry> it = bySessionId.values().iterator();
+                eldest = it.next();
+                it.remove();
+            }
+            LOGGER.debug("Session registry full, the session of {} can no longer be ended by the IdP", eldest.nameId.getValue());
+            remove(eldest);
+        }
+    }
+
+    /**
+     * A SAML login, with what the logout request of the SP needs to name it.
+     */
+    public static final class Entry {
+        private final String siteKey;
+        private final SAML2Credentials.SAMLNameID nameId;
+        private final String sessionIndex;
+        private final String sessionId;
+        private final HttpSession session;
+        private volatile boolean removed;
+
+        private Entry(String siteKey, SAML2Credentials.SAMLNameID nameId, String sessionIndex, HttpSession session) {
+            this.siteKey = siteKey;
+            this.nameId = nameId;
+            this.sessionIndex = sessionIndex;
+            this.sessionId = session.getId();
+            this.session = session;
+        }
+
+        public String getSiteKey() {
+            return siteKey;
+        }
+
+        /**
+         * @return a profile naming the user and session to the IdP in a logout request
+         */
+        public SAML2Profile toProfile() {
+            final SAML2Profile profile = new SAML2Profile();
+            profile.setId(nameId.getValue());
+            final Map<String, Object> attributes = new LinkedHashMap<>();
+            attributes.put(SAML2Authenticator.SAML_NAME_ID_FORMAT, nameId.getFormat());
+            attributes.put(SAML2Authenticator.SAML_NAME_ID_NAME_QUALIFIER, nameId.getNameQualifier());
+            attributes.put(SAML2Authenticator.SAML_NAME_ID_SP_NAME_QUALIFIER, nameId.getSpNameQualifier());
+            attributes.put(SAML2Authenticator.SAML_NAME_ID_SP_PROVIDED_ID, nameId.getSpProviderId());
+            attributes.put(SAML2Authenticator.SESSION_INDEX, sessionIndex);
+            attributes.values().removeIf(Objects::isNull);
+            profile.addAuthenticationAttributes(attributes);
+            return profile;
+        }
+
+        private String sessionIndexKey() {
+            return siteKey + '\n' + sessionIndex;
+        }
+
+        private String nameIdKey() {
+            return siteKey + '\n' + nameId.getValue();
+        }
+    }
+
+    /**
+     * Session attribute dropping the entry of the session when the session ends or logs in again. Not restored with
+     * a serialized session: the registry only knows the sessions of its own node.
+     */
+    private static final class Binding implements HttpSessionBindingListener, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final transient SessionIndexRegistry registry;
+        private final transient Entry entry;
+
+        private Binding(SessionIndexRegistry registry, Entry entry) {
+            this.registry = registry;
+            this.entry = entry;
+        }
+
+        @Override
+        public void valueBound(HttpSessionBindingEvent event) {
+            // indexed by record
+        }
+
+        @Override
+        public void valueUnbound(HttpSessionBindingEvent event) {
+            if (registry != null) {
+                registry.remove(entry);
+            }
+        }
+    }
+}
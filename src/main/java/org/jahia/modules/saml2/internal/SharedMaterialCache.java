@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.pac4j.saml.config.SAML2Configuration;
+import org.pac4j.saml.crypto.CredentialProvider;
+import org.pac4j.saml.crypto.KeyStoreCredentialProvider;
+import org.pac4j.saml.metadata.SAML2IdentityProviderMetadataResolver;
+import org.pac4j.saml.metadata.SAML2MetadataResolver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.Resource;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Parsed IdP metadata and decoded key stores shared between clients, keyed by a hash of their content. Sites pointing
+ * to the same IdP metadata, or using the same key store with the same alias and passwords, share a single instance.
+ * Entries are weakly referenced and disappear once no client uses them anymore.
+ */
+public final class SharedMaterialCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedMaterialCache.class);
+
+    private final ConcurrentMap<String, WeakReference<SAML2MetadataResolver>> idpMetadataResolvers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, WeakReference<CredentialProvider>> credentialProviders = new ConcurrentHashMap<>();
+
+    /**
+     * Get the IdP metadata resolver of a configuration, or null if its metadata is not held in memory and cannot be
+     * shared. Metadata fetched from a URL is resolved by its refreshed source.
+     */
+    public SAML2MetadataResolver getIdentityProviderMetadataResolver(SAML2Configuration configuration) {
+        final Resource resource = configuration.getIdentityProviderMetadataResource();
+        if (resource instanceof IdPMetadataRefresher.Resource) {
+            return ((IdPMetadataRefresher.Resource) resource).getSource();
+        }
+        if (!(resource instanceof ByteArrayResource)) {
+            return null;
+        }
+        final String key = DigestUtils.sha256Hex(((ByteArrayResource) resource).getByteArray()) + '|' + configuration.getIdentityProviderEntityId();
+        return getOrCreate(idpMetadataResolvers, key, () -> {
+            final SAML2IdentityProviderMetadataResolver resolver = new SAML2IdentityProviderMetadataResolver(configuration);
+            resolver.init();
+            return resolver;
+        });
+    }
+
+    /**
+     * Get the credential provider of a configuration, or null if its key store is not held in memory and cannot be
+     * shared.
+     */
+    public CredentialProvider getCredentialProvider(SAML2Configuration configuration) {
+        final Resource resource = configuration.getKeystoreResource();
+        if (!(resource instanceof ByteArrayResource)) {
+            return null;
+        }
+        final String secrets = configuration.getKeystorePassword() + '\0' + configuration.getPrivateKeyPassword();
+        final String key = DigestUtils.sha256Hex(((ByteArrayResource) resource).getByteArray()) + '|' + configuration.getKeyStoreType()
+                + '|' + configuration.getKeyStoreAlias() + '|' + DigestUtils.sha256Hex(secrets.getBytes(StandardCharsets.UTF_8));
+        return getOrCreate(credentialProviders, key, () -> new KeyStoreCredentialProvider(configuration));
+    }
+
+    public int getIdentityProviderMetadataCount() {
+        return idpMetadataResolvers.size();
+    }
+
+    public int getCredentialProviderCount() {
+        return credentialProviders.size();
+    }
+
+    public void clear() {
+        idpMetadataResolvers.clear();
+        credentialProviders.clear();
+    }
+
+    private static <T> T getOrCreate(ConcurrentMap<String, WeakReference<T>> cache, String key, Supplier<T> factory) {
+        final WeakReference<T> ref = cache.get(key);
+        final T cached = ref != null ? ref.get() : null;
+        if (cached != null) {
+            return cached;
+        }
+        // keep a strong reference to the created value until it is returned
+        final Object[] created = new Object[1];
+        final WeakReference<T> result = cache.compute(key, (k, existing) -> {
+            final T value = existing != null ? existing.get() : null;
+            if (value != null) {
+                created[0] = value;
+                return existing;
+            }
+            final T newValue = factory.get();
+            created[0] = newValue;
+            LOGGER.debug("Created shared SAML2 material {}", k);
+            return new WeakReference<>(newValue);
+        });
+        cache.values().removeIf(r -> r != result && r.get() == null);
+        @SuppressWarnings("unchecked") final T value = (T) created[0];
+        return value;
+    }
+}
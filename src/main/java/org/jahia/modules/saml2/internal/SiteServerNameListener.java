@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.services.content.DefaultEventListener;
+import org.jahia.services.content.ExternalEventListener;
+import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Reference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+
+/**
+ * Invalidates the server name to site key cache of {@link SAML2Util} when a site is added, removed or when its server
+ * names change, on this node or on another node of the cluster.
+ */
+@Component(service = DefaultEventListener.class, immediate = true)
+public class SiteServerNameListener extends DefaultEventListener implements ExternalEventListener {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SiteServerNameListener.class);
+
+    @Reference
+    private SAML2Util util;
+
+    @Override
+    public int getEventTypes() {
+        return Event.NODE_ADDED | Event.NODE_REMOVED | Event.PROPERTY_ADDED | Event.PROPERTY_CHANGED | Event.PROPERTY_REMOVED;
+    }
+
+    @Override
+    public String getPath() {
+        return "/sites";
+    }
+
+    @Override
+    public String[] getNodeTypes() {
+        return new String[]{"jnt:virtualsite"};
+    }
+
+    @Override
+    public void onEvent(EventIterator events) {
+        while (events.hasNext()) {
+            final Event event = events.nextEvent();
+            try {
+                final String path = event.getPath();
+                if (event.getType() == Event.NODE_ADDED || event.getType() == Event.NODE_REMOVED
+                        || path.endsWith("/j:serverName") || path.endsWith("/j:serverNameAliases")) {
+                    LOGGER.debug("Site server names changed ({}), invalidating site key cache", path);
+                    util.invalidateSiteKeyCache();
+                    return;
+                }
+            } catch (RepositoryException e) {
+                LOGGER.warn("Cannot read event path, invalidating site key cache", e);
+                util.invalidateSiteKeyCache();
+                return;
+            }
+        }
+    }
+}
@@ -5,6 +5,8 @@ var saml2i18n = {
     "angular.saml2.directives.settings.ma-settings.enabled": "Enabled",
     "angular.saml2.directives.settings.ma-settings.forceAuth": "Force authentication",
     "angular.saml2.directives.settings.ma-settings.identityProviderMetadata": "Identity Provider MetaData",
+    "angular.saml2.directives.settings.ma-settings.identityProviderMetadataUrl": "Identity Provider MetaData URL (refreshed in the background, replaces the uploaded file)",
+    "angular.saml2.directives.settings.ma-settings.identityProviderMetadataCertificate": "Certificate signing the MetaData (PEM, required for a non https URL)",
     "angular.saml2.directives.settings.ma-settings.incomingTargetUrl": "Incoming Target Url",
     "angular.saml2.directives.settings.ma-settings.keyStore": "Keystore (leave blank to auto-generate)",
     "angular.saml2.directives.settings.ma-settings.keyStoreType": "Keystore type",
@@ -52,6 +52,8 @@
                 properties: {
                     enabled: vm.enabled,
                     identityProviderMetadata: vm.identityProviderMetadata,
+                    identityProviderMetadataUrl: vm.identityProviderMetadataUrl,
+                    identityProviderMetadataCertificate: vm.identityProviderMetadataCertificate,
                     keyStore: vm.keyStore,
                     relyingPartyIdentifier: vm.relyingPartyIdentifier,
                     serverLocation: vm.serverLocation,
@@ -99,10 +101,12 @@
             i18nService.addKey(saml2i18n);
             vm.siteKey = jahiaContext.siteKey;
 
-            settingsService.getConnectorData('Saml', ['enabled', 'relyingPartyIdentifier', 'serverLocation', 'keyStoreType', 'keyStoreAlias', 'keyStorePass', 'privateKeyPass', 'incomingTargetUrl', 'postLoginPath', 'maximumAuthenticationLifetime', 'forceAuth', 'passive', 'signAuthnRequest', 'requireSignedAssertions', 'bindingType']).success(function (data) {
+            settingsService.getConnectorData('Saml', ['enabled', 'identityProviderMetadataUrl', 'identityProviderMetadataCertificate', 'relyingPartyIdentifier', 'serverLocation', 'keyStoreType', 'keyStoreAlias', 'keyStorePass', 'privateKeyPass', 'incomingTargetUrl', 'postLoginPath', 'maximumAuthenticationLifetime', 'forceAuth', 'passive', 'signAuthnRequest', 'requireSignedAssertions', 'bindingType']).success(function (data) {
                 if (data && !angular.equals(data, {})) {
                     vm.connectorHasSettings = true;
                     vm.enabled = data.enabled;
+                    vm.identityProviderMetadataUrl = data.identityProviderMetadataUrl;
+                    vm.identityProviderMetadataCertificate = data.identityProviderMetadataCertificate;
                     vm.relyingPartyIdentifier = data.relyingPartyIdentifier;
                     vm.serverLocation = data.serverLocation;
                     vm.keyStoreType = data.keyStoreType;
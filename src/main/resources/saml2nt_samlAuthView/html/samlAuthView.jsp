@@ -60,6 +60,14 @@
                 <input onchange="angular.element(this).scope().saml.fileNameChanged(this)" name="identityProviderMetadata"
                        type="file">
             </md-input-container>
+            <md-input-container class="md-block" flex>
+                <label message-key="angular.saml2.directives.settings.ma-settings.identityProviderMetadataUrl"></label>
+                <input ng-model="saml.identityProviderMetadataUrl" type="url">
+            </md-input-container>
+            <md-input-container class="md-block" flex>
+                <label message-key="angular.saml2.directives.settings.ma-settings.identityProviderMetadataCertificate"></label>
+                <textarea ng-model="saml.identityProviderMetadataCertificate" rows="3"></textarea>
+            </md-input-container>
             <md-input-container class="md-block" flex>
                 <label message-key="angular.saml2.directives.settings.ma-settings.relyingPartyIdentifier"></label>
                 <input ng-model="saml.relyingPartyIdentifier">
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Requests admitted by the token buckets and callback permits of {@link AdmissionController}.
+ */
+public class AdmissionControllerTest {
+
+    @Test
+    public void burstIsAdmittedThenRejected() {
+        final AdmissionController.TokenBuckets buckets = new AdmissionController.TokenBuckets(1024, 0.1, 5);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buckets.tryConsume("10.0.0.1"));
+        }
+        assertFalse(buckets.tryConsume("10.0.0.1"));
+        assertFalse(buckets.tryConsume("10.0.0.1"));
+    }
+
+    @Test
+    public void bucketsRefillOverTime() throws InterruptedException {
+        final AdmissionController.TokenBuckets buckets = new AdmissionController.TokenBuckets(1024, 10, 2);
+        assertTrue(buckets.tryConsume("10.0.0.1"));
+        assertTrue(buckets.tryConsume("10.0.0.1"));
+        assertFalse(buckets.tryConsume("10.0.0.1"));
+
+        Thread.sleep(150);
+        assertTrue(buckets.tryConsume("10.0.0.1"));
+
+        // refilled up to the capacity only
+        Thread.sleep(500);
+        assertTrue(buckets.tryConsume("10.0.0.1"));
+        assertTrue(buckets.tryConsume("10.0.0.1"));
+        assertFalse(buckets.tryConsume("10.0.0.1"));
+    }
+
+    @Test
+    public void keysHaveTheirOwnBuckets() {
+        final AdmissionController.TokenBuckets buckets = new AdmissionController.TokenBuckets(1024, 0.1, 1);
+        assertTrue(buckets.tryConsume("site1"));
+        assertFalse(buckets.tryConsume("site1"));
+        assertTrue(buckets.tryConsume("site2"));
+    }
+
+    @Test
+    public void exhaustedSourceIsRejected() {
+        final AdmissionController controller = new AdmissionController(null, new AdmissionController.TokenBuckets(1024, 0.1, 1),
+                new AdmissionController.TokenBuckets(1024, 0.1, 100), 1, 0);
+        assertTrue(controller.admitSource("10.0.0.1"));
+        assertFalse(controller.admitSource("10.0.0.1"));
+        assertTrue(controller.admitSite("site1"));
+    }
+
+    @Test
+    public void sourceIsTheAddressAppendedByTheProxy() {
+        final AdmissionController controller = new AdmissionController("X-Forwarded-For", new AdmissionController.TokenBuckets(1, 1, 1),
+                new AdmissionController.TokenBuckets(1, 1, 1), 1, 0);
+        assertEquals("127.0.0.1", controller.getSource(request()));
+        assertEquals("10.0.0.9", controller.getSource(request().header("X-Forwarded-For", "1.2.3.4, 10.0.0.9")));
+        assertEquals("10.0.0.9", controller.getSource(request().header("X-Forwarded-For", "10.0.0.9")));
+    }
+
+    @Test
+    public void callbacksWaitForAPermit() {
+        final AdmissionController controller = new AdmissionController(null, new AdmissionController.TokenBuckets(1, 1, 1),
+                new AdmissionController.TokenBuckets(1, 1, 1), 1, 10);
+        assertTrue(controller.enterCallback());
+        assertFalse(controller.enterCallback());
+        controller.exitCallback();
+        assertTrue(controller.enterCallback());
+    }
+
+    private static StubHttpServletRequest request() {
+        return new StubHttpServletRequest("POST", "http", "localhost", 8080, "/cms", "/sites/site1/home.callback.saml");
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.junit.After;
+import org.junit.Test;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Callbacks processed on the validation and login executors, in particular callbacks completed by a timeout or by the
+ * deactivation of the filter while their tasks are still running.
+ */
+public class AsyncCallbackTest {
+
+    private SAML2Fixture fixture;
+    private String siteKey;
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void callbackLogsIn() throws Exception {
+        start();
+        final StubHttpSession session = new StubHttpSession();
+        final StubHttpServletRequest request = fixture.callbackRequest(siteKey, session, createResponse("jdoe"));
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(request, response, SAML2Fixture.NO_CHAIN);
+        request.awaitAsync();
+        assertEquals(HttpServletResponse.SC_FOUND, response.getStatus());
+        assertEquals(1, fixture.getUtil().getSessionRegistry().size());
+    }
+
+    @Test
+    public void timedOutLoginIsAbandoned() throws Exception {
+        start();
+        fixture.setMapperDelay(1500);
+        final StubHttpServletRequest request = fixture.callbackRequest(siteKey, new StubHttpSession(), createResponse("jdoe"));
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(request, response, SAML2Fixture.NO_CHAIN);
+        request.awaitAsync();
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+        assertEquals("1", response.getHeader("Retry-After"));
+
+        // the login task finishes after the timeout, without answering or registering the session
+        Thread.sleep(2000);
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+        assertEquals(0, fixture.getUtil().getSessionRegistry().size());
+        assertEquals(Long.valueOf(1), fixture.getUtil().getMetrics().getGlobal().getRequests().get("callback.timeout"));
+    }
+
+    @Test
+    public void deactivationAnswersPendingCallbacks() throws Exception {
+        start();
+        fixture.setMapperDelay(5000);
+        final StubHttpServletRequest request = fixture.callbackRequest(siteKey, new StubHttpSession(), createResponse("jdoe"));
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(request, response, SAML2Fixture.NO_CHAIN);
+        Thread.sleep(200);
+        final long start = System.currentTimeMillis();
+        fixture.getFilter().deactivate();
+        request.awaitAsync();
+        assertTrue("Callback left to the container timeout", System.currentTimeMillis() - start < 1000);
+        assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, response.getStatus());
+    }
+
+    private void start() {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI,
+                SAML2Fixture.settings("callback.async.enabled", "true", "callback.async.timeoutSeconds", "1"));
+        siteKey = fixture.getSiteKeys().get(0);
+    }
+
+    private String createResponse(String nameId) throws Exception {
+        return fixture.getIdentityProvider().createResponse(fixture.getAssertionConsumerServiceUrl(siteKey),
+                fixture.getServiceProviderEntityId(siteKey), null, nameId, Collections.singletonMap(SAML2Fixture.USER_ID_FIELD, nameId + "@example.com"));
+    }
+}
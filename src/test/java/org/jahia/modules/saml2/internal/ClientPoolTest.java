@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.jahiaauth.service.ConnectorConfig;
+import org.jahia.modules.saml2.SAMLConfigException;
+import org.junit.Test;
+import org.pac4j.saml.client.SAML2Client;
+import org.pac4j.saml.config.SAML2Configuration;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Keying of {@link SAML2ClientPool} by site and callback URL, and replacement of the clients of a site.
+ */
+public class ClientPoolTest {
+
+    private static final String SITE_KEY = "site0";
+
+    private final ConnectorConfig config = mock(ConnectorConfig.class);
+    private final AtomicInteger builds = new AtomicInteger();
+
+    @Test
+    public void clientIsNeverSharedAcrossCallbackUrls() throws Exception {
+        final SAML2ClientPool pool = new SAML2ClientPool(100, 2, 0, Runnable::run);
+        for (int i = 0; i < 10; i++) {
+            final String callbackUrl = "https://host" + i + ".example.com/callback.saml";
+            assertEquals(callbackUrl, get(pool, callbackUrl).getCallbackUrl());
+            Thread.sleep(2);
+        }
+        assertEquals(10, builds.get());
+        assertEquals(2, pool.getCallbackUrls(SITE_KEY).size());
+    }
+
+    @Test
+    public void leastRecentlyUsedClientOfTheSiteIsEvicted() throws Exception {
+        final SAML2ClientPool pool = new SAML2ClientPool(100, 2, 0, Runnable::run);
+        get(pool, "https://a.example.com/callback.saml");
+        Thread.sleep(2);
+        get(pool, "https://b.example.com/callback.saml");
+        Thread.sleep(2);
+        get(pool, "https://a.example.com/callback.saml");
+        Thread.sleep(2);
+        get(pool, "https://c.example.com/callback.saml");
+
+        final List<String> callbackUrls = pool.getCallbackUrls(SITE_KEY);
+        assertEquals(new HashSet<>(List.of("https://a.example.com/callback.saml", "https://c.example.com/callback.saml")), new HashSet<>(callbackUrls));
+        assertEquals(3, builds.get());
+    }
+
+    @Test
+    public void replaceSiteSwapsAllClientsOfTheSite() throws Exception {
+        final SAML2ClientPool pool = new SAML2ClientPool(100, 2, 0, Runnable::run);
+        get(pool, "https://a.example.com/callback.saml");
+        get(pool, "https://b.example.com/callback.saml");
+        final Map<String, SAML2Client> clients = new LinkedHashMap<>();
+        clients.put("https://a.example.com/callback.saml", client("https://a.example.com/callback.saml"));
+        clients.put("https://c.example.com/callback.saml", client("https://c.example.com/callback.saml"));
+        pool.replaceSite(SITE_KEY, config, clients);
+
+        assertEquals(clients.keySet(), new HashSet<>(pool.getCallbackUrls(SITE_KEY)));
+        assertSame(clients.get("https://a.example.com/callback.saml"), get(pool, "https://a.example.com/callback.saml"));
+        assertSame(clients.get("https://c.example.com/callback.saml"), get(pool, "https://c.example.com/callback.saml"));
+        assertEquals(2, builds.get());
+    }
+
+    private static SAML2Client client(String callbackUrl) {
+        final SAML2Client client = new SAML2Client(new SAML2Configuration());
+        client.setCallbackUrl(callbackUrl);
+        return client;
+    }
+
+    private SAML2Client get(SAML2ClientPool pool, String callbackUrl) throws SAMLConfigException {
+        return pool.get(SITE_KEY, callbackUrl, config, () -> {
+            builds.incrementAndGet();
+            return client(callbackUrl);
+        }).getClient();
+    }
+}
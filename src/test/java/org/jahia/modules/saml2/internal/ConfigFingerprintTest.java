@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.jahiaauth.service.ConnectorConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Changes of the security material detected by {@link ConfigFingerprint}.
+ */
+public class ConfigFingerprintTest {
+
+    @Test
+    public void keyStoresWithTheSameHashCodeDiffer() {
+        // same length and String.hashCode()
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        assertNotEquals(ConfigFingerprint.of(config(SAML2Constants.KEY_STORE, "Aa")), ConfigFingerprint.of(config(SAML2Constants.KEY_STORE, "BB")));
+    }
+
+    @Test
+    public void valuesAreNotMergedAcrossProperties() {
+        final ConnectorConfig first = config(SAML2Constants.KEY_STORE_PASS, "ab");
+        when(first.getProperty(SAML2Constants.PRIVATE_KEY_PASS)).thenReturn("c");
+        final ConnectorConfig second = config(SAML2Constants.KEY_STORE_PASS, "a");
+        when(second.getProperty(SAML2Constants.PRIVATE_KEY_PASS)).thenReturn("bc");
+        assertNotEquals(ConfigFingerprint.of(first), ConfigFingerprint.of(second));
+    }
+
+    @Test
+    public void sameValuesGiveTheSameFingerprint() {
+        assertEquals(ConfigFingerprint.of(config(SAML2Constants.KEY_STORE, "key store")), ConfigFingerprint.of(config(SAML2Constants.KEY_STORE, "key store")));
+    }
+
+    private static ConnectorConfig config(String property, String value) {
+        final ConnectorConfig config = mock(ConnectorConfig.class);
+        when(config.getProperty(property)).thenReturn(value);
+        return config;
+    }
+}
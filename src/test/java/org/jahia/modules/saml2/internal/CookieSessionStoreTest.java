@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.junit.Test;
+import org.pac4j.core.context.JEEContext;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SAML state kept by {@link CookieSessionStore} across requests.
+ */
+public class CookieSessionStoreTest {
+
+    private static final long MAX_AGE = 60000;
+
+    private final CookieSessionStore store = new CookieSessionStore("cluster secret", MAX_AGE);
+
+    @Test
+    public void stateRoundTripsThroughTheCookie() {
+        final JEEContext first = context(null);
+        store.set(first, "requestId", "_abc");
+        store.set(first, "relayState", "/home");
+        store.save(first);
+        assertNull(first.getNativeRequest().getSession(false));
+
+        final JEEContext second = context(cookieValue(first));
+        assertEquals(Optional.of("_abc"), store.get(second, "requestId"));
+        assertEquals(Optional.of("/home"), store.get(second, "relayState"));
+        assertNull(second.getNativeRequest().getSession(false));
+    }
+
+    @Test
+    public void cookieIsSentCrossSite() {
+        // the IdP posts back from another site, even when the proxy in front of Jahia terminates TLS
+        final JEEContext context = context(null);
+        store.set(context, "requestId", "_abc");
+        store.save(context);
+        final String header = setCookie(context);
+        assertTrue(header, header.startsWith(CookieSessionStore.COOKIE_NAME + '='));
+        assertTrue(header, header.contains("; Path=/cms"));
+        assertTrue(header, header.contains("; Max-Age=60"));
+        assertTrue(header, header.contains("; Secure"));
+        assertTrue(header, header.contains("; HttpOnly"));
+        assertTrue(header, header.contains("; SameSite=None"));
+    }
+
+    @Test
+    public void unchangedStateIsNotWritten() {
+        final JEEContext context = context(null);
+        assertEquals(Optional.empty(), store.get(context, "requestId"));
+        store.save(context);
+        assertNull(setCookie(context));
+    }
+
+    @Test
+    public void tamperedCookieIsIgnored() {
+        final JEEContext first = context(null);
+        store.set(first, "requestId", "_abc");
+        store.save(first);
+        final char[] value = cookieValue(first).toCharArray();
+        value[value.length / 2] = value[value.length / 2] == 'A' ? 'B' : 'A';
+
+        assertEquals(Optional.empty(), store.get(context(new String(value)), "requestId"));
+    }
+
+    @Test
+    public void cookieOfAnotherSecretIsIgnored() {
+        final JEEContext first = context(null);
+        store.set(first, "requestId", "_abc");
+        store.save(first);
+
+        final CookieSessionStore other = new CookieSessionStore("other secret", MAX_AGE);
+        assertEquals(Optional.empty(), other.get(context(cookieValue(first)), "requestId"));
+    }
+
+    @Test
+    public void expiredCookieIsIgnored() throws InterruptedException {
+        final CookieSessionStore shortLived = new CookieSessionStore("cluster secret", 50);
+        final JEEContext first = context(null);
+        shortLived.set(first, "requestId", "_abc");
+        shortLived.save(first);
+        final String value = cookieValue(first);
+        assertEquals(Optional.of("_abc"), shortLived.get(context(value), "requestId"));
+
+        Thread.sleep(100);
+        assertEquals(Optional.empty(), shortLived.get(context(value), "requestId"));
+    }
+
+    @Test
+    public void entriesBeyondTheCapGoToTheSession() {
+        final JEEContext first = context(null);
+        for (int i = 0; i < 33; i++) {
+            store.set(first, "key" + i, "value" + i);
+        }
+        store.save(first);
+        assertNotNull(first.getNativeRequest().getSession(false));
+        assertEquals("value32", first.getNativeRequest().getSession(false).getAttribute("key32"));
+
+        final JEEContext second = context(cookieValue(first));
+        assertEquals(Optional.of("value0"), store.get(second, "key0"));
+        assertEquals(Optional.of("value31"), store.get(second, "key31"));
+        assertEquals(Optional.empty(), store.get(second, "key32"));
+    }
+
+    @Test
+    public void largeStateGoesToTheSession() {
+        final StringBuilder large = new StringBuilder();
+        while (large.length() < 4000) {
+            large.append("0123456789");
+        }
+        final JEEContext context = context(null);
+        store.set(context, "requestId", large.toString());
+        store.save(context);
+
+        assertEquals(large.toString(), context.getNativeRequest().getSession(false).getAttribute("requestId"));
+        assertEquals("", cookieValue(context));
+        assertTrue(setCookie(context).contains("; Max-Age=0"));
+    }
+
+    @Test
+    public void destroyedStateClearsTheCookie() {
+        final JEEContext first = context(null);
+        store.set(first, "requestId", "_abc");
+        store.save(first);
+
+        final JEEContext second = context(cookieValue(first));
+        assertTrue(store.destroySession(second));
+        store.save(second);
+        assertEquals("", cookieValue(second));
+        assertFalse(store.get(context(""), "requestId").isPresent());
+    }
+
+    @Test
+    public void blankSecretIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new CookieSessionStore(" ", MAX_AGE));
+    }
+
+    private static JEEContext context(String cookie) {
+        final StubHttpServletRequest request = new StubHttpServletRequest("GET", "http", "localhost", 8080, "/cms", "/cms/home.html");
+        if (cookie != null) {
+            request.cookie(CookieSessionStore.COOKIE_NAME, cookie);
+        }
+        return new JEEContext(request, new StubHttpServletResponse());
+    }
+
+    private static String setCookie(JEEContext context) {
+        return context.getNativeResponse().getHeader("Set-Cookie");
+    }
+
+    private static String cookieValue(JEEContext context) {
+        final String header = setCookie(context);
+        return header.substring(CookieSessionStore.COOKIE_NAME.length() + 1, header.indexOf(';'));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.pac4j.saml.credentials.authenticator.SAML2Authenticator;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Logout requests of the IdP ending the sessions indexed by {@link SessionIndexRegistry}, through
+ * {@link BatchLogoutValidator}.
+ */
+public class IdPLogoutTest {
+
+    private SAML2Fixture fixture;
+    private String siteKey;
+
+    @Before
+    public void setUp() {
+        fixture = new SAML2Fixture(2, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        siteKey = fixture.getSiteKeys().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void sessionIndexEndsOnlyItsSession() throws Exception {
+        final StubHttpSession first = login(siteKey, "jdoe");
+        final StubHttpSession second = login(siteKey, "jdoe");
+        final StubHttpSession other = login(siteKey, "asmith");
+
+        logout(siteKey, "jdoe", getSessionIndex(first));
+        assertTrue(first.isInvalidated());
+        assertFalse(second.isInvalidated());
+        assertFalse(other.isInvalidated());
+        assertEquals(2, fixture.getUtil().getSessionRegistry().size());
+    }
+
+    @Test
+    public void nameIdEndsAllTheSessionsOfTheUser() throws Exception {
+        final StubHttpSession first = login(siteKey, "jdoe");
+        final StubHttpSession second = login(siteKey, "jdoe");
+        final StubHttpSession other = login(siteKey, "asmith");
+
+        logout(siteKey, "jdoe");
+        assertTrue(first.isInvalidated());
+        assertTrue(second.isInvalidated());
+        assertFalse(other.isInvalidated());
+        assertEquals(1, fixture.getUtil().getSessionRegistry().size());
+    }
+
+    @Test
+    public void allTheSessionIndexesOfTheRequestAreEnded() throws Exception {
+        final StubHttpSession first = login(siteKey, "jdoe");
+        final StubHttpSession second = login(siteKey, "jdoe");
+        final StubHttpSession third = login(siteKey, "jdoe");
+
+        logout(siteKey, "jdoe", getSessionIndex(first), getSessionIndex(third));
+        assertTrue(first.isInvalidated());
+        assertFalse(second.isInvalidated());
+        assertTrue(third.isInvalidated());
+    }
+
+    @Test
+    public void sessionsOfOtherSitesAreKept() throws Exception {
+        final String otherSite = fixture.getSiteKeys().get(1);
+        final StubHttpSession session = login(siteKey, "jdoe");
+        final StubHttpSession otherSiteSession = login(otherSite, "jdoe");
+
+        logout(siteKey, "jdoe");
+        assertTrue(session.isInvalidated());
+        assertFalse(otherSiteSession.isInvalidated());
+    }
+
+    private StubHttpSession login(String site, String nameId) throws Exception {
+        final StubHttpSession session = new StubHttpSession();
+        final String samlResponse = fixture.getIdentityProvider().createResponse(fixture.getAssertionConsumerServiceUrl(site),
+                fixture.getServiceProviderEntityId(site), null, nameId, Collections.singletonMap(SAML2Fixture.USER_ID_FIELD, nameId + "@example.com"));
+        final StubHttpServletRequest request = fixture.callbackRequest(site, session, samlResponse);
+        fixture.getFilter().doFilter(request, new StubHttpServletResponse(), SAML2Fixture.NO_CHAIN);
+        request.awaitAsync();
+        assertEquals(site, fixture.getUtil().getSessionRegistry().find(session).getSiteKey());
+        return session;
+    }
+
+    private void logout(String site, String nameId, String... sessionIndexes) throws Exception {
+        final String sloUrl = fixture.getAssertionConsumerServiceUrl(site) + "&logoutendpoint=true";
+        final StubHttpServletRequest request = fixture.idpLogoutRequest(site, new StubHttpSession(),
+                fixture.getIdentityProvider().createLogoutRequest(sloUrl, nameId, sessionIndexes));
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(request, response, SAML2Fixture.NO_CHAIN);
+        request.awaitAsync();
+        assertEquals(200, response.getStatus());
+    }
+
+    private String getSessionIndex(StubHttpSession session) {
+        return (String) fixture.getUtil().getSessionRegistry().find(session).toProfile().getAuthenticationAttribute(SAML2Authenticator.SESSION_INDEX);
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.TestIdentityProvider;
+import com.sun.net.httpserver.HttpServer;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.pac4j.core.exception.TechnicalException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Trust checks and lifecycle of the IdP metadata fetched by {@link IdPMetadataRefresher}, served by a local HTTP stand-in
+ * of the IdP.
+ */
+public class IdPMetadataRefresherTest {
+
+    private TestIdentityProvider identityProvider;
+    private HttpServer server;
+    private IdPMetadataRefresher refresher;
+    private volatile byte[] published;
+    private volatile CountDownLatch blocked;
+
+    @Before
+    public void setUp() throws IOException {
+        identityProvider = new TestIdentityProvider("https://idp.example.com/metadata", "https://idp.example.com/sso");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/metadata", exchange -> {
+            final CountDownLatch latch = blocked;
+            if (latch != null) {
+                try {
+                    latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final byte[] body = published;
+            exchange.getResponseHeaders().set("Content-Type", "application/samlmetadata+xml");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+        refresher = new IdPMetadataRefresher(null, 60_000, 3_600_000, 5_000);
+    }
+
+    @After
+    public void tearDown() {
+        refresher.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    public void signedMetadataOverHttpIsAccepted() {
+        published = identityProvider.createSignedMetadata(new DateTime().plusDays(1));
+        assertEquals(identityProvider.getEntityId(), refresher.get(getUrl(), identityProvider.getCertificate()).getEntityId());
+    }
+
+    @Test
+    public void unsignedMetadataOverHttpIsRejected() {
+        published = identityProvider.getMetadata();
+        assertRejected(null);
+        assertRejected(identityProvider.getCertificate());
+    }
+
+    @Test
+    public void tamperedMetadataIsRejected() {
+        published = new String(identityProvider.createSignedMetadata(null), StandardCharsets.UTF_8)
+                .replace("https://idp.example.com/sso", "https://attacker.example.com/sso").getBytes(StandardCharsets.UTF_8);
+        assertRejected(identityProvider.getCertificate());
+    }
+
+    @Test
+    public void metadataSignedByAnotherKeyIsRejected() {
+        published = identityProvider.createSignedMetadata(null);
+        assertRejected(new TestIdentityProvider("https://other.example.com/metadata", "https://other.example.com/sso").getCertificate());
+    }
+
+    @Test
+    public void expiredMetadataIsRejected() {
+        published = identityProvider.createSignedMetadata(new DateTime().minusMinutes(1));
+        assertRejected(identityProvider.getCertificate());
+    }
+
+    @Test
+    public void unusedMetadataIsReleased() {
+        published = identityProvider.createSignedMetadata(null);
+        refresher.get(getUrl(), identityProvider.getCertificate());
+        refresher.retain(Collections.singleton(IdPMetadataRefresher.getKey(getUrl(), identityProvider.getCertificate())));
+        assertEquals(1, refresher.getSourceCount());
+        refresher.retain(Collections.singleton(IdPMetadataRefresher.getKey(getUrl(), null)));
+        assertEquals(0, refresher.getSourceCount());
+    }
+
+    @Test
+    public void slowRefreshDoesNotBlockClients() throws Exception {
+        published = identityProvider.createSignedMetadata(null);
+        final Path cacheDirectory = Files.createTempDirectory("saml2-metadata");
+        try {
+            final IdPMetadataRefresher first = new IdPMetadataRefresher(cacheDirectory.toFile(), 60_000, 3_600_000, 5_000);
+            first.get(getUrl(), identityProvider.getCertificate());
+            first.shutdown();
+
+            // the copy on disk is loaded and refreshed right away, from an IdP that does not answer
+            blocked = new CountDownLatch(1);
+            final IdPMetadataRefresher second = new IdPMetadataRefresher(cacheDirectory.toFile(), 60_000, 3_600_000, 5_000);
+            try {
+                second.get(getUrl(), identityProvider.getCertificate());
+                Thread.sleep(200);
+                final long start = System.nanoTime();
+                assertEquals(identityProvider.getEntityId(), second.get(getUrl(), identityProvider.getCertificate()).getEntityId());
+                assertTrue("Client blocked by a refresh in progress", System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            } finally {
+                blocked.countDown();
+                second.shutdown();
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(cacheDirectory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private void assertRejected(String certificate) {
+        try {
+            refresher.get(getUrl(), certificate);
+            fail("Untrusted IdP metadata accepted");
+        } catch (TechnicalException e) {
+            // expected
+        }
+    }
+
+    private String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/metadata";
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Logins of returning users with unchanged attributes, whose user mappers only receive the user identifier.
+ */
+public class LoginFingerprintTest {
+
+    private SAML2Fixture fixture;
+    private String siteKey;
+
+    @Before
+    public void setUp() {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, SAML2Fixture.settings("callback.fingerprint.enabled", "true"));
+        siteKey = fixture.getSiteKeys().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void unchangedAttributesOnlyPassTheUserId() throws Exception {
+        final Map<String, String> attributes = new HashMap<>();
+        attributes.put(SAML2Fixture.USER_ID_FIELD, "jdoe@example.com");
+        attributes.put("department", "sales");
+
+        login(attributes);
+        assertEquals("sales", fixture.getLastMapperProperties().get("department"));
+
+        login(attributes);
+        assertEquals(Collections.singletonMap(SAML2Fixture.USER_ID_FIELD, "jdoe@example.com"), fixture.getLastMapperProperties());
+        assertEquals(1, fixture.getUtil().getMetrics().getGlobal().getSkippedUserUpdates());
+
+        attributes.put("department", "support");
+        login(attributes);
+        assertEquals("support", fixture.getLastMapperProperties().get("department"));
+    }
+
+    @Test
+    public void disabledByDefault() throws Exception {
+        fixture.close();
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        final Map<String, String> attributes = Collections.singletonMap(SAML2Fixture.USER_ID_FIELD, "jdoe@example.com");
+        login(attributes);
+        login(attributes);
+        assertTrue(fixture.getLastMapperProperties().size() > 1);
+    }
+
+    private void login(Map<String, String> attributes) throws Exception {
+        final String samlResponse = fixture.getIdentityProvider().createResponse(fixture.getAssertionConsumerServiceUrl(siteKey),
+                fixture.getServiceProviderEntityId(siteKey), null, "jdoe", attributes);
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(fixture.callbackRequest(siteKey, new StubHttpSession(), samlResponse), response, SAML2Fixture.NO_CHAIN);
+        assertEquals(HttpServletResponse.SC_FOUND, response.getStatus());
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Attempts recorded by the {@link LoginJournal}, which must not keep personal data beyond a hash of the subject.
+ */
+public class LoginJournalTest {
+
+    private SAML2Fixture fixture;
+    private String siteKey;
+
+    @Before
+    public void setUp() {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        siteKey = fixture.getSiteKeys().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void failuresOnlyKeepTheExceptionType() throws Exception {
+        final String samlResponse = fixture.getIdentityProvider().createResponse("https://elsewhere.example.com/callback.saml",
+                fixture.getServiceProviderEntityId(siteKey), null, "jdoe@example.com",
+                Collections.singletonMap(SAML2Fixture.USER_ID_FIELD, "jdoe@example.com"));
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(fixture.callbackRequest(siteKey, new StubHttpSession(), samlResponse), response, SAML2Fixture.NO_CHAIN);
+
+        final List<LoginJournal.Attempt> attempts = fixture.getUtil().getMetrics().getJournal().find(siteKey, null, 10);
+        assertEquals(1, attempts.size());
+        final String failure = attempts.get(0).getFailure();
+        assertNotNull(failure);
+        assertFalse("Exception message recorded: " + failure, failure.contains(" ") || failure.contains("example.com"));
+    }
+
+    @Test
+    public void successfulLoginOnlyKeepsASubjectHash() throws Exception {
+        final String samlResponse = fixture.getIdentityProvider().createResponse(fixture.getAssertionConsumerServiceUrl(siteKey),
+                fixture.getServiceProviderEntityId(siteKey), null, "jdoe@example.com",
+                Collections.singletonMap(SAML2Fixture.USER_ID_FIELD, "jdoe@example.com"));
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(fixture.callbackRequest(siteKey, new StubHttpSession(), samlResponse), response, SAML2Fixture.NO_CHAIN);
+
+        final LoginJournal.Attempt attempt = fixture.getUtil().getMetrics().getJournal().find(siteKey, null, 10).get(0);
+        assertEquals("success", attempt.getOutcome());
+        assertTrue(attempt.getSubject().matches("[0-9a-f]+"));
+        assertFalse(attempt.getPhases().isEmpty());
+    }
+}
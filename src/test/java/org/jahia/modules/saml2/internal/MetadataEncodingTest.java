@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Content negotiation of the gzip encoding of the service provider metadata.
+ */
+public class MetadataEncodingTest {
+
+    private SAML2Fixture fixture;
+    private String siteKey;
+
+    @Before
+    public void setUp() {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        siteKey = fixture.getSiteKeys().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void gzipWhenAccepted() throws Exception {
+        for (String acceptEncoding : new String[]{"gzip", "gzip, deflate", "deflate, GZIP", "gzip;q=0.5", "gzip; q=0.001",
+                "*", "br, *;q=0.1", "x-gzip"}) {
+            assertEquals(acceptEncoding, "gzip", getContentEncoding(acceptEncoding));
+        }
+    }
+
+    @Test
+    public void identityWhenGzipIsNotAccepted() throws Exception {
+        for (String acceptEncoding : new String[]{null, "", "deflate, br", "gzip;q=0", "gzip; q=0", "gzip;q=0.0", "gzip;Q=0.000",
+                "*;q=0", "gzip;q=0, *", "gzip;q=invalid"}) {
+            assertEquals(acceptEncoding, null, getContentEncoding(acceptEncoding));
+        }
+    }
+
+    private String getContentEncoding(String acceptEncoding) throws Exception {
+        final StubHttpServletRequest request = fixture.metadataRequest(siteKey);
+        if (acceptEncoding != null) {
+            request.header("Accept-Encoding", acceptEncoding);
+        }
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(request, response, SAML2Fixture.NO_CHAIN);
+        assertEquals(200, response.getStatus());
+        return response.getHeader("Content-Encoding");
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.crypto.XMLSigningUtil;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Inflater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Redirect URLs of the AuthnRequests built by {@link RedirectUrlBuilder}, checked as the IdP would.
+ */
+public class RedirectUrlBuilderTest {
+
+    private static final Pattern CERTIFICATE = Pattern.compile("<ds:X509Certificate>([^<]+)</ds:X509Certificate>");
+
+    private SAML2Fixture fixture;
+    private String siteKey;
+
+    @Before
+    public void setUp() {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_REDIRECT_BINDING_URI, null);
+        siteKey = fixture.getSiteKeys().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    public void signatureVerifiesWithTheServiceProviderCertificate() throws Exception {
+        final String url = connect();
+        final String query = url.substring(url.indexOf('?') + 1);
+        final Map<String, String> parameters = parse(query);
+        assertNotNull(parameters.get("SigAlg"));
+        assertNotNull(parameters.get("Signature"));
+
+        final byte[] signed = query.substring(0, query.indexOf("&Signature=")).getBytes(StandardCharsets.US_ASCII);
+        final byte[] signature = Base64Support.decode(parameters.get("Signature"));
+        final BasicX509Credential credential = new BasicX509Credential(getServiceProviderCertificate());
+        assertTrue(XMLSigningUtil.verifyWithURI(credential, parameters.get("SigAlg"), signature, signed));
+
+        // any change of the signed parameters breaks the signature
+        final byte[] tampered = signed.clone();
+        tampered[tampered.length / 2] ^= 1;
+        assertFalse(XMLSigningUtil.verifyWithURI(credential, parameters.get("SigAlg"), signature, tampered));
+    }
+
+    @Test
+    public void requestInflatesToTheAuthnRequest() throws Exception {
+        final String url = connect();
+        assertTrue(url, url.startsWith("https://idp.example.com/idp/sso?SAMLRequest="));
+        final String request = inflate(Base64Support.decode(parse(url.substring(url.indexOf('?') + 1)).get("SAMLRequest")));
+        assertTrue(request, request.contains("AuthnRequest"));
+        assertTrue(request, request.contains(fixture.getServiceProviderEntityId(siteKey)));
+    }
+
+    @Test
+    public void endpointParametersAreKept() throws Exception {
+        final String url = new RedirectUrlBuilder().build("https://idp.example.com/sso?tenant=a&SAMLRequest=old&b=c",
+                "<samlp:AuthnRequest/>".getBytes(StandardCharsets.UTF_8), 21, "/home", null);
+        assertTrue(url, url.startsWith("https://idp.example.com/sso?tenant=a&b=c&SAMLRequest="));
+        final Map<String, String> parameters = parse(url.substring(url.indexOf('?') + 1));
+        assertEquals("<samlp:AuthnRequest/>", inflate(Base64Support.decode(parameters.get("SAMLRequest"))));
+        assertEquals("/home", parameters.get("RelayState"));
+        assertFalse(parameters.containsKey("Signature"));
+    }
+
+    private String connect() throws Exception {
+        final StubHttpServletRequest request = fixture.connectRequest(siteKey, new StubHttpSession());
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(request, response, SAML2Fixture.NO_CHAIN);
+        assertEquals(HttpServletResponse.SC_FOUND, response.getStatus());
+        return response.getRedirectedUrl();
+    }
+
+    private X509Certificate getServiceProviderCertificate() throws Exception {
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(fixture.metadataRequest(siteKey), response, SAML2Fixture.NO_CHAIN);
+        final Matcher matcher = CERTIFICATE.matcher(response.getContentAsString());
+        assertTrue(matcher.find());
+        return (X509Certificate) CertificateFactory.getInstance("X.509")
+                .generateCertificate(new ByteArrayInputStream(Base64Support.decode(matcher.group(1).replaceAll("\\s", ""))));
+    }
+
+    private static Map<String, String> parse(String query) {
+        final Map<String, String> parameters = new LinkedHashMap<>();
+        for (String parameter : query.split("&")) {
+            final int equals = parameter.indexOf('=');
+            parameters.put(parameter.substring(0, equals), URLDecoder.decode(parameter.substring(equals + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static String inflate(byte[] deflated) throws Exception {
+        final Inflater inflater = new Inflater(true);
+        inflater.setInput(deflated);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        while (!inflater.finished()) {
+            final int count = inflater.inflate(buffer);
+            if (count == 0 && inflater.needsInput()) {
+                break;
+            }
+            out.write(buffer, 0, count);
+        }
+        inflater.end();
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.InMemoryReplayStore;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Replay detection of callback responses, on one node and across nodes sharing a {@link InMemoryReplayStore}, and
+ * bounds of the node replay cache.
+ */
+public class ReplayCacheTest {
+
+    private SAML2Fixture node;
+    private SAML2Fixture otherNode;
+    private String siteKey;
+
+    @Before
+    public void setUp() {
+        node = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        siteKey = node.getSiteKeys().get(0);
+    }
+
+    @After
+    public void tearDown() {
+        node.close();
+        if (otherNode != null) {
+            otherNode.close();
+        }
+    }
+
+    @Test
+    public void replayedResponseIsRejected() throws Exception {
+        final String response = createResponse(node);
+        assertEquals(HttpServletResponse.SC_FOUND, callback(node, response).getStatus());
+        final StubHttpServletResponse replay = callback(node, response);
+        assertNotEquals("Replayed response accepted", HttpServletResponse.SC_FOUND, replay.getStatus());
+        assertTrue(node.getUtil().getReplayCache().getHitCount() > 0);
+    }
+
+    @Test
+    public void replayOnAnotherNodeIsRejected() throws Exception {
+        final InMemoryReplayStore store = new InMemoryReplayStore();
+        node.setReplayStore(store);
+        otherNode = new SAML2Fixture(node.getIdentityProvider(), 1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        otherNode.setReplayStore(store);
+
+        final String response = createResponse(node);
+        assertEquals(HttpServletResponse.SC_FOUND, callback(node, response).getStatus());
+        assertNotEquals("Response replayed on another node accepted", HttpServletResponse.SC_FOUND, callback(otherNode, response).getStatus());
+        assertTrue(store.getReplays() > 0);
+        assertEquals("Fresh response rejected by the other node", HttpServletResponse.SC_FOUND,
+                callback(otherNode, createResponse(otherNode)).getStatus());
+    }
+
+    @Test
+    public void forgedResponseIsNotRecorded() throws Exception {
+        final String response = createResponse(node);
+        final String forged = Base64.getEncoder().encodeToString(new String(Base64.getDecoder().decode(response), StandardCharsets.UTF_8)
+                .replace("jdoe@example.com", "admin@example.com").getBytes(StandardCharsets.UTF_8));
+        assertNotEquals("Forged response accepted", HttpServletResponse.SC_FOUND, callback(node, forged).getStatus());
+        assertEquals("Forged response recorded in the replay cache", 0, node.getUtil().getReplayCache().getSize());
+        assertEquals(HttpServletResponse.SC_FOUND, callback(node, response).getStatus());
+        assertTrue(node.getUtil().getReplayCache().getSize() > 0);
+    }
+
+    @Test
+    public void oldestEntriesAreEvictedWhenFull() {
+        final BoundedReplayCache cache = new BoundedReplayCache(16, () -> null);
+        final long expiration = System.currentTimeMillis() + 60_000;
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue("New message rejected", cache.check("message-" + i, expiration));
+        }
+        assertTrue("Cache exceeded its capacity", cache.getSize() <= 16);
+        assertTrue(cache.getEvictionCount() > 0);
+        assertFalse("Latest message evicted", cache.check("message-9999", expiration));
+    }
+
+    @Test
+    public void expiredEntriesAreDroppedFirst() throws InterruptedException {
+        final BoundedReplayCache cache = new BoundedReplayCache(16, () -> null);
+        for (int i = 0; i < 16; i++) {
+            cache.check("short-" + i, System.currentTimeMillis() + 100);
+        }
+        final long evictions = cache.getEvictionCount();
+        Thread.sleep(200);
+        assertTrue(cache.check("late", System.currentTimeMillis() + 60_000));
+        assertEquals("Unexpired entry evicted while expired ones remained", evictions, cache.getEvictionCount());
+    }
+
+    private String createResponse(SAML2Fixture fixture) throws Exception {
+        return fixture.getIdentityProvider().createResponse(fixture.getAssertionConsumerServiceUrl(siteKey),
+                fixture.getServiceProviderEntityId(siteKey), null, "jdoe", Collections.singletonMap(SAML2Fixture.USER_ID_FIELD, "jdoe@example.com"));
+    }
+
+    private StubHttpServletResponse callback(SAML2Fixture fixture, String samlResponse) throws IOException, ServletException {
+        final StubHttpServletResponse response = new StubHttpServletResponse();
+        fixture.getFilter().doFilter(fixture.callbackRequest(siteKey, new StubHttpSession(), samlResponse), response, SAML2Fixture.NO_CHAIN);
+        return response;
+    }
+}
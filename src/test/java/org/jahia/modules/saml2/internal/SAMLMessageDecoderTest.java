@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+import org.apache.commons.lang.StringUtils;
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.modules.saml2.test.StubHttpServletResponse;
+import org.jahia.modules.saml2.test.StubHttpSession;
+import org.jahia.modules.saml2.test.TestIdentityProvider;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.opensaml.messaging.decoder.MessageDecodingException;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.Response;
+import org.pac4j.core.context.JEEContext;
+
+import javax.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Size and element limits of the SAML messages decoded by {@link SAMLMessageDecoder}.
+ */
+public class SAMLMessageDecoderTest {
+
+    private static final int MAX_SIZE = 8192;
+    private static final String ACS_URL = "http://localhost:8080/sites/site0/home.callback.saml";
+
+    private static TestIdentityProvider identityProvider;
+    private static SAMLMessageDecoder decoder;
+
+    @BeforeClass
+    public static void setUpClass() {
+        identityProvider = new TestIdentityProvider("https://idp.example.com/idp", "https://idp.example.com/idp/sso");
+        decoder = new SAMLMessageDecoder(MAX_SIZE, 100, OpenSAMLBootstrap.bootstrap(2));
+    }
+
+    @Test
+    public void responseIsDecoded() throws Exception {
+        final JEEContext context = context();
+        assertTrue(decoder.decode(createResponse(10), context) instanceof Response);
+        assertTrue((Long) context.getNativeRequest().getAttribute(SAMLMessageDecoder.DECODED_SIZE_ATTRIBUTE) < MAX_SIZE);
+    }
+
+    @Test
+    public void oversizedParameterIsRejectedBeforeDecoding() {
+        final String samlResponse = createResponse(MAX_SIZE);
+        assertTrue(samlResponse.length() > decoder.getMaxEncodedLength());
+        final JEEContext context = context();
+        assertLimitExceeded(samlResponse, context);
+        assertNull(context.getNativeRequest().getAttribute(SAMLMessageDecoder.DECODED_SIZE_ATTRIBUTE));
+    }
+
+    @Test
+    public void oversizedMessageIsRejectedWhileParsing() {
+        // raw XML is not bounded by the parameter length, only by the bytes read by the parser
+        final String xml = new String(Base64Support.decode(createResponse(MAX_SIZE)), StandardCharsets.UTF_8);
+        assertLimitExceeded(xml, context());
+    }
+
+    @Test
+    public void tooManyElementsAreRejected() {
+        final SAMLMessageDecoder strict = new SAMLMessageDecoder(MAX_SIZE, 5, decoder.getParserPool());
+        assertLimitExceeded(strict, createResponse(10), context());
+    }
+
+    @Test
+    public void oversizedCallbackIsRejected() throws Exception {
+        try (SAML2Fixture fixture = new SAML2Fixture(identityProvider, 1, SAMLConstants.SAML2_POST_BINDING_URI,
+                SAML2Fixture.settings("callback.maxMessageSize", Integer.toString(MAX_SIZE)))) {
+            final String siteKey = fixture.getSiteKeys().get(0);
+            final String acsUrl = fixture.getAssertionConsumerServiceUrl(siteKey);
+            final String audience = fixture.getServiceProviderEntityId(siteKey);
+
+            // decoded size over the limit, body within the request limit
+            final StubHttpServletRequest request = fixture.callbackRequest(siteKey, new StubHttpSession(),
+                    identityProvider.createResponse(acsUrl, audience, null, "jdoe", attributes(MAX_SIZE)));
+            assertTrue(request.getContentLengthLong() <= fixture.getUtil().getMessageDecoder().getMaxRequestLength());
+            final StubHttpServletResponse response = new StubHttpServletResponse();
+            fixture.getFilter().doFilter(request, response, SAML2Fixture.NO_CHAIN);
+            request.awaitAsync();
+            assertEquals(HttpServletResponse.SC_BAD_REQUEST, response.getStatus());
+
+            // body over the request limit, rejected before its parameters are read
+            final StubHttpServletRequest large = fixture.callbackRequest(siteKey, new StubHttpSession(),
+                    identityProvider.createResponse(acsUrl, audience, null, "jdoe", attributes(4 * MAX_SIZE)));
+            final StubHttpServletResponse largeResponse = new StubHttpServletResponse();
+            fixture.getFilter().doFilter(large, largeResponse, SAML2Fixture.NO_CHAIN);
+            assertEquals(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE, largeResponse.getStatus());
+
+            assertEquals(0, fixture.getUtil().getSessionRegistry().size());
+        }
+    }
+
+    private static void assertLimitExceeded(String message, JEEContext context) {
+        assertLimitExceeded(decoder, message, context);
+    }
+
+    private static void assertLimitExceeded(SAMLMessageDecoder messageDecoder, String message, JEEContext context) {
+        final MessageDecodingException e = assertThrows(MessageDecodingException.class, () -> messageDecoder.decode(message, context));
+        assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof MessageLimitExceededException);
+    }
+
+    private static String createResponse(int attributeLength) {
+        return identityProvider.createResponse(ACS_URL, "urn:jahia:site0", null, "jdoe", attributes(attributeLength));
+    }
+
+    private static Map<String, String> attributes(int length) {
+        return Collections.singletonMap(SAML2Fixture.USER_ID_FIELD, StringUtils.repeat("x", length) + "@example.com");
+    }
+
+    private static JEEContext context() {
+        return new JEEContext(new StubHttpServletRequest("POST", "http", "localhost", 8080, "/cms", "/sites/site0/home.callback.saml"),
+                new StubHttpServletResponse());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.internal;
+
+import org.jahia.modules.saml2.test.SAML2Fixture;
+import org.jahia.modules.saml2.test.StubHttpServletRequest;
+import org.jahia.services.content.JCRTemplate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.MockedStatic;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Cache of the site keys resolved from the server name of requests without a siteKey parameter.
+ */
+public class SiteKeyCacheTest {
+
+    private SAML2Fixture fixture;
+    private MockedStatic<JCRTemplate> jcrTemplate;
+
+    @Before
+    public void setUp() {
+        fixture = new SAML2Fixture(1, SAMLConstants.SAML2_POST_BINDING_URI, null);
+        jcrTemplate = fixture.mockJCRTemplate();
+    }
+
+    @After
+    public void tearDown() {
+        jcrTemplate.close();
+        fixture.close();
+    }
+
+    @Test
+    public void unknownServerNamesDoNotEvictKnownOnes() {
+        final String siteKey = fixture.getSiteKeys().get(0);
+        assertEquals(siteKey, resolve(SAML2Fixture.getServerName(siteKey)));
+        for (int i = 0; i < 5000; i++) {
+            assertNull(resolve("random" + i + ".example.org"));
+        }
+        final int lookups = fixture.getServerNameLookups();
+        assertEquals(siteKey, resolve(SAML2Fixture.getServerName(siteKey)));
+        assertEquals("Known server name looked up again", lookups, fixture.getServerNameLookups());
+    }
+
+    @Test
+    public void unknownServerNamesAreCached() {
+        assertNull(resolve("random.example.org"));
+        assertNull(resolve("random.example.org"));
+        assertEquals(1, fixture.getServerNameLookups());
+    }
+
+    @Test
+    public void invalidationDropsCachedServerNames() {
+        final String siteKey = fixture.getSiteKeys().get(0);
+        resolve(SAML2Fixture.getServerName(siteKey));
+        resolve("random.example.org");
+        fixture.getUtil().invalidateSiteKeyCache();
+        resolve(SAML2Fixture.getServerName(siteKey));
+        resolve("random.example.org");
+        assertEquals(4, fixture.getServerNameLookups());
+    }
+
+    private String resolve(String serverName) {
+        return fixture.getUtil().findSiteKeyForRequest(new StubHttpServletRequest("GET", "https", serverName, 443, "", "/cms/connect.saml"));
+    }
+}
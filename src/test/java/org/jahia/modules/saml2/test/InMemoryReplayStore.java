@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.test;
+
+import org.jahia.modules.saml2.SAML2ReplayStore;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process stand-in for the shared replay store of a cluster, to be registered on several fixtures acting as nodes.
+ */
+public final class InMemoryReplayStore implements SAML2ReplayStore {
+
+    private final ConcurrentMap<String, Long> expirations = new ConcurrentHashMap<>();
+    private final AtomicInteger replays = new AtomicInteger();
+
+    @Override
+    public boolean add(String key, long expiration) {
+        final long now = System.currentTimeMillis();
+        final Long previous = expirations.putIfAbsent(key, expiration);
+        if (previous == null) {
+            return true;
+        }
+        if (previous <= now && expirations.replace(key, previous, expiration)) {
+            return true;
+        }
+        replays.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return the number of keys found already recorded
+     */
+    public int getReplays() {
+        return replays.get();
+    }
+}
@@ -0,0 +1,474 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.test;
+
+import org.jahia.api.settings.SettingsBean;
+import org.jahia.modules.jahiaauth.service.ConnectorConfig;
+import org.jahia.modules.jahiaauth.service.JahiaAuthMapperService;
+import org.jahia.modules.jahiaauth.service.MappedProperty;
+import org.jahia.modules.jahiaauth.service.MapperConfig;
+import org.jahia.modules.jahiaauth.service.SettingsService;
+import org.jahia.modules.saml2.SAML2ReplayStore;
+import org.jahia.modules.saml2.SAMLConfigException;
+import org.jahia.modules.saml2.internal.KeyStoreGenerator;
+import org.jahia.modules.saml2.internal.SAML2Constants;
+import org.jahia.modules.saml2.internal.SAML2Filter;
+import org.jahia.modules.saml2.internal.SAML2Util;
+import org.jahia.services.content.JCRCallback;
+import org.jahia.services.content.JCRSessionWrapper;
+import org.jahia.services.content.JCRTemplate;
+import org.jahia.services.content.decorator.JCRSiteNode;
+import org.jahia.services.content.decorator.JCRUserNode;
+import org.jahia.services.sites.JahiaSitesService;
+import org.jahia.services.usermanager.JahiaUserManagerService;
+import org.mockito.MockedStatic;
+import org.mockito.Mockito;
+import org.mockito.MockSettings;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * A {@link SAML2Util} and {@link SAML2Filter} wired with stand-ins for the Jahia services, serving a number of sites
+ * that all trust the same {@link TestIdentityProvider}. The service provider key store is generated once and shared
+ * by all sites. Services called on the measured paths are {@link StandIns}, the others are mocks.
+ */
+public final class SAML2Fixture implements AutoCloseable {
+
+    public static final String SCHEME = "http";
+    public static final String SERVER_NAME = "localhost";
+    public static final int SERVER_PORT = 8080;
+    public static final String SERVER_LOCATION = SCHEME + "://" + SERVER_NAME + ":" + SERVER_PORT;
+    public static final String AUTHORIZED_REDIRECT_HOST = "www.example.com";
+    /**
+     * Attribute identifying the user, configured as mapper ID field of all sites.
+     */
+    public static final String USER_ID_FIELD = "email";
+    /**
+     * Filter chain of requests the SAML filter is expected to answer itself.
+     */
+    public static final FilterChain NO_CHAIN = (request, response) -> {
+        throw new ServletException("Request not handled by the SAML filter");
+    };
+
+    private static final String KEY_STORE_TYPE = "PKCS12";
+    private static final String KEY_STORE_ALIAS = "saml2";
+    private static final String KEY_STORE_PASS = "changeit";
+
+    private final TestIdentityProvider identityProvider;
+    private final List<String> siteKeys;
+    private final Map<String, ConnectorConfig> connectors = new HashMap<>();
+    private final SAML2Util util = new SAML2Util();
+    private final SAML2Filter filter = new SAML2Filter();
+    private final JahiaSitesService sitesService;
+    private final AtomicInteger serverNameLookups = new AtomicInteger();
+    private final Mappers mapperDelegate = new Mappers();
+
+    /**
+     * @param siteCount   number of sites with an enabled SAML connector
+     * @param bindingType AuthnRequest binding of all sites, one of the SAML 2.0 HTTP-POST or HTTP-Redirect binding URIs
+     * @param properties  module settings, as configured in {@code org.jahia.modules.saml2.cfg}; admission control is
+     *                    disabled unless set, all stub requests coming from the same address
+     */
+    public SAML2Fixture(int siteCount, String bindingType, Map<String, ?> properties) {
+        this(new TestIdentityProvider("https://idp.example.com/idp", "https://idp.example.com/idp/sso"), siteCount, bindingType, properties);
+    }
+
+    /**
+     * Fixture trusting the given identity provider, for instance to run several nodes of a cluster against one IdP.
+     */
+    public SAML2Fixture(TestIdentityProvider identityProvider, int siteCount, String bindingType, Map<String, ?> properties) {
+        this.identityProvider = identityProvider;
+        final byte[] idpMetadata = identityProvider.getMetadata();
+        final KeyStoreGenerator generator = new KeyStoreGenerator(1);
+        final byte[] keyStore;
+        try {
+            keyStore = generator.generate(KEY_STORE_TYPE, KEY_STORE_ALIAS, KEY_STORE_PASS, KEY_STORE_PASS);
+        } finally {
+            generator.shutdown();
+        }
+
+        final MapperConfig mapper = stub(MapperConfig.class);
+        when(mapper.getMapperName()).thenReturn("jcrOAuthProvider");
+        when(mapper.isEnabled()).thenReturn(true);
+        final List<MapperConfig> mappers = Collections.singletonList(mapper);
+
+        final List<String> keys = new ArrayList<>(siteCount);
+        for (int i = 0; i < siteCount; i++) {
+            final String siteKey = "site" + i;
+            keys.add(siteKey);
+            final Map<String, String> values = new HashMap<>();
+            values.put(SAML2Constants.ENABLED, "true");
+            values.put(SAML2Constants.RELYING_PARTY_IDENTIFIER, "urn:jahia:" + siteKey);
+            values.put(SAML2Constants.SERVER_LOCATION, SERVER_LOCATION);
+            values.put(SAML2Constants.INCOMING_TARGET_URL, "/sites/" + siteKey + "/home.callback.saml?siteKey=" + siteKey);
+            values.put(SAML2Constants.POST_LOGIN_PATH, "/sites/" + siteKey + "/home.html");
+            values.put(SAML2Constants.MAXIMUM_AUTHENTICATION_LIFETIME, "86400");
+            values.put(SAML2Constants.KEY_STORE, "");
+            values.put(SAML2Constants.KEY_STORE_TYPE, KEY_STORE_TYPE);
+            values.put(SAML2Constants.KEY_STORE_ALIAS, KEY_STORE_ALIAS);
+            values.put(SAML2Constants.KEY_STORE_PASS, KEY_STORE_PASS);
+            values.put(SAML2Constants.PRIVATE_KEY_PASS, KEY_STORE_PASS);
+            values.put(SAML2Constants.SIGN_AUTH_REQUEST, "true");
+            values.put(SAML2Constants.REQUIRES_SIGNED_ASSERTIONS, "true");
+            values.put(SAML2Constants.BINDING_TYPE, bindingType);
+            values.put(SAML2Constants.MAPPER_ID_FIELD, USER_ID_FIELD);
+            final Map<String, byte[]> binaryValues = new HashMap<>();
+            binaryValues.put(SAML2Constants.IDENTITY_PROVIDER_METADATA, idpMetadata);
+            binaryValues.put(SAML2Constants.KEY_STORE, keyStore);
+
+            final ConnectorConfig connector = StandIns.of(ConnectorConfig.class, new Connector(siteKey, values, binaryValues, mappers));
+            connectors.put(siteKey, connector);
+        }
+        siteKeys = Collections.unmodifiableList(keys);
+
+        final SettingsService settingsService = StandIns.of(SettingsService.class, new SiteSettings(connectors));
+        final SettingsBean settingsBean = StandIns.of(SettingsBean.class, new Hosts(Collections.singleton(AUTHORIZED_REDIRECT_HOST)));
+        sitesService = stub(JahiaSitesService.class);
+        when(sitesService.getSitesNames()).thenReturn(siteKeys);
+        try {
+            when(sitesService.getSiteByServerName(anyString(), any())).thenAnswer(invocation -> {
+                final String serverName = invocation.getArgument(0);
+                serverNameLookups.incrementAndGet();
+                final String siteKey = serverName.substring(0, serverName.indexOf('.'));
+                if (!connectors.containsKey(siteKey)) {
+                    return null;
+                }
+                final JCRSiteNode site = stub(JCRSiteNode.class);
+                when(site.getSiteKey()).thenReturn(siteKey);
+                return site;
+            });
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        final JahiaAuthMapperService mapperService = StandIns.of(JahiaAuthMapperService.class, mapperDelegate);
+        final JahiaUserManagerService userManagerService = StandIns.of(JahiaUserManagerService.class,
+                new Users(stub(JCRUserNode.class)));
+
+        inject(util, "sitesService", sitesService);
+        inject(util, "settingsService", settingsService);
+        inject(util, "settingsBean", settingsBean);
+        final Map<String, Object> moduleSettings = settings("admission.enabled", "false");
+        if (properties != null) {
+            moduleSettings.putAll(properties);
+        }
+        util.activate(moduleSettings);
+        inject(filter, "util", util);
+        inject(filter, "jahiaAuthMapperService", mapperService);
+        inject(filter, "userManagerService", userManagerService);
+        filter.activate();
+    }
+
+    public SAML2Util getUtil() {
+        return util;
+    }
+
+    public SAML2Filter getFilter() {
+        return filter;
+    }
+
+    public TestIdentityProvider getIdentityProvider() {
+        return identityProvider;
+    }
+
+    /**
+     * Make each mapper execution last the given time, to hold logins on the login executor.
+     */
+    public void setMapperDelay(long millis) {
+        mapperDelegate.delay = millis;
+    }
+
+    /**
+     * @return the properties passed to the last mapper execution
+     */
+    public Map<String, Object> getLastMapperProperties() {
+        return mapperDelegate.lastProperties;
+    }
+
+    /**
+     * Register the shared replay store of the cluster, as the OSGi service reference would.
+     */
+    public void setReplayStore(SAML2ReplayStore replayStore) {
+        inject(util, "replayStore", replayStore);
+    }
+
+    public List<String> getSiteKeys() {
+        return siteKeys;
+    }
+
+    /**
+     * Server name resolving to the given site through {@link JahiaSitesService#getSiteByServerName}.
+     */
+    public static String getServerName(String siteKey) {
+        return siteKey + ".example.com";
+    }
+
+    /**
+     * @return the number of server names looked up in the JCR
+     */
+    public int getServerNameLookups() {
+        return serverNameLookups.get();
+    }
+
+    public String getServiceProviderEntityId(String siteKey) {
+        return connectors.get(siteKey).getProperty(SAML2Constants.RELYING_PARTY_IDENTIFIER);
+    }
+
+    /**
+     * Assertion consumer service URL published in the service provider metadata of the site.
+     */
+    public String getAssertionConsumerServiceUrl(String siteKey) throws SAMLConfigException {
+        return util.getSAML2Client(null, siteKey).computeFinalCallbackUrl(null);
+    }
+
+    /**
+     * Mock the static {@link JCRTemplate} lookup used to resolve server names. As all Mockito static mocks, it only
+     * applies to the calling thread and must be closed by it.
+     */
+    public MockedStatic<JCRTemplate> mockJCRTemplate() {
+        final JCRTemplate template = stub(JCRTemplate.class);
+        final JCRSessionWrapper session = stub(JCRSessionWrapper.class);
+        try {
+            when(template.doExecuteWithSystemSession(any())).thenAnswer(invocation -> invocation.<JCRCallback<?>>getArgument(0).doInJCR(session));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        final MockedStatic<JCRTemplate> mocked = Mockito.mockStatic(JCRTemplate.class);
+        mocked.when(JCRTemplate::getInstance).thenReturn(template);
+        return mocked;
+    }
+
+    public StubHttpServletRequest connectRequest(String siteKey, StubHttpSession session) {
+        return request("GET", "/cms/connect.saml", session).parameter(SAML2Constants.SITEKEY, siteKey).queryString(SAML2Constants.SITEKEY + "=" + siteKey);
+    }
+
+    public StubHttpServletRequest callbackRequest(String siteKey, StubHttpSession session, String samlResponse) {
+        return request("POST", "/sites/" + siteKey + "/home.callback.saml", session)
+                .parameter(SAML2Constants.SITEKEY, siteKey)
+                .parameter("client_name", "SAML2Client")
+                .parameter("SAMLResponse", samlResponse)
+                .queryString(SAML2Constants.SITEKEY + "=" + siteKey + "&client_name=SAML2Client");
+    }
+
+    /**
+     * Logout request of the IdP, posted to the single logout service advertised in the SP metadata.
+     */
+    public StubHttpServletRequest idpLogoutRequest(String siteKey, StubHttpSession session, String samlRequest) {
+        return request("POST", "/sites/" + siteKey + "/home.callback.saml", session)
+                .parameter(SAML2Constants.SITEKEY, siteKey)
+                .parameter("client_name", "SAML2Client")
+                .parameter("logoutendpoint", "true")
+                .parameter("SAMLRequest", samlRequest)
+                .queryString(SAML2Constants.SITEKEY + "=" + siteKey + "&client_name=SAML2Client&logoutendpoint=true");
+    }
+
+    public StubHttpServletRequest logoutRequest(String siteKey, StubHttpSession session) {
+        return request("GET", "/cms/logout.saml", session).parameter(SAML2Constants.SITEKEY, siteKey).queryString(SAML2Constants.SITEKEY + "=" + siteKey);
+    }
+
+    public StubHttpServletRequest metadataRequest(String siteKey) {
+        return request("GET", "/cms/metadata.saml", null).parameter(SAML2Constants.SITEKEY, siteKey).queryString(SAML2Constants.SITEKEY + "=" + siteKey);
+    }
+
+    @Override
+    public void close() {
+        util.deactivate();
+        filter.deactivate();
+    }
+
+    private static StubHttpServletRequest request(String method, String requestURI, StubHttpSession session) {
+        return new StubHttpServletRequest(method, SCHEME, SERVER_NAME, SERVER_PORT, "", requestURI).session(session);
+    }
+
+    /**
+     * Build the module settings map from alternating keys and values.
+     */
+    public static Map<String, Object> settings(Object... keysAndValues) {
+        final Map<String, Object> settings = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < keysAndValues.length; i += 2) {
+            settings.put((String) keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return settings;
+    }
+
+    private static <T> T stub(Class<T> type) {
+        final MockSettings settings = withSettings().stubOnly();
+        return mock(type, settings);
+    }
+
+    private static void inject(Object target, String fieldName, Object value) {
+        try {
+            final Field field = target.getClass().getDeclaredField(fieldName);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot inject " + fieldName + " into " + target.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * SAML connector configuration of a site.
+     */
+    public static final class Connector {
+        private final String siteKey;
+        private final Map<String, String> values;
+        private final Map<String, byte[]> binaryValues;
+        private final List<MapperConfig> mappers;
+
+        Connector(String siteKey, Map<String, String> values, Map<String, byte[]> binaryValues, List<MapperConfig> mappers) {
+            this.siteKey = siteKey;
+            this.values = values;
+            this.binaryValues = binaryValues;
+            this.mappers = mappers;
+        }
+
+        public String getSiteKey() {
+            return siteKey;
+        }
+
+        public String getConnectorName() {
+            return "Saml";
+        }
+
+        public String getProperty(String key) {
+            return values.get(key);
+        }
+
+        public byte[] getBinaryProperty(String key) {
+            return binaryValues.get(key);
+        }
+
+        public boolean getBooleanProperty(String key) {
+            return Boolean.parseBoolean(values.get(key));
+        }
+
+        public List<MapperConfig> getMappers() {
+            return mappers;
+        }
+    }
+
+    /**
+     * Connector configurations of all sites, by site key.
+     */
+    public static final class SiteSettings {
+        private final Map<String, ConnectorConfig> connectors;
+
+        SiteSettings(Map<String, ConnectorConfig> connectors) {
+            this.connectors = connectors;
+        }
+
+        public ConnectorConfig getConnectorConfig(String siteKey, String connectorName) {
+            return "Saml".equals(connectorName) ? connectors.get(siteKey) : null;
+        }
+    }
+
+    /**
+     * Authorized redirect hosts of the Jahia settings, without var directory so that nothing is written to disk.
+     */
+    public static final class Hosts {
+        private final Set<String> authorizedRedirectHosts;
+
+        Hosts(Set<String> authorizedRedirectHosts) {
+            this.authorizedRedirectHosts = authorizedRedirectHosts;
+        }
+
+        public Set<String> getAuthorizedRedirectHosts() {
+            return authorizedRedirectHosts;
+        }
+
+        public String getJahiaVarDiskPath() {
+            return null;
+        }
+    }
+
+    /**
+     * Mappers accepting every login without writing anything, logging in the user named by the {@link #USER_ID_FIELD}
+     * attribute.
+     */
+    public static final class Mappers {
+        private final ConcurrentMap<Object, MappedProperty> logins = new ConcurrentHashMap<>();
+        private volatile long delay;
+        private volatile Map<String, Object> lastProperties;
+
+        public Map<String, MappedProperty> executeMapper(String sessionId, MapperConfig mapper, Map<String, Object> properties) {
+            lastProperties = properties;
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            final Object userId = properties.get(USER_ID_FIELD);
+            if (userId == null) {
+                return Collections.emptyMap();
+            }
+            return Collections.singletonMap(JahiaAuthMapperService.SSO_LOGIN,
+                    logins.computeIfAbsent(userId, id -> StandIns.of(MappedProperty.class, new Login(id))));
+        }
+
+        public void executeConnectorResultProcessors(ConnectorConfig connectorConfig, Map<String, Object> properties) {
+            // nothing to process
+        }
+    }
+
+    /**
+     * Value of a mapped login property.
+     */
+    public static final class Login {
+        private final Object value;
+
+        Login(Object value) {
+            this.value = value;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * User manager finding every user.
+     */
+    public static final class Users {
+        private final JCRUserNode user;
+
+        Users(JCRUserNode user) {
+            this.user = user;
+        }
+
+        public JCRUserNode lookupUser(String name, String siteKey) {
+            return user;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.test;
+
+import net.bytebuddy.ByteBuddy;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.dynamic.DynamicType;
+import net.bytebuddy.dynamic.loading.ClassLoadingStrategy;
+import net.bytebuddy.implementation.MethodDelegation;
+import net.bytebuddy.matcher.ElementMatcher;
+import org.objenesis.ObjenesisStd;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Stand-ins for Jahia service types called on the measured paths. Mocks record every invocation with its stack trace,
+ * which costs more than the code being measured; a stand-in is a generated subclass of the type forwarding the
+ * methods declared by a plain delegate, instantiated without calling any constructor of the type.
+ */
+final class StandIns {
+
+    private static final ObjenesisStd OBJENESIS = new ObjenesisStd(true);
+
+    private StandIns() {
+    }
+
+    /**
+     * @param type     class or interface to stand in for
+     * @param delegate public object whose public methods implement the methods of the same signature of the type
+     */
+    static <T> T of(Class<T> type, Object delegate) {
+        DynamicType.Builder<T> builder = new ByteBuddy().subclass(type);
+        for (Method method : delegate.getClass().getDeclaredMethods()) {
+            if (Modifier.isPublic(method.getModifiers()) && !method.isSynthetic()) {
+                final ElementMatcher.Junction<MethodDescription> signature = named(method.getName()).and(takesArguments(method.getParameterTypes()));
+                builder = builder.method(signature).intercept(MethodDelegation.withDefaultConfiguration().filter(signature).to(delegate));
+            }
+        }
+        final Class<? extends T> standInType = builder.make()
+                .load(delegate.getClass().getClassLoader(), ClassLoadingStrategy.Default.WRAPPER)
+                .getLoaded();
+        return OBJENESIS.newInstance(standInType);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asynchronous context of a {@link StubHttpServletRequest}. The container timeout is fired by {@link #await()}, on the
+ * thread waiting for the response.
+ */
+public final class StubAsyncContext implements AsyncContext {
+
+    private final ServletRequest request;
+    private final ServletResponse response;
+    private final List<AsyncListener> listeners = new CopyOnWriteArrayList<>();
+    private final CountDownLatch completed = new CountDownLatch(1);
+    private volatile long timeout = 30000;
+
+    StubAsyncContext(ServletRequest request, ServletResponse response) {
+        this.request = request;
+        this.response = response;
+    }
+
+    /**
+     * Wait for the response, notifying the listeners of a timeout when it is not complete in time.
+     */
+    public void await() throws InterruptedException, IOException {
+        if (!completed.await(timeout, TimeUnit.MILLISECONDS)) {
+            for (AsyncListener listener : listeners) {
+                listener.onTimeout(new AsyncEvent(this, request, response));
+            }
+            completed.await();
+        }
+    }
+
+    @Override public ServletRequest getRequest() {
+        return request;
+    }
+
+    @Override public ServletResponse getResponse() {
+        return response;
+    }
+
+    @Override public boolean hasOriginalRequestAndResponse() {
+        return true;
+    }
+
+    @Override public void dispatch() {
+        throw new UnsupportedOperationException("AsyncContext.dispatch");
+    }
+
+    @Override public void dispatch(String path) {
+        throw new UnsupportedOperationException("AsyncContext.dispatch");
+    }
+
+    @Override public void dispatch(ServletContext context, String path) {
+        throw new UnsupportedOperationException("AsyncContext.dispatch");
+    }
+
+    @Override public void complete() {
+        if (completed.getCount() == 0) {
+            throw new IllegalStateException("Asynchronous request already completed");
+        }
+        completed.countDown();
+        for (AsyncListener listener : listeners) {
+            try {
+                listener.onComplete(new AsyncEvent(this, request, response));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override public void start(Runnable run) {
+        new Thread(run, "stub-async").start();
+    }
+
+    @Override public void addListener(AsyncListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+        listeners.add(listener);
+    }
+
+    @Override public <T extends AsyncListener> T createListener(Class<T> clazz) {
+        throw new UnsupportedOperationException("AsyncContext.createListener");
+    }
+
+    @Override public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override public long getTimeout() {
+        return timeout;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.test;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpSession;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Minimal in-memory request covering what the SAML filter, pac4j and OpenSAML read. Any other method fails with an
+ * {@link UnsupportedOperationException} naming it.
+ */
+public final class StubHttpServletRequest extends HttpServletRequestWrapper {
+
+    private final String method;
+    private final String scheme;
+    private final String serverName;
+    private final int serverPort;
+    private final String contextPath;
+    private final String requestURI;
+    private final Map<String, String[]> parameters = new LinkedHashMap<>();
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final List<Cookie> cookies = new ArrayList<>();
+    private String queryString;
+    private StubHttpSession session;
+    private volatile StubAsyncContext asyncContext;
+
+    public StubHttpServletRequest(String method, String scheme, String serverName, int serverPort, String contextPath, String requestURI) {
+        super(unsupported(HttpServletRequest.class));
+        this.method = method;
+        this.scheme = scheme;
+        this.serverName = serverName;
+        this.serverPort = serverPort;
+        this.contextPath = contextPath;
+        this.requestURI = requestURI;
+    }
+
+    public StubHttpServletRequest parameter(String name, String value) {
+        parameters.put(name, new String[]{value});
+        return this;
+    }
+
+    public StubHttpServletRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public StubHttpServletRequest cookie(String name, String value) {
+        cookies.add(new Cookie(name, value));
+        return this;
+    }
+
+    public StubHttpServletRequest queryString(String queryString) {
+        this.queryString = queryString;
+        return this;
+    }
+
+    public StubHttpServletRequest session(StubHttpSession session) {
+        this.session = session;
+        return this;
+    }
+
+    @Override public String getMethod() {
+        return method;
+    }
+
+    @Override public String getScheme() {
+        return scheme;
+    }
+
+    @Override public boolean isSecure() {
+        return "https".equals(scheme);
+    }
+
+    @Override public String getServerName() {
+        return serverName;
+    }
+
+    @Override public int getServerPort() {
+        return serverPort;
+    }
+
+    @Override public String getContextPath() {
+        return contextPath;
+    }
+
+    @Override public String getRequestURI() {
+        return requestURI;
+    }
+
+    @Override public StringBuffer getRequestURL() {
+        final StringBuffer url = new StringBuffer(64).append(scheme).append("://").append(serverName);
+        if (serverPort != ("https".equals(scheme) ? 443 : 80)) {
+            url.append(':').append(serverPort);
+        }
+        return url.append(requestURI);
+    }
+
+    @Override public String getQueryString() {
+        return queryString;
+    }
+
+    @Override public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override public String getRemoteAddr() {
+        return "127.0.0.1";
+    }
+
+    /**
+     * Length of the parameters as a form encoded body for POST requests, -1 otherwise.
+     */
+    @Override public long getContentLengthLong() {
+        if (!"POST".equals(method)) {
+            return -1;
+        }
+        long length = 0;
+        for (Map.Entry<String, String[]> parameter : parameters.entrySet()) {
+            for (String value : parameter.getValue()) {
+                length += (length > 0 ? 1 : 0) + URLEncoder.encode(parameter.getKey(), StandardCharsets.UTF_8).length() + 1
+                        + URLEncoder.encode(value, StandardCharsets.UTF_8).length();
+            }
+        }
+        return length;
+    }
+
+    @Override public int getContentLength() {
+        return (int) Math.min(Integer.MAX_VALUE, getContentLengthLong());
+    }
+
+    @Override public String getParameter(String name) {
+        final String[] values = parameters.get(name);
+        return values != null ? values[0] : null;
+    }
+
+    @Override public String[] getParameterValues(String name) {
+        return parameters.get(name);
+    }
+
+    @Override public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    @Override public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    @Override public Enumeration<String> getHeaders(String name) {
+        final String value = headers.get(name);
+        return value != null ? Collections.enumeration(Collections.singletonList(value)) : Collections.emptyEnumeration();
+    }
+
+    @Override public Enumeration<String> getHeaderNames() {
+        return Collections.enumeration(headers.keySet());
+    }
+
+    @Override public long getDateHeader(String name) {
+        final String value = headers.get(name);
+        return value != null ? ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() : -1;
+    }
+
+    @Override public Cookie[] getCookies() {
+        return cookies.isEmpty() ? null : cookies.toArray(new Cookie[0]);
+    }
+
+    @Override public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override public void setAttribute(String name, Object o) {
+        attributes.put(name, o);
+    }
+
+    @Override public void removeAttribute(String name) {
+        attributes.remove(name);
+    }
+
+    @Override public HttpSession getSession() {
+        return getSession(true);
+    }
+
+    @Override public HttpSession getSession(boolean create) {
+        if (session == null && create) {
+            session = new StubHttpSession();
+        }
+        return session;
+    }
+
+    @Override public boolean isAsyncSupported() {
+        return true;
+    }
+
+    @Override public boolean isAsyncStarted() {
+        return asyncContext != null;
+    }
+
+    @Override public AsyncContext startAsync() {
+        return startAsync(this, null);
+    }
+
+    @Override public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        asyncContext = new StubAsyncContext(servletRequest, servletResponse);
+        return asyncContext;
+    }
+
+    @Override public AsyncContext getAsyncContext() {
+        if (asyncContext == null) {
+            throw new IllegalStateException("Asynchronous processing not started");
+        }
+        return asyncContext;
+    }
+
+    /**
+     * Wait for the response of a request processed asynchronously, returns immediately otherwise.
+     */
+    public void awaitAsync() throws InterruptedException, IOException {
+        final StubAsyncContext context = asyncContext;
+        if (context != null) {
+            context.await();
+        }
+    }
+
+    @Override public String getCharacterEncoding() {
+        return "UTF-8";
+    }
+
+    static <T> T unsupported(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+        }));
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.test;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * In-memory response recording status, headers, cookies, redirection and body.
+ */
+public final class StubHttpServletResponse extends HttpServletResponseWrapper {
+
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final List<Cookie> cookies = new ArrayList<>();
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private StringWriter writerBuffer;
+    private PrintWriter writer;
+    private ServletOutputStream outputStream;
+    private int status = SC_OK;
+    private String redirectedUrl;
+    private String contentType;
+
+    public StubHttpServletResponse() {
+        super(StubHttpServletRequest.unsupported(HttpServletResponse.class));
+    }
+
+    public String getRedirectedUrl() {
+        return redirectedUrl;
+    }
+
+    public List<Cookie> getCookies() {
+        return cookies;
+    }
+
+    /**
+     * Body written so far, through the writer or the output stream.
+     */
+    public String getContentAsString() {
+        if (writer != null) {
+            writer.flush();
+            return writerBuffer.toString();
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public byte[] getContentAsByteArray() {
+        return body.toByteArray();
+    }
+
+    @Override public int getStatus() {
+        return status;
+    }
+
+    @Override public void setStatus(int sc) {
+        this.status = sc;
+    }
+
+    @Override public void sendError(int sc) {
+        this.status = sc;
+    }
+
+    @Override public void sendError(int sc, String msg) {
+        this.status = sc;
+    }
+
+    @Override public void sendRedirect(String location) {
+        this.status = SC_FOUND;
+        this.redirectedUrl = location;
+        headers.put("Location", location);
+    }
+
+    @Override public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    @Override public boolean containsHeader(String name) {
+        return headers.containsKey(name);
+    }
+
+    @Override public void setHeader(String name, String value) {
+        headers.put(name, value);
+    }
+
+    @Override public void addHeader(String name, String value) {
+        headers.merge(name, value, (previous, added) -> previous + ", " + added);
+    }
+
+    @Override public void setDateHeader(String name, long date) {
+        headers.put(name, Long.toString(date));
+    }
+
+    @Override public void setIntHeader(String name, int value) {
+        headers.put(name, Integer.toString(value));
+    }
+
+    @Override public void addCookie(Cookie cookie) {
+        cookies.add(cookie);
+    }
+
+    @Override public void setContentType(String type) {
+        this.contentType = type;
+    }
+
+    @Override public String getContentType() {
+        return contentType;
+    }
+
+    @Override public void setContentLength(int len) {
+        headers.put("Content-Length", Integer.toString(len));
+    }
+
+    @Override public void setCharacterEncoding(String charset) {
+        // always UTF-8
+    }
+
+    @Override public String getCharacterEncoding() {
+        return "UTF-8";
+    }
+
+    @Override public boolean isCommitted() {
+        return false;
+    }
+
+    @Override public PrintWriter getWriter() {
+        if (writer == null) {
+            writerBuffer = new StringWriter(1024);
+            writer = new PrintWriter(writerBuffer);
+        }
+        return writer;
+    }
+
+    @Override public ServletOutputStream getOutputStream() {
+        if (outputStream == null) {
+            outputStream = new ServletOutputStream() {
+                @Override public boolean isReady() {
+                    return true;
+                }
+
+                @Override public void setWriteListener(WriteListener writeListener) {
+                    throw new UnsupportedOperationException("setWriteListener");
+                }
+
+                @Override public void write(int b) {
+                    body.write(b);
+                }
+
+                @Override public void write(byte[] b, int off, int len) {
+                    body.write(b, off, len);
+                }
+            };
+        }
+        return outputStream;
+    }
+}
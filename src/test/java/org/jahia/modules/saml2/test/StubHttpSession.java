@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.test;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpSession;
+import javax.servlet.http.HttpSessionBindingEvent;
+import javax.servlet.http.HttpSessionBindingListener;
+import javax.servlet.http.HttpSessionContext;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory session, shared between the connect and callback requests of a simulated login.
+ */
+public final class StubHttpSession implements HttpSession {
+
+    private final String id = UUID.randomUUID().toString();
+    private final long creationTime = System.currentTimeMillis();
+    private final Map<String, Object> attributes = new ConcurrentHashMap<>();
+    private int maxInactiveInterval = 1800;
+    private volatile boolean invalidated;
+
+    public boolean isInvalidated() {
+        return invalidated;
+    }
+
+    @Override public long getCreationTime() {
+        return creationTime;
+    }
+
+    @Override public String getId() {
+        return id;
+    }
+
+    @Override public long getLastAccessedTime() {
+        return creationTime;
+    }
+
+    @Override public ServletContext getServletContext() {
+        return null;
+    }
+
+    @Override public void setMaxInactiveInterval(int interval) {
+        this.maxInactiveInterval = interval;
+    }
+
+    @Override public int getMaxInactiveInterval() {
+        return maxInactiveInterval;
+    }
+
+    @Override @SuppressWarnings("deprecation") public HttpSessionContext getSessionContext() {
+        return null;
+    }
+
+    @Override public Object getAttribute(String name) {
+        return attributes.get(name);
+    }
+
+    @Override public Object getValue(String name) {
+        return getAttribute(name);
+    }
+
+    @Override public Enumeration<String> getAttributeNames() {
+        return Collections.enumeration(attributes.keySet());
+    }
+
+    @Override public String[] getValueNames() {
+        return attributes.keySet().toArray(new String[0]);
+    }
+
+    @Override public void setAttribute(String name, Object value) {
+        if (value == null) {
+            removeAttribute(name);
+            return;
+        }
+        if (value instanceof HttpSessionBindingListener) {
+            ((HttpSessionBindingListener) value).valueBound(new HttpSessionBindingEvent(this, name, value));
+        }
+        unbound(name, attributes.put(name, value));
+    }
+
+    @Override public void putValue(String name, Object value) {
+        setAttribute(name, value);
+    }
+
+    @Override public void removeAttribute(String name) {
+        unbound(name, attributes.remove(name));
+    }
+
+    @Override public void removeValue(String name) {
+        removeAttribute(name);
+    }
+
+    @Override public void invalidate() {
+        invalidated = true;
+        for (String name : attributes.keySet()) {
+            removeAttribute(name);
+        }
+    }
+
+    @Override public boolean isNew() {
+        return false;
+    }
+
+    private void unbound(String name, Object value) {
+        if (value instanceof HttpSessionBindingListener) {
+            ((HttpSessionBindingListener) value).valueUnbound(new HttpSessionBindingEvent(this, name, value));
+        }
+    }
+}
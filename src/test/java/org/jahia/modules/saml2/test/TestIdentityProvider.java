@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2002-2025 Jahia Solutions Group SA. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jahia.modules.saml2.test;
+
+import net.shibboleth.utilities.java.support.codec.Base64Support;
+import net.shibboleth.utilities.java.support.xml.SerializeSupport;
+import org.jahia.modules.saml2.internal.KeyStoreGenerator;
+import org.joda.time.DateTime;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.saml.common.SAMLObjectContentReference;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+import org.opensaml.saml.saml2.core.AuthnContext;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.LogoutRequest;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.SessionIndex;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.saml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml.saml2.core.SubjectConfirmationData;
+import org.opensaml.saml.saml2.metadata.EntityDescriptor;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.Signer;
+import org.pac4j.saml.util.Configuration;
+import org.w3c.dom.Element;
+
+import javax.xml.namespace.QName;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * In-process identity provider issuing signed SAML responses with a generated key pair, so that the callback path can
+ * be exercised without any external IdP.
+ */
+public final class TestIdentityProvider {
+
+    private static final String ALIAS = "idp";
+    private static final String PASSWORD = "changeit";
+
+    private final String entityId;
+    private final String ssoLocation;
+    private final BasicX509Credential credential;
+    private final byte[] metadata;
+
+    public TestIdentityProvider(String entityId, String ssoLocation) {
+        this.entityId = entityId;
+        this.ssoLocation = ssoLocation;
+        // bootstraps OpenSAML the same way the pac4j client does
+        Configuration.getParserPool();
+        final KeyStoreGenerator generator = new KeyStoreGenerator(1);
+        try {
+            final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(new ByteArrayInputStream(generator.generate("PKCS12", ALIAS, PASSWORD, PASSWORD)), PASSWORD.toCharArray());
+            final X509Certificate certificate = (X509Certificate) keyStore.getCertificate(ALIAS);
+            this.credential = new BasicX509Credential(certificate, (PrivateKey) keyStore.getKey(ALIAS, PASSWORD.toCharArray()));
+            this.credential.setEntityId(entityId);
+            this.metadata = buildMetadata(Base64Support.encode(certificate.getEncoded(), false));
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot create the test identity provider key pair", e);
+        } finally {
+            generator.shutdown();
+        }
+    }
+
+    public String getEntityId() {
+        return entityId;
+    }
+
+    /**
+     * IdP metadata to store in the {@code identityProviderMetadata} property of the SAML connector.
+     */
+    public byte[] getMetadata() {
+        return metadata.clone();
+    }
+
+    /**
+     * PEM encoded certificate of the IdP, to configure as {@code identityProviderMetadataCertificate}.
+     */
+    public String getCertificate() {
+        try {
+            return "-----BEGIN CERTIFICATE-----\n" + Base64Support.encode(credential.getEntityCertificate().getEncoded(), true)
+                    + "\n-----END CERTIFICATE-----\n";
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot encode the test identity provider certificate", e);
+        }
+    }
+
+    /**
+     * IdP metadata signed with the IdP key, as published at a metadata URL.
+     *
+     * @param validUntil end of validity of the metadata, or null
+     */
+    public byte[] createSignedMetadata(DateTime validUntil) {
+        try {
+            final EntityDescriptor descriptor = (EntityDescriptor) XMLObjectSupport.unmarshallFromInputStream(Configuration.getParserPool(),
+                    new ByteArrayInputStream(metadata));
+            descriptor.setID(newId());
+            descriptor.setValidUntil(validUntil);
+            final Signature signature = signature();
+            descriptor.setSignature(signature);
+            ((SAMLObjectContentReference) signature.getContentReferences().get(0)).setDigestAlgorithm(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+            final Element element = Configuration.getMarshallerFactory().getMarshaller(descriptor).marshall(descriptor);
+            Signer.signObject(signature);
+            return SerializeSupport.nodeToString(element).getBytes(StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot sign IdP metadata", e);
+        }
+    }
+
+    /**
+     * Build a signed, base64 encoded SAMLResponse as posted by the browser to the assertion consumer service.
+     *
+     * @param acsUrl       assertion consumer service URL of the service provider, used as destination and recipient
+     * @param audience     entity id of the service provider
+     * @param inResponseTo id of the AuthnRequest, or null for an unsolicited response
+     * @param nameId       subject of the assertion
+     * @param attributes   attributes released to the service provider
+     */
+    public String createResponse(String acsUrl, String audience, String inResponseTo, String nameId, Map<String, String> attributes) {
+        final DateTime now = new DateTime();
+
+        final Response response = build(Response.DEFAULT_ELEMENT_NAME);
+        response.setID(newId());
+        response.setIssueInstant(now);
+        response.setDestination(acsUrl);
+        response.setInResponseTo(inResponseTo);
+        response.setIssuer(issuer());
+        final Status status = build(Status.DEFAULT_ELEMENT_NAME);
+        final StatusCode statusCode = build(StatusCode.DEFAULT_ELEMENT_NAME);
+        statusCode.setValue(StatusCode.SUCCESS);
+        status.setStatusCode(statusCode);
+        response.setStatus(status);
+
+        final Assertion assertion = build(Assertion.DEFAULT_ELEMENT_NAME);
+        assertion.setID(newId());
+        assertion.setIssueInstant(now);
+        assertion.setIssuer(issuer());
+
+        final Subject subject = build(Subject.DEFAULT_ELEMENT_NAME);
+        final NameID name = build(NameID.DEFAULT_ELEMENT_NAME);
+        name.setFormat(NameID.UNSPECIFIED);
+        name.setValue(nameId);
+        subject.setNameID(name);
+        final SubjectConfirmation confirmation = build(SubjectConfirmation.DEFAULT_ELEMENT_NAME);
+        confirmation.setMethod(SubjectConfirmation.METHOD_BEARER);
+        final SubjectConfirmationData confirmationData = build(SubjectConfirmationData.DEFAULT_ELEMENT_NAME);
+        confirmationData.setRecipient(acsUrl);
+        confirmationData.setInResponseTo(inResponseTo);
+        confirmationData.setNotOnOrAfter(now.plusMinutes(5));
+        confirmation.setSubjectConfirmationData(confirmationData);
+        subject.getSubjectConfirmations().add(confirmation);
+        assertion.setSubject(subject);
+
+        final Conditions conditions = build(Conditions.DEFAULT_ELEMENT_NAME);
+        conditions.setNotBefore(now.minusMinutes(1));
+        conditions.setNotOnOrAfter(now.plusMinutes(5));
+        final AudienceRestriction audienceRestriction = build(AudienceRestriction.DEFAULT_ELEMENT_NAME);
+        final Audience audienceElement = build(Audience.DEFAULT_ELEMENT_NAME);
+        audienceElement.setAudienceURI(audience);
+        audienceRestriction.getAudiences().add(audienceElement);
+        conditions.getAudienceRestrictions().add(audienceRestriction);
+        assertion.setConditions(conditions);
+
+        final AuthnStatement authnStatement = build(AuthnStatement.DEFAULT_ELEMENT_NAME);
+        authnStatement.setAuthnInstant(now);
+        authnStatement.setSessionIndex(newId());
+        final AuthnContext authnContext = build(AuthnContext.DEFAULT_ELEMENT_NAME);
+        final AuthnContextClassRef classRef = build(AuthnContextClassRef.DEFAULT_ELEMENT_NAME);
+        classRef.setAuthnContextClassRef(AuthnContext.PPT_AUTHN_CTX);
+        authnContext.setAuthnContextClassRef(classRef);
+        authnStatement.setAuthnContext(authnContext);
+        assertion.getAuthnStatements().add(authnStatement);
+
+        if (attributes != null && !attributes.isEmpty()) {
+            final AttributeStatement attributeStatement = build(AttributeStatement.DEFAULT_ELEMENT_NAME);
+            for (Map.Entry<String, String> entry : attributes.entrySet()) {
+                final Attribute attribute = build(Attribute.DEFAULT_ELEMENT_NAME);
+                attribute.setName(entry.getKey());
+                final XSString value = (XSString) Configuration.getBuilderFactory().getBuilderOrThrow(XSString.TYPE_NAME)
+                        .buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+                value.setValue(entry.getValue());
+                attribute.getAttributeValues().add(value);
+                attributeStatement.getAttributes().add(attribute);
+            }
+            assertion.getAttributeStatements().add(attributeStatement);
+        }
+
+        final Signature signature = signature();
+        assertion.setSignature(signature);
+        ((SAMLObjectContentReference) signature.getContentReferences().get(0)).setDigestAlgorithm(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+        response.getAssertions().add(assertion);
+
+        try {
+            final Element element = Configuration.getMarshallerFactory().getMarshaller(response).marshall(response);
+            Signer.signObject(signature);
+            return Base64Support.encode(SerializeSupport.nodeToString(element).getBytes(StandardCharsets.UTF_8), false);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot sign SAML response", e);
+        }
+    }
+
+    /**
+     * Build a signed, base64 encoded SAMLRequest ending the sessions of a subject, as posted by the browser to the
+     * single logout service.
+     *
+     * @param sloUrl         single logout service URL of the service provider
+     * @param nameId         subject of the logout
+     * @param sessionIndexes sessions to end, all the sessions of the subject when empty
+     */
+    public String createLogoutRequest(String sloUrl, String nameId, String... sessionIndexes) {
+        final LogoutRequest logoutRequest = build(LogoutRequest.DEFAULT_ELEMENT_NAME);
+        logoutRequest.setID(newId());
+        logoutRequest.setIssueInstant(new DateTime());
+        logoutRequest.setDestination(sloUrl);
+        logoutRequest.setIssuer(issuer());
+        final NameID name = build(NameID.DEFAULT_ELEMENT_NAME);
+        name.setFormat(NameID.UNSPECIFIED);
+        name.setValue(nameId);
+        logoutRequest.setNameID(name);
+        for (String sessionIndex : sessionIndexes) {
+            final SessionIndex element = build(SessionIndex.DEFAULT_ELEMENT_NAME);
+            element.setSessionIndex(sessionIndex);
+            logoutRequest.getSessionIndexes().add(element);
+        }
+        final Signature signature = signature();
+        logoutRequest.setSignature(signature);
+        ((SAMLObjectContentReference) signature.getContentReferences().get(0)).setDigestAlgorithm(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+
+        try {
+            final Element element = Configuration.getMarshallerFactory().getMarshaller(logoutRequest).marshall(logoutRequest);
+            Signer.signObject(signature);
+            return Base64Support.encode(SerializeSupport.nodeToString(element).getBytes(StandardCharsets.UTF_8), false);
+        } catch (Exception e) {
+            throw new IllegalStateException("Cannot sign SAML logout request", e);
+        }
+    }
+
+    private Signature signature() {
+        final Signature signature = build(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(credential);
+        signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
+        signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+        return signature;
+    }
+
+    private Issuer issuer() {
+        final Issuer issuer = build(Issuer.DEFAULT_ELEMENT_NAME);
+        issuer.setValue(entityId);
+        return issuer;
+    }
+
+    private byte[] buildMetadata(String certificate) {
+        return ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<md:EntityDescriptor xmlns:md=\"" + SAMLConstants.SAML20MD_NS + "\" entityID=\"" + entityId + "\">\n"
+                + "  <md:IDPSSODescriptor WantAuthnRequestsSigned=\"false\" protocolSupportEnumeration=\"" + SAMLConstants.SAML20P_NS + "\">\n"
+                + "    <md:KeyDescriptor use=\"signing\">\n"
+                + "      <ds:KeyInfo xmlns:ds=\"" + SignatureConstants.XMLSIG_NS + "\">\n"
+                + "        <ds:X509Data><ds:X509Certificate>" + certificate + "</ds:X509Certificate></ds:X509Data>\n"
+                + "      </ds:KeyInfo>\n"
+                + "    </md:KeyDescriptor>\n"
+                + "    <md:SingleLogoutService Binding=\"" + SAMLConstants.SAML2_POST_BINDING_URI + "\" Location=\"" + ssoLocation + "\"/>\n"
+                + "    <md:NameIDFormat>" + NameID.UNSPECIFIED + "</md:NameIDFormat>\n"
+                + "    <md:SingleSignOnService Binding=\"" + SAMLConstants.SAML2_REDIRECT_BINDING_URI + "\" Location=\"" + ssoLocation + "\"/>\n"
+                + "    <md:SingleSignOnService Binding=\"" + SAMLConstants.SAML2_POST_BINDING_URI + "\" Location=\"" + ssoLocation + "\"/>\n"
+                + "  </md:IDPSSODescriptor>\n"
+                + "</md:EntityDescriptor>\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String newId() {
+        return "_" + UUID.randomUUID();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends XMLObject> T build(QName name) {
+        return (T) Configuration.getBuilderFactory().getBuilderOrThrow(name).buildObject(name);
+    }
+}